@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.text.SimpleDateFormat;
+
+public class TestDayFormatter extends AndroidTestCase {
+    private static final long DAY_IN_MILLIS = 1000*60*60*24;
+    private static final int DAYS = 14;
+
+    private long[] getForecastDays() {
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        long[] days = new long[DAYS];
+        for (int i = 0; i < DAYS; i++) {
+            // Noon, so a daylight saving change in the next two weeks can't move it to another day
+            days[i] = WeatherContract.normalizeDate(today + i * DAY_IN_MILLIS + DAY_IN_MILLIS / 2)
+                    + DAY_IN_MILLIS / 2;
+        }
+        return days;
+    }
+
+    /*
+        The day strings are the same as they were when every call formatted them afresh.
+     */
+    public void testFormatsLikeBefore() {
+        long[] days = getForecastDays();
+        String today = mContext.getString(R.string.today);
+        String tomorrow = mContext.getString(R.string.tomorrow);
+        SimpleDateFormat dayNameFormat = new SimpleDateFormat("EEEE");
+        SimpleDateFormat shortDateFormat = new SimpleDateFormat("EEE MMM dd");
+        SimpleDateFormat monthDayFormat = new SimpleDateFormat("MMMM dd");
+
+        for (int i = 0; i < DAYS; i++) {
+            String dayName = i == 0 ? today : i == 1 ? tomorrow : dayNameFormat.format(days[i]);
+            String monthDay = monthDayFormat.format(days[i]);
+            assertEquals("Error: Wrong day name", dayName,
+                    Utility.getDayName(mContext, days[i]));
+            assertEquals("Error: Wrong month and day", monthDay,
+                    Utility.getFormattedMonthDay(mContext, days[i]));
+            assertEquals("Error: Wrong full friendly day",
+                    mContext.getString(R.string.format_full_friendly_date, dayName, monthDay),
+                    Utility.getFullFriendlyDayString(mContext, days[i]));
+
+            String friendly = i < 7 ? dayName : shortDateFormat.format(days[i]);
+            assertEquals("Error: Wrong friendly day", friendly,
+                    Utility.getFriendlyDayString(mContext, days[i], false));
+            assertEquals("Error: Wrong friendly day for today's layout",
+                    i == 0 ? mContext.getString(R.string.format_full_friendly_date, today, monthDay)
+                            : friendly,
+                    Utility.getFriendlyDayString(mContext, days[i], true));
+        }
+    }
+
+    /*
+        Asking for the same days again is answered from the cache.
+     */
+    public void testRepeatedDaysAreCached() {
+        DayFormatter formatter = DayFormatter.getInstance(mContext);
+        long[] days = getForecastDays();
+        for (long day : days) {
+            formatter.format(day, DayFormatter.STYLE_FRIENDLY);
+        }
+
+        int hits = formatter.getHitCount();
+        int misses = formatter.getMissCount();
+        for (long day : days) {
+            formatter.format(day, DayFormatter.STYLE_FRIENDLY);
+        }
+        assertEquals("Error: A day was formatted again", misses, formatter.getMissCount());
+        assertEquals("Error: Every day should have come from the cache",
+                hits + DAYS, formatter.getHitCount());
+    }
+}
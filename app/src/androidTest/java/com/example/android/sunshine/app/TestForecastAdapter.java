@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.os.Debug;
+import android.preference.PreferenceManager;
+import android.support.v7.widget.RecyclerView;
+import android.test.AndroidTestCase;
+import android.view.ContextThemeWrapper;
+import android.view.View;
+import android.widget.AbsListView;
+
+import com.example.android.sunshine.app.data.ForecastSeries;
+
+public class TestForecastAdapter extends AndroidTestCase {
+    private static final long TEST_DATE = 1419033600L;  // December 20th, 2014
+    private static final long DAY_IN_MILLIS = 1000*60*60*24;
+    private static final int BINDS = 100;
+
+    /*
+        Once a row has been bound, binding rows into the same holder shouldn't allocate: the
+        strings were all formatted when the rows were built.  The rows share a weather condition,
+        so that the icon is the same drawable, and the local graphics are used, as loading art
+        from the network allocates by design.
+     */
+    @SuppressWarnings("deprecation")
+    public void testBindDoesNotAllocate() {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        String artPackKey = mContext.getString(R.string.pref_art_pack_key);
+        String savedArtPack = prefs.getString(artPackKey, null);
+        prefs.edit().putString(artPackKey, mContext.getString(R.string.pref_art_pack_sunshine))
+                .commit();
+        SettingsSnapshot.reload(mContext);
+        try {
+            Context context = new ContextThemeWrapper(mContext, R.style.AppTheme);
+            ForecastAdapter adapter = new ForecastAdapter(context, null, new View(context),
+                    AbsListView.CHOICE_MODE_NONE);
+            ForecastSeries days = new ForecastSeries(3);
+            for (int i = 0; i < 3; i++) {
+                days.add(TEST_DATE + i * DAY_IN_MILLIS, 800, "Clear", 60 + i, 70 + i,
+                        1.1, 1.2, 1.3, 1.4);
+            }
+            Cursor cursor = days.toCursor();
+            adapter.swapCursor(cursor);
+
+            ForecastAdapter.ForecastAdapterViewHolder holder = adapter.onCreateViewHolder(
+                    new RecyclerView(context), adapter.getItemViewType(1));
+            adapter.onBindViewHolder(holder, 1);
+            adapter.onBindViewHolder(holder, 2);
+
+            Debug.resetThreadAllocCount();
+            Debug.startAllocCounting();
+            for (int i = 0; i < BINDS; i++) {
+                adapter.onBindViewHolder(holder, 1 + i % 2);
+            }
+            Debug.stopAllocCounting();
+            assertEquals("Error: Binding a row allocated", 0, Debug.getThreadAllocCount());
+
+            adapter.swapCursor(null);
+            cursor.close();
+        } finally {
+            prefs.edit().putString(artPackKey, savedArtPack).commit();
+            SettingsSnapshot.reload(mContext);
+        }
+    }
+}
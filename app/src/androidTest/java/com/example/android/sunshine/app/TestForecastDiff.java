@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.support.v7.widget.RecyclerView;
+import android.test.AndroidTestCase;
+import android.view.View;
+import android.view.ViewGroup;
+
+import com.example.android.sunshine.app.data.ForecastSeries;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class TestForecastDiff extends AndroidTestCase {
+    private static final long TEST_DATE = 1419033600L;  // December 20th, 2014
+    private static final long DAY_IN_MILLIS = 1000*60*60*24;
+
+    /*
+        Stands in for ForecastAdapter, recording the notifications instead of binding.
+     */
+    static class RecordingAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
+        final List<String> mEvents = new ArrayList<String>();
+
+        RecordingAdapter() {
+            registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
+                @Override
+                public void onChanged() {
+                    mEvents.add("all");
+                }
+
+                @Override
+                public void onItemRangeChanged(int positionStart, int itemCount) {
+                    mEvents.add("change " + positionStart + " " + itemCount);
+                }
+
+                @Override
+                public void onItemRangeInserted(int positionStart, int itemCount) {
+                    mEvents.add("insert " + positionStart + " " + itemCount);
+                }
+
+                @Override
+                public void onItemRangeRemoved(int positionStart, int itemCount) {
+                    mEvents.add("remove " + positionStart + " " + itemCount);
+                }
+            });
+        }
+
+        @Override
+        public RecyclerView.ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+            return new RecyclerView.ViewHolder(new View(parent.getContext())) {};
+        }
+
+        @Override
+        public void onBindViewHolder(RecyclerView.ViewHolder holder, int position) {
+        }
+
+        @Override
+        public int getItemCount() {
+            return 0;
+        }
+    }
+
+    /*
+        One day per entry of highs, starting at TEST_DATE plus firstDay days.
+     */
+    private static ForecastSeries createSeries(int firstDay, double... highs) {
+        ForecastSeries series = new ForecastSeries(highs.length);
+        for (int i = 0; i < highs.length; i++) {
+            series.add(TEST_DATE + (firstDay + i) * DAY_IN_MILLIS, 800, "Clear", 60, highs[i],
+                    1.1, 1.2, 1.3, 1.4);
+        }
+        return series;
+    }
+
+    private List<String> diff(ForecastSeries oldDays, ForecastSeries newDays) {
+        RecordingAdapter adapter = new RecordingAdapter();
+        ForecastDiff.dispatch(ForecastRow.fromSeries(mContext, oldDays),
+                ForecastRow.fromSeries(mContext, newDays), adapter);
+        return adapter.mEvents;
+    }
+
+    /*
+        The same forecast again, even with a change to a column the list doesn't show, rebinds
+        nothing.
+     */
+    public void testUnchangedForecastNotifiesNothing() {
+        ForecastSeries oldDays = createSeries(0, 70, 71, 72);
+        ForecastSeries newDays = new ForecastSeries(3);
+        for (int i = 0; i < 3; i++) {
+            newDays.add(oldDays.getDate(i), 800, "Clear", 60, oldDays.getMaxTemp(i),
+                    99, 1.2, 1.3, 1.4);
+        }
+        assertEquals("Error: An unchanged forecast was notified",
+                0, diff(oldDays, newDays).size());
+    }
+
+    /*
+        Changed days are notified as ranges, at their positions.
+     */
+    public void testChangedDays() {
+        assertEquals("Error: Wrong notifications for changed days",
+                Arrays.asList("change 1 2", "change 4 1"),
+                diff(createSeries(0, 70, 71, 72, 73, 74), createSeries(0, 70, 81, 82, 73, 84)));
+    }
+
+    /*
+        Days dropped at the front and added at the back are removed and inserted, and the
+        positions of later notifications take the earlier ones into account.
+     */
+    public void testRemovedAndInsertedDays() {
+        assertEquals("Error: Wrong notifications for a forecast that moved on a day",
+                Arrays.asList("remove 0 1", "change 1 1", "insert 4 2"),
+                diff(createSeries(0, 70, 71, 72, 73, 74), createSeries(1, 71, 82, 73, 74, 75, 76)));
+        assertEquals("Error: Wrong notifications for a forecast with a gap filled in",
+                Arrays.asList("insert 1 1"),
+                diff(append(createSeries(0, 70), createSeries(2, 72)), createSeries(0, 70, 71, 72)));
+        assertEquals("Error: Wrong notifications for a first load",
+                Arrays.asList("insert 0 3"),
+                diff(createSeries(0), createSeries(0, 70, 71, 72)));
+    }
+
+    /*
+        Rows that aren't sorted by date can't be matched up, so the whole list is rebound.
+     */
+    public void testUnsortedForecastRebindsAll() {
+        ForecastSeries unsorted = append(createSeries(2, 72), createSeries(0, 70));
+        assertEquals("Error: An unsorted forecast wasn't rebound whole",
+                Arrays.asList("all"), diff(createSeries(0, 70, 71, 72), unsorted));
+    }
+
+    private static ForecastSeries append(ForecastSeries first, ForecastSeries second) {
+        ForecastSeries series = new ForecastSeries(first.size() + second.size());
+        for (ForecastSeries days : new ForecastSeries[]{first, second}) {
+            for (int i = 0; i < days.size(); i++) {
+                series.add(days.getDate(i), days.getWeatherId(i), days.getShortDesc(i),
+                        days.getMinTemp(i), days.getMaxTemp(i), days.getHumidity(i),
+                        days.getPressure(i), days.getWindSpeed(i), days.getDegrees(i));
+            }
+        }
+        return series;
+    }
+}
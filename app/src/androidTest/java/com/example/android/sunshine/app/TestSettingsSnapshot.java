@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
+import com.example.android.sunshine.app.utils.PollingCheck;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class TestSettingsSnapshot extends AndroidTestCase {
+    public static final String LOG_TAG = TestSettingsSnapshot.class.getSimpleName();
+    private static final int CALLS = 10000;
+
+    private static final String TEST_LOCATION = "Snapshot Test City";
+
+    private SharedPreferences mPrefs;
+    private String mUnitsKey;
+    private String mSavedUnits;
+    private String mLocationKey;
+    private String mSavedLocation;
+    private long mLocationId = -1;
+    // SharedPreferences only keeps a weak reference to its listeners
+    private SharedPreferences.OnSharedPreferenceChangeListener mListener;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPrefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        mUnitsKey = mContext.getString(R.string.pref_units_key);
+        mSavedUnits = mPrefs.getString(mUnitsKey, null);
+        mLocationKey = mContext.getString(R.string.pref_location_key);
+        mSavedLocation = mPrefs.getString(mLocationKey, null);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (mListener != null) {
+            mPrefs.unregisterOnSharedPreferenceChangeListener(mListener);
+        }
+        mPrefs.edit().putString(mUnitsKey, mSavedUnits)
+                .putString(mLocationKey, mSavedLocation)
+                .commit();
+        if (mLocationId != -1) {
+            mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI,
+                    WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ?",
+                    new String[]{Long.toString(mLocationId)});
+            mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI,
+                    WeatherContract.LocationEntry._ID + " = ?",
+                    new String[]{Long.toString(mLocationId)});
+        }
+        SettingsSnapshot.reload(mContext);
+        super.tearDown();
+    }
+
+    /*
+        A change to the preferences reaches the snapshot through the change listener, without
+        anybody asking for it, and the old snapshot is left as it was.
+     */
+    public void testSnapshotFollowsPreferences() {
+        mPrefs.edit().putString(mUnitsKey, mContext.getString(R.string.pref_units_metric))
+                .commit();
+        final SettingsSnapshot metric = SettingsSnapshot.reload(mContext);
+        assertTrue("Error: The snapshot didn't read the units", metric.isMetric());
+
+        mPrefs.edit().putString(mUnitsKey, mContext.getString(R.string.pref_units_imperial))
+                .commit();
+        new PollingCheck() {
+            @Override
+            protected boolean check() {
+                return SettingsSnapshot.get(mContext) != metric;
+            }
+        }.run();
+        assertFalse("Error: The new snapshot has the old units", Utility.isMetric(mContext));
+        assertTrue("Error: The old snapshot changed", metric.isMetric());
+    }
+
+    /*
+        A listener that SharedPreferences runs before the snapshot's, as the settings screen's
+        may be, still sees the new location when it hands it to the sync adapter: the new
+        location's stored forecast is found, rather than the old location's looked for.
+     */
+    public void testListenerBeforeSnapshotSeesNewLocation() {
+        mPrefs.edit().putString(mLocationKey, "Nowhere Stored").commit();
+        SettingsSnapshot.reload(mContext);
+
+        ContentValues location = new ContentValues();
+        location.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, TEST_LOCATION);
+        location.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, "Snapshot Test City");
+        location.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, 64.7488);
+        location.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, -147.353);
+        mLocationId = ContentUris.parseId(mContext.getContentResolver().insert(
+                WeatherContract.LocationEntry.buildUpsertUri(), location));
+        ContentValues weather = new ContentValues();
+        weather.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, mLocationId);
+        weather.put(WeatherContract.WeatherEntry.COLUMN_DATE,
+                System.currentTimeMillis() + 1000*60*60*24);
+        weather.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, 1.1);
+        weather.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, 1.2);
+        weather.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, 1.3);
+        weather.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, 75);
+        weather.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, 65);
+        weather.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, "Asteroids");
+        weather.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, 5.5);
+        weather.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, 321);
+        mContext.getContentResolver().insert(WeatherContract.WeatherEntry.CONTENT_URI, weather);
+
+        final String statusKey = mContext.getString(R.string.pref_location_status_key);
+        mPrefs.edit().putInt(statusKey, SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN).commit();
+        final AtomicReference<String> seen = new AtomicReference<String>();
+        mListener = new SharedPreferences.OnSharedPreferenceChangeListener() {
+            @Override
+            public void onSharedPreferenceChanged(SharedPreferences sharedPreferences,
+                                                  String key) {
+                if (mLocationKey.equals(key)) {
+                    SunshineSyncAdapter.onPreferredLocationChanged(mContext);
+                    seen.set(Utility.getPreferredLocation(mContext));
+                }
+            }
+        };
+        mPrefs.registerOnSharedPreferenceChangeListener(mListener);
+        mPrefs.edit().putString(mLocationKey, TEST_LOCATION).commit();
+
+        new PollingCheck() {
+            @Override
+            protected boolean check() {
+                return seen.get() != null;
+            }
+        }.run();
+        assertEquals("Error: The listener read the old location", TEST_LOCATION, seen.get());
+        assertEquals("Error: The new location's stored forecast wasn't found",
+                SunshineSyncAdapter.LOCATION_STATUS_OK,
+                mPrefs.getInt(statusKey, SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN));
+    }
+
+    /*
+        What formatting a row asks of the settings: the units for two temperatures, and the art
+        url.  Before the snapshot every call read the preferences; the same calls made that way
+        are timed here as the baseline.
+     */
+    public void testFormattingBenchmark() {
+        SettingsSnapshot.reload(mContext);
+        for (int round = 0; round < 2; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < CALLS; i++) {
+                formatTemperatureFromPreferences(mContext, 20 + i % 10);
+                formatTemperatureFromPreferences(mContext, 10 + i % 10);
+                getArtUrlFromPreferences(mContext);
+            }
+            long preferencesMicros = (System.nanoTime() - start) / 1000;
+
+            start = System.nanoTime();
+            for (int i = 0; i < CALLS; i++) {
+                Utility.formatTemperature(mContext, 20 + i % 10);
+                Utility.formatTemperature(mContext, 10 + i % 10);
+                Utility.getArtUrlForWeatherCondition(mContext, 800);
+            }
+            long snapshotMicros = (System.nanoTime() - start) / 1000;
+
+            Log.d(LOG_TAG, CALLS + " rows: from preferences " + preferencesMicros
+                    + "us, from the snapshot " + snapshotMicros + "us");
+        }
+    }
+
+    private static String formatTemperatureFromPreferences(Context context, double temperature) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        boolean metric = prefs.getString(context.getString(R.string.pref_units_key),
+                context.getString(R.string.pref_units_metric))
+                .equals(context.getString(R.string.pref_units_metric));
+        if (!metric) {
+            temperature = (temperature * 1.8) + 32;
+        }
+        return String.format(context.getString(R.string.format_temperature), temperature);
+    }
+
+    private static String getArtUrlFromPreferences(Context context) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        String formatArtUrl = prefs.getString(context.getString(R.string.pref_art_pack_key),
+                context.getString(R.string.pref_art_pack_sunshine));
+        return String.format(Locale.US, formatArtUrl, "clear");
+    }
+}
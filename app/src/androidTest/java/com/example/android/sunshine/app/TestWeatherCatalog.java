@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.util.Locale;
+
+public class TestWeatherCatalog extends AndroidTestCase {
+    public static final String LOG_TAG = TestWeatherCatalog.class.getSimpleName();
+    private static final int ROUNDS = 1000;
+
+    // A forecast's worth of conditions, as the list binds them
+    private static final int[] FORECAST_IDS = {
+            800, 801, 500, 802, 211, 600, 741, 803, 501, 310, 804, 781, 511, 800
+    };
+
+    /*
+        Every weather id, and a few that aren't, get the same icon, art and art url from the
+        catalog as they did from the if-chains it replaced.
+     */
+    public void testMatchesConditionChains() {
+        String artPack = Utility.getArtPack(mContext);
+        for (int weatherId = -1; weatherId <= 1000; weatherId++) {
+            assertEquals("Error: Wrong icon for " + weatherId,
+                    getIconFromChain(weatherId),
+                    Utility.getIconResourceForWeatherCondition(weatherId));
+            assertEquals("Error: Wrong art for " + weatherId,
+                    getArtFromChain(weatherId),
+                    Utility.getArtResourceForWeatherCondition(weatherId));
+            assertEquals("Error: Wrong art url for " + weatherId,
+                    getArtUrlFromChain(artPack, weatherId),
+                    Utility.getArtUrlForWeatherCondition(mContext, weatherId));
+        }
+    }
+
+    /*
+        Ids with a description of their own, ranges sharing one, and ids without.
+     */
+    public void testDescriptions() {
+        assertEquals("Error: Wrong description for a thunderstorm",
+                mContext.getString(R.string.condition_2xx),
+                Utility.getStringForWeatherCondition(mContext, 221));
+        assertEquals("Error: Wrong description for drizzle",
+                mContext.getString(R.string.condition_3xx),
+                Utility.getStringForWeatherCondition(mContext, 300));
+        assertEquals("Error: Wrong description for a clear sky",
+                mContext.getString(R.string.condition_800),
+                Utility.getStringForWeatherCondition(mContext, 800));
+        assertEquals("Error: Wrong description for hail",
+                mContext.getString(R.string.condition_906),
+                Utility.getStringForWeatherCondition(mContext, 906));
+        assertEquals("Error: Wrong description for a tornado",
+                mContext.getString(R.string.condition_781),
+                Utility.getStringForWeatherCondition(mContext, 781));
+        int[] unknownIds = { -1, 0, 505, 999, 1000 };
+        for (int weatherId : unknownIds) {
+            assertEquals("Error: Wrong description for unknown id " + weatherId,
+                    mContext.getString(R.string.condition_unknown, weatherId),
+                    Utility.getStringForWeatherCondition(mContext, weatherId));
+        }
+    }
+
+    /*
+        What binding a forecast asks for: the icon, the art and the art url of each day.  The
+        if-chains the catalog replaced are timed alongside as the baseline.
+     */
+    public void testLookupBenchmark() {
+        String artPack = Utility.getArtPack(mContext);
+        for (int round = 0; round < 2; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < ROUNDS; i++) {
+                for (int weatherId : FORECAST_IDS) {
+                    getIconFromChain(weatherId);
+                    getArtFromChain(weatherId);
+                    getArtUrlFromChain(Utility.getArtPack(mContext), weatherId);
+                }
+            }
+            long chainMicros = (System.nanoTime() - start) / 1000;
+
+            start = System.nanoTime();
+            for (int i = 0; i < ROUNDS; i++) {
+                for (int weatherId : FORECAST_IDS) {
+                    Utility.getIconResourceForWeatherCondition(weatherId);
+                    Utility.getArtResourceForWeatherCondition(weatherId);
+                    Utility.getArtUrlForWeatherCondition(mContext, weatherId);
+                }
+            }
+            long catalogMicros = (System.nanoTime() - start) / 1000;
+
+            Log.d(LOG_TAG, ROUNDS * FORECAST_IDS.length + " days with " + artPack
+                    + ": if-chains " + chainMicros + "us, catalog " + catalogMicros + "us");
+        }
+    }
+
+    private static int getIconFromChain(int weatherId) {
+        if (weatherId >= 200 && weatherId <= 232) {
+            return R.drawable.ic_storm;
+        } else if (weatherId >= 300 && weatherId <= 321) {
+            return R.drawable.ic_light_rain;
+        } else if (weatherId >= 500 && weatherId <= 504) {
+            return R.drawable.ic_rain;
+        } else if (weatherId == 511) {
+            return R.drawable.ic_snow;
+        } else if (weatherId >= 520 && weatherId <= 531) {
+            return R.drawable.ic_rain;
+        } else if (weatherId >= 600 && weatherId <= 622) {
+            return R.drawable.ic_snow;
+        } else if (weatherId >= 701 && weatherId <= 761) {
+            return R.drawable.ic_fog;
+        } else if (weatherId == 761 || weatherId == 781) {
+            return R.drawable.ic_storm;
+        } else if (weatherId == 800) {
+            return R.drawable.ic_clear;
+        } else if (weatherId == 801) {
+            return R.drawable.ic_light_clouds;
+        } else if (weatherId >= 802 && weatherId <= 804) {
+            return R.drawable.ic_cloudy;
+        }
+        return -1;
+    }
+
+    private static int getArtFromChain(int weatherId) {
+        if (weatherId >= 200 && weatherId <= 232) {
+            return R.drawable.art_storm;
+        } else if (weatherId >= 300 && weatherId <= 321) {
+            return R.drawable.art_light_rain;
+        } else if (weatherId >= 500 && weatherId <= 504) {
+            return R.drawable.art_rain;
+        } else if (weatherId == 511) {
+            return R.drawable.art_snow;
+        } else if (weatherId >= 520 && weatherId <= 531) {
+            return R.drawable.art_rain;
+        } else if (weatherId >= 600 && weatherId <= 622) {
+            return R.drawable.art_snow;
+        } else if (weatherId >= 701 && weatherId <= 761) {
+            return R.drawable.art_fog;
+        } else if (weatherId == 761 || weatherId == 781) {
+            return R.drawable.art_storm;
+        } else if (weatherId == 800) {
+            return R.drawable.art_clear;
+        } else if (weatherId == 801) {
+            return R.drawable.art_light_clouds;
+        } else if (weatherId >= 802 && weatherId <= 804) {
+            return R.drawable.art_clouds;
+        }
+        return -1;
+    }
+
+    private static String getArtUrlFromChain(String formatArtUrl, int weatherId) {
+        if (weatherId >= 200 && weatherId <= 232) {
+            return String.format(Locale.US, formatArtUrl, "storm");
+        } else if (weatherId >= 300 && weatherId <= 321) {
+            return String.format(Locale.US, formatArtUrl, "light_rain");
+        } else if (weatherId >= 500 && weatherId <= 504) {
+            return String.format(Locale.US, formatArtUrl, "rain");
+        } else if (weatherId == 511) {
+            return String.format(Locale.US, formatArtUrl, "snow");
+        } else if (weatherId >= 520 && weatherId <= 531) {
+            return String.format(Locale.US, formatArtUrl, "rain");
+        } else if (weatherId >= 600 && weatherId <= 622) {
+            return String.format(Locale.US, formatArtUrl, "snow");
+        } else if (weatherId >= 701 && weatherId <= 761) {
+            return String.format(Locale.US, formatArtUrl, "fog");
+        } else if (weatherId == 761 || weatherId == 781) {
+            return String.format(Locale.US, formatArtUrl, "storm");
+        } else if (weatherId == 800) {
+            return String.format(Locale.US, formatArtUrl, "clear");
+        } else if (weatherId == 801) {
+            return String.format(Locale.US, formatArtUrl, "light_clouds");
+        } else if (weatherId >= 802 && weatherId <= 804) {
+            return String.format(Locale.US, formatArtUrl, "clouds");
+        }
+        return null;
+    }
+}
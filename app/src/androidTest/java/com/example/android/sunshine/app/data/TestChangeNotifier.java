@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.net.Uri;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.Arrays;
+import java.util.List;
+
+public class TestChangeNotifier extends AndroidTestCase {
+    private static final String LOCATION_A = "99705";
+    private static final String LOCATION_B = "94043";
+    private static final long TEST_DATE = 1419033600L;  // December 20th, 2014
+    private static final long DAY_IN_MILLIS = 1000*60*60*24;
+
+    /*
+        One changed day is sent as that day's uri, and uris of other locations are left alone.
+     */
+    public void testSingleDaysStayNarrow() {
+        Uri dayA = WeatherEntry.buildWeatherLocationWithDate(LOCATION_A, TEST_DATE);
+        Uri dayB = WeatherEntry.buildWeatherLocationWithDate(LOCATION_B, TEST_DATE);
+
+        List<Uri> uris = ChangeNotifier.coalesce(Arrays.asList(dayA, dayB, dayA));
+        assertEquals("Error: Days of different locations should be sent as they are",
+                Arrays.asList(dayA, dayB), uris);
+    }
+
+    /*
+        Several days of one location are sent as the location, but locations are never merged
+        into the whole table.
+     */
+    public void testDaysCollapseIntoLocation() {
+        Uri locationA = WeatherEntry.buildWeatherLocation(LOCATION_A);
+        Uri dayB = WeatherEntry.buildWeatherLocationWithDate(LOCATION_B, TEST_DATE);
+
+        List<Uri> uris = ChangeNotifier.coalesce(Arrays.asList(
+                WeatherEntry.buildWeatherLocationWithDate(LOCATION_A, TEST_DATE),
+                dayB,
+                WeatherEntry.buildWeatherLocationWithDate(LOCATION_A, TEST_DATE + DAY_IN_MILLIS),
+                WeatherEntry.buildWeatherLocationWithDate(LOCATION_A, TEST_DATE + 2 * DAY_IN_MILLIS)));
+        assertEquals("Error: The days of location A should have become its uri",
+                Arrays.asList(locationA, dayB), uris);
+    }
+
+    /*
+        A uri under another pending uri is already covered by it.
+     */
+    public void testAncestorCoversDescendants() {
+        Uri dayA = WeatherEntry.buildWeatherLocationWithDate(LOCATION_A, TEST_DATE);
+        Uri locationB = WeatherEntry.buildWeatherLocation(LOCATION_B);
+
+        List<Uri> uris = ChangeNotifier.coalesce(Arrays.asList(
+                dayA, locationB, WeatherEntry.CONTENT_URI, WeatherContract.CurrentEntry.CONTENT_URI));
+        assertEquals("Error: The table uri should have covered both locations",
+                Arrays.asList(WeatherEntry.CONTENT_URI, WeatherContract.CurrentEntry.CONTENT_URI),
+                uris);
+    }
+}
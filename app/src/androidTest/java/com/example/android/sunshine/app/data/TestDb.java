@@ -17,7 +17,9 @@ package com.example.android.sunshine.app.data;
 
 import android.content.ContentValues;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
 import android.test.AndroidTestCase;
 
 import java.util.HashSet;
@@ -91,6 +93,8 @@ public class TestDb extends AndroidTestCase {
         locationColumnHashSet.add(WeatherContract.LocationEntry.COLUMN_COORD_LAT);
         locationColumnHashSet.add(WeatherContract.LocationEntry.COLUMN_COORD_LONG);
         locationColumnHashSet.add(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING);
+        locationColumnHashSet.add(WeatherContract.LocationEntry.COLUMN_ETAG);
+        locationColumnHashSet.add(WeatherContract.LocationEntry.COLUMN_LAST_MODIFIED);
 
         int columnNameIndex = c.getColumnIndex("name");
         do {
@@ -177,6 +181,139 @@ public class TestDb extends AndroidTestCase {
     }
 
 
+    /*
+        A database left behind by an older version of the app must be migrated step by step
+        without losing the cached locations and forecast.
+     */
+    public void testUpgradeFromVersion2KeepsData() {
+        SQLiteDatabase oldDb = SQLiteDatabase.openOrCreateDatabase(
+                mContext.getDatabasePath(WeatherDbHelper.DATABASE_NAME), null);
+        WeatherDbHelper.createVersion2(oldDb);
+        oldDb.setVersion(2);
+        ContentValues locationValues = TestUtilities.createNorthPoleLocationValues();
+        long locationRowId = oldDb.insert(WeatherContract.LocationEntry.TABLE_NAME, null,
+                locationValues);
+        assertTrue(locationRowId != -1);
+        ContentValues weatherValues = TestUtilities.createWeatherValues(locationRowId);
+        assertTrue(oldDb.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, weatherValues) != -1);
+        oldDb.close();
+
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        assertEquals(WeatherDbHelper.DATABASE_VERSION, db.getVersion());
+
+        Cursor cursor = db.query(WeatherContract.LocationEntry.TABLE_NAME,
+                null, null, null, null, null, null);
+        assertTrue("Error: The upgrade lost the locations", cursor.moveToFirst());
+        TestUtilities.validateCurrentRecord("Error: The upgrade changed the location",
+                cursor, locationValues);
+        assertTrue("Error: The upgrade didn't add the validator columns",
+                cursor.getColumnIndex(WeatherContract.LocationEntry.COLUMN_ETAG) != -1);
+        cursor.close();
+
+        cursor = db.query(WeatherContract.WeatherEntry.TABLE_NAME,
+                null, null, null, null, null, null);
+        assertTrue("Error: The upgrade lost the forecast", cursor.moveToFirst());
+        TestUtilities.validateCurrentRecord("Error: The upgrade changed the forecast",
+                cursor, weatherValues);
+        cursor.close();
+        dbHelper.close();
+    }
+
+    /*
+        Upgrading has to end up with the same schema as a fresh install.
+     */
+    public void testUpgradedSchemaMatchesFreshSchema() {
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        HashSet<String> freshSchema = describeSchema(dbHelper.getReadableDatabase());
+        dbHelper.close();
+        deleteTheDatabase();
+
+        SQLiteDatabase oldDb = SQLiteDatabase.openOrCreateDatabase(
+                mContext.getDatabasePath(WeatherDbHelper.DATABASE_NAME), null);
+        WeatherDbHelper.createVersion2(oldDb);
+        oldDb.setVersion(2);
+        oldDb.close();
+
+        dbHelper = new WeatherDbHelper(mContext);
+        HashSet<String> upgradedSchema = describeSchema(dbHelper.getReadableDatabase());
+        dbHelper.close();
+
+        assertEquals("Error: The upgraded schema differs from a fresh one",
+                freshSchema, upgradedSchema);
+    }
+
+    /*
+        Every query shape the provider uses, and the purge of old days, should be answered from
+        an index rather than by scanning a table or sorting the results.
+     */
+    public void testQueryPlansUseIndexes() {
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        SQLiteDatabase db = dbHelper.getReadableDatabase();
+        String[] projection = {WeatherContract.WeatherEntry.COLUMN_DATE,
+                WeatherContract.WeatherEntry.COLUMN_MAX_TEMP};
+        String sortOrder = WeatherContract.WeatherEntry.COLUMN_DATE + " ASC";
+        String location = TestUtilities.TEST_LOCATION;
+        String date = Long.toString(TestUtilities.TEST_DATE);
+
+        assertIndexedPlan(db, WeatherProvider.sWeatherByLocationSettingQueryBuilder.buildQuery(
+                projection, WeatherProvider.sLocationSettingSelection, null, null, sortOrder, null),
+                new String[]{location});
+        assertIndexedPlan(db, WeatherProvider.sWeatherByLocationSettingQueryBuilder.buildQuery(
+                projection, WeatherProvider.sLocationSettingWithStartDateSelection, null, null,
+                sortOrder, null), new String[]{location, date});
+        assertIndexedPlan(db, WeatherProvider.sWeatherByLocationSettingQueryBuilder.buildQuery(
+                projection, WeatherProvider.sLocationSettingAndDaySelection, null, null,
+                sortOrder, null), new String[]{location, date});
+        assertIndexedPlan(db, WeatherProvider.sCurrentQueryBuilder.buildQuery(
+                projection, WeatherProvider.sCurrentWithStartDateSelection, null, null,
+                sortOrder, null), new String[]{date});
+        assertIndexedPlan(db, "DELETE FROM " + WeatherContract.WeatherEntry.TABLE_NAME +
+                " WHERE " + WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
+                new String[]{date});
+        dbHelper.close();
+    }
+
+    private static void assertIndexedPlan(SQLiteDatabase db, String sql, String[] args) {
+        Cursor plan = db.rawQuery("EXPLAIN QUERY PLAN " + sql, args);
+        int detailIndex = plan.getColumnIndex("detail");
+        assertTrue("Error: No query plan for " + sql, plan.moveToFirst());
+        do {
+            String detail = plan.getString(detailIndex);
+            assertFalse("Error: " + sql + " scans a table: " + detail,
+                    detail.startsWith("SCAN"));
+            assertFalse("Error: " + sql + " sorts its results: " + detail,
+                    detail.contains("TEMP B-TREE"));
+        } while (plan.moveToNext());
+        plan.close();
+    }
+
+    /*
+        Describes every table's columns, and every index and trigger, as a set of strings.
+     */
+    private static HashSet<String> describeSchema(SQLiteDatabase db) {
+        HashSet<String> schema = new HashSet<String>();
+        Cursor master = db.rawQuery("SELECT type, name FROM sqlite_master", null);
+        while (master.moveToNext()) {
+            String type = master.getString(0);
+            String name = master.getString(1);
+            schema.add(type + " " + name);
+            if ("table".equals(type)) {
+                Cursor columns = db.rawQuery("PRAGMA table_info(" + name + ")", null);
+                int nameIndex = columns.getColumnIndex("name");
+                int typeIndex = columns.getColumnIndex("type");
+                int notNullIndex = columns.getColumnIndex("notnull");
+                while (columns.moveToNext()) {
+                    schema.add(name + "." + columns.getString(nameIndex) + " "
+                            + columns.getString(typeIndex) + " " + columns.getInt(notNullIndex));
+                }
+                columns.close();
+            }
+        }
+        master.close();
+        return schema;
+    }
+
     /*
         Students: This is a helper method for the testWeatherTable quiz. You can move your
         code from testLocationTable to here so that you can call this code from both
@@ -234,4 +371,29 @@ public class TestDb extends AndroidTestCase {
         db.close();
         return locationRowId;
     }
+
+    /*
+        From Honeycomb on the database should be in write-ahead logging mode, with our
+        checkpoint settings on the connection that writes.
+     */
+    public void testWriteAheadLogging() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        assertEquals("Error: The database isn't using write-ahead logging",
+                "wal", DatabaseUtils.stringForQuery(db, "PRAGMA journal_mode", null).toLowerCase());
+        // In a transaction, to read the settings of the connection that writes
+        db.beginTransaction();
+        try {
+            assertEquals(WeatherDbHelper.WAL_AUTOCHECKPOINT_PAGES,
+                    DatabaseUtils.longForQuery(db, "PRAGMA wal_autocheckpoint", null));
+            assertEquals(WeatherDbHelper.WAL_SIZE_LIMIT_BYTES,
+                    DatabaseUtils.longForQuery(db, "PRAGMA journal_size_limit", null));
+        } finally {
+            db.endTransaction();
+        }
+        dbHelper.close();
+    }
 }
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+public class TestForecastSeries extends AndroidTestCase {
+    private static final long TEST_DATE = 1419033600L;  // December 20th, 2014
+    private static final long DAY_IN_MILLIS = 1000*60*60*24;
+    private static final int DAYS = 5;
+
+    private static ForecastSeries createSeries() {
+        ForecastSeries series = new ForecastSeries(DAYS);
+        for (int i = 0; i < DAYS; i++) {
+            series.add(TEST_DATE + i * DAY_IN_MILLIS, 800 + i, "Clear " + i, 60 + i, 70 + i,
+                    1.1 + i, 1.2 + i, 1.3 + i, 1.4 + i);
+        }
+        return series;
+    }
+
+    /*
+        A series written to a cursor and read back has the same days.
+     */
+    public void testCursorRoundTrip() {
+        ForecastSeries series = createSeries();
+        Cursor cursor = series.toCursor();
+        assertEquals("Error: The cursor should have a row per day", DAYS, cursor.getCount());
+
+        ForecastSeries read = ForecastSeries.fromCursor(cursor);
+        assertEquals("Error: The cursor should have been left where it was",
+                -1, cursor.getPosition());
+        cursor.close();
+
+        assertEquals("Error: Every row should have been read", DAYS, read.size());
+        for (int i = 0; i < DAYS; i++) {
+            assertEquals("Error: Wrong date", series.getDate(i), read.getDate(i));
+            assertEquals("Error: Wrong weather id", series.getWeatherId(i), read.getWeatherId(i));
+            assertEquals("Error: Wrong description", series.getShortDesc(i), read.getShortDesc(i));
+            assertEquals("Error: Wrong low", series.getMinTemp(i), read.getMinTemp(i));
+            assertEquals("Error: Wrong high", series.getMaxTemp(i), read.getMaxTemp(i));
+            assertEquals("Error: Wrong humidity", series.getHumidity(i), read.getHumidity(i));
+            assertEquals("Error: Wrong pressure", series.getPressure(i), read.getPressure(i));
+            assertEquals("Error: Wrong wind speed", series.getWindSpeed(i), read.getWindSpeed(i));
+            assertEquals("Error: Wrong wind direction", series.getDegrees(i), read.getDegrees(i));
+        }
+    }
+
+    /*
+        A projection with only some of the columns reads the rest as empty.
+     */
+    public void testPartialProjection() {
+        MatrixCursor cursor = new MatrixCursor(new String[]{
+                WeatherEntry._ID, WeatherEntry.COLUMN_DATE, WeatherEntry.COLUMN_MAX_TEMP});
+        cursor.addRow(new Object[]{7L, TEST_DATE, 75.0});
+
+        ForecastSeries series = ForecastSeries.fromCursor(cursor);
+        cursor.close();
+        assertEquals("Error: The row should have been read", 1, series.size());
+        assertEquals("Error: Wrong _ID", 7L, series.getId(0));
+        assertEquals("Error: Wrong date", TEST_DATE, series.getDate(0));
+        assertEquals("Error: Wrong high", 75.0, series.getMaxTemp(0));
+        assertNull("Error: A missing description should read as null", series.getShortDesc(0));
+        assertEquals("Error: A missing weather id should read as 0", 0, series.getWeatherId(0));
+    }
+
+    /*
+        Reading a result no bigger than the last one keeps the same arrays.
+     */
+    public void testReadFromReusesArrays() {
+        ForecastSeries series = new ForecastSeries(DAYS);
+        long[] dates = series.mDates;
+        double[] maxTemps = series.mMaxTemps;
+
+        Cursor cursor = createSeries().toCursor();
+        for (int i = 0; i < 3; i++) {
+            series.readFrom(cursor);
+        }
+        cursor.close();
+
+        assertEquals("Error: Reading again should replace the days, not add to them",
+                DAYS, series.size());
+        assertSame("Error: The dates were reallocated", dates, series.mDates);
+        assertSame("Error: The highs were reallocated", maxTemps, series.mMaxTemps);
+    }
+}
@@ -16,19 +16,40 @@
 package com.example.android.sunshine.app.data;
 
 import android.content.ComponentName;
+import android.content.ContentProviderClient;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.Context;
+import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
 import android.content.pm.ProviderInfo;
+import android.database.ContentObserver;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
 import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.test.suitebuilder.annotation.Suppress;
+import android.text.format.Time;
 import android.util.Log;
 
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.SettingsSnapshot;
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.app.utils.PollingCheck;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /*
     Note: This is not a complete set of tests of the Sunshine ContentProvider, but it does test
@@ -61,6 +82,16 @@ public class TestProvider extends AndroidTestCase {
                 null,
                 null
         );
+        mContext.getContentResolver().delete(
+                WeatherContract.SyncMetricsEntry.CONTENT_URI,
+                null,
+                null
+        );
+        mContext.getContentResolver().delete(
+                WeatherContract.HistoryEntry.CONTENT_URI,
+                null,
+                null
+        );
 
         Cursor cursor = mContext.getContentResolver().query(
                 WeatherEntry.CONTENT_URI,
@@ -160,6 +191,178 @@ public class TestProvider extends AndroidTestCase {
         // vnd.android.cursor.dir/com.example.android.sunshine.app/location
         assertEquals("Error: the LocationEntry CONTENT_URI should return LocationEntry.CONTENT_TYPE",
                 LocationEntry.CONTENT_TYPE, type);
+
+        // content://com.example.android.sunshine.app/sync_metrics/
+        type = mContext.getContentResolver().getType(WeatherContract.SyncMetricsEntry.CONTENT_URI);
+        assertEquals("Error: the SyncMetricsEntry CONTENT_URI should return SyncMetricsEntry.CONTENT_TYPE",
+                WeatherContract.SyncMetricsEntry.CONTENT_TYPE, type);
+
+        // content://com.example.android.sunshine.app/current/
+        type = mContext.getContentResolver().getType(WeatherContract.CurrentEntry.CONTENT_URI);
+        assertEquals("Error: the CurrentEntry CONTENT_URI should return CurrentEntry.CONTENT_TYPE",
+                WeatherContract.CurrentEntry.CONTENT_TYPE, type);
+    }
+
+    /*
+        The current forecast URI should serve the same rows as the weather location URI for the
+        preferred location, follow changes to its weather, and follow the preference itself.
+     */
+    public void testCurrentForecast() {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        String locationKey = mContext.getString(R.string.pref_location_key);
+        String savedLocation = prefs.getString(locationKey, null);
+        prefs.edit().putString(locationKey, TestUtilities.TEST_LOCATION).commit();
+        SettingsSnapshot.reload(mContext);
+        try {
+            ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+            Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+            long locationRowId = ContentUris.parseId(locationUri);
+            ContentValues[] weatherValues = createBulkInsertWeatherValues(locationRowId);
+            mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, weatherValues);
+
+            String[] projection = {WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+                    WeatherEntry.COLUMN_DATE, WeatherEntry.COLUMN_MAX_TEMP,
+                    LocationEntry.COLUMN_CITY_NAME};
+            Uri currentUri = WeatherContract.CurrentEntry.buildCurrentWithStartDate(
+                    TestUtilities.TEST_DATE);
+            Cursor current = mContext.getContentResolver().query(currentUri, projection, null,
+                    null, WeatherEntry.COLUMN_DATE + " ASC");
+            Cursor joined = mContext.getContentResolver().query(
+                    WeatherEntry.buildWeatherLocationWithStartDate(TestUtilities.TEST_LOCATION,
+                            TestUtilities.TEST_DATE),
+                    projection, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+            assertEquals(BULK_INSERT_RECORDS_TO_INSERT, current.getCount());
+            assertEquals(joined.getCount(), current.getCount());
+            while (current.moveToNext() && joined.moveToNext()) {
+                for (int i = 0; i < projection.length; i++) {
+                    assertEquals("Error: current forecast differs in " + projection[i],
+                            joined.getString(i), current.getString(i));
+                }
+            }
+            current.close();
+            joined.close();
+
+            // A change to the weather shows straight away, and tells the current URI's observers.
+            TestUtilities.TestContentObserver tco = TestUtilities.getTestContentObserver();
+            mContext.getContentResolver().registerContentObserver(
+                    WeatherContract.CurrentEntry.CONTENT_URI, true, tco);
+            weatherValues[0].put(WeatherEntry.COLUMN_MAX_TEMP, 100);
+            mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, weatherValues);
+            tco.waitForNotificationOrFail();
+            mContext.getContentResolver().unregisterContentObserver(tco);
+            current = mContext.getContentResolver().query(currentUri, projection, null, null,
+                    WeatherEntry.COLUMN_DATE + " ASC");
+            assertTrue(current.moveToFirst());
+            assertEquals(100.0, current.getDouble(2), 0);
+            current.close();
+
+            // A location we have no weather for has no current forecast.
+            prefs.edit().putString(locationKey, "nowhere").commit();
+            SettingsSnapshot.reload(mContext);
+            current = mContext.getContentResolver().query(currentUri, projection, null, null, null);
+            assertEquals(0, current.getCount());
+            current.close();
+        } finally {
+            prefs.edit().putString(locationKey, savedLocation).commit();
+            SettingsSnapshot.reload(mContext);
+        }
+    }
+
+    /*
+        Reading the current forecast never writes: after the preferred location changes it is
+        read from the join until the next batch rebuilds the table.
+     */
+    public void testCurrentForecastIsRebuiltByWrites() throws Exception {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        String locationKey = mContext.getString(R.string.pref_location_key);
+        String savedLocation = prefs.getString(locationKey, null);
+        prefs.edit().putString(locationKey, TestUtilities.TEST_LOCATION).commit();
+        SettingsSnapshot.reload(mContext);
+        try {
+            long northPoleId = ContentUris.parseId(mContext.getContentResolver().insert(
+                    LocationEntry.CONTENT_URI, TestUtilities.createNorthPoleLocationValues()));
+            mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                    createBulkInsertWeatherValues(northPoleId));
+            ContentValues otherLocation = TestUtilities.createNorthPoleLocationValues();
+            otherLocation.put(LocationEntry.COLUMN_LOCATION_SETTING, "12345");
+            long otherId = ContentUris.parseId(mContext.getContentResolver().insert(
+                    LocationEntry.CONTENT_URI, otherLocation));
+            mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                    createBulkInsertWeatherValues(otherId));
+
+            prefs.edit().putString(locationKey, "12345").commit();
+            SettingsSnapshot.reload(mContext);
+            String[] projection = {LocationEntry.COLUMN_LOCATION_SETTING};
+            Cursor current = mContext.getContentResolver().query(
+                    WeatherContract.CurrentEntry.CONTENT_URI, projection, null, null, null);
+            assertEquals(BULK_INSERT_RECORDS_TO_INSERT, current.getCount());
+            assertTrue(current.moveToFirst());
+            assertEquals("Error: The current forecast is for the old location",
+                    "12345", current.getString(0));
+            current.close();
+            assertEquals("Error: Reading the current forecast rebuilt the table",
+                    TestUtilities.TEST_LOCATION, getStoredCurrentLocationSetting());
+
+            mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY,
+                    new ArrayList<ContentProviderOperation>());
+            assertEquals("Error: The batch didn't rebuild the table for the new location",
+                    "12345", getStoredCurrentLocationSetting());
+        } finally {
+            prefs.edit().putString(locationKey, savedLocation).commit();
+            SettingsSnapshot.reload(mContext);
+        }
+    }
+
+    /*
+        Reads the current forecast table itself, rather than through the provider.
+     */
+    private String getStoredCurrentLocationSetting() {
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        try {
+            Cursor cursor = dbHelper.getReadableDatabase().query(
+                    WeatherContract.CurrentEntry.TABLE_NAME,
+                    new String[]{LocationEntry.COLUMN_LOCATION_SETTING},
+                    null, null, null, null, null, "1");
+            try {
+                return cursor.moveToFirst() ? cursor.getString(0) : null;
+            } finally {
+                cursor.close();
+            }
+        } finally {
+            dbHelper.close();
+        }
+    }
+
+    /*
+        The sync metrics table only ever keeps the newest SyncMetricsEntry.MAX_ROWS rows.
+     */
+    public void testSyncMetricsRingBuffer() {
+        final int rowCount = WeatherContract.SyncMetricsEntry.MAX_ROWS + 10;
+        ContentValues[] rows = new ContentValues[rowCount];
+        for (int i = 0; i < rowCount; i++) {
+            rows[i] = new ContentValues();
+            rows[i].put(WeatherContract.SyncMetricsEntry.COLUMN_SYNC_START, TestUtilities.TEST_DATE);
+            rows[i].put(WeatherContract.SyncMetricsEntry.COLUMN_PHASE,
+                    WeatherContract.SyncMetricsEntry.PHASE_CONNECT);
+            rows[i].put(WeatherContract.SyncMetricsEntry.COLUMN_DURATION, i);
+        }
+        int insertCount = mContext.getContentResolver().bulkInsert(
+                WeatherContract.SyncMetricsEntry.CONTENT_URI, rows);
+        assertEquals(rowCount, insertCount);
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.SyncMetricsEntry.CONTENT_URI,
+                new String[]{WeatherContract.SyncMetricsEntry.COLUMN_DURATION},
+                null,
+                null,
+                WeatherContract.SyncMetricsEntry._ID + " ASC"
+        );
+        assertEquals("Error: The sync metrics table grew past MAX_ROWS",
+                WeatherContract.SyncMetricsEntry.MAX_ROWS, cursor.getCount());
+        assertTrue(cursor.moveToFirst());
+        assertEquals("Error: The oldest sync metrics weren't the ones dropped",
+                rowCount - WeatherContract.SyncMetricsEntry.MAX_ROWS, cursor.getInt(0));
+        cursor.close();
     }
 
 
@@ -422,6 +625,51 @@ public class TestProvider extends AndroidTestCase {
     }
 
 
+    /*
+        Deleting through the archive uri takes the days out of the weather table but keeps them
+        in the history, where they can still be read back by date.
+     */
+    public void testArchivePastDays() {
+        deleteAllRecordsFromProvider();
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+
+        // Recent days, so that the retention policy leaves them daily
+        long millisecondsInADay = 1000*60*60*24;
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        ContentValues[] values = new ContentValues[5];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = TestUtilities.createWeatherValues(locationRowId);
+            values[i].put(WeatherEntry.COLUMN_DATE, today - (values.length - 1 - i) * millisecondsInADay);
+            values[i].put(WeatherEntry.COLUMN_MAX_TEMP, 70 + i);
+        }
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, values);
+
+        long yesterday = today - millisecondsInADay;
+        int deleted = mContext.getContentResolver().delete(WeatherEntry.buildArchiveUri(),
+                WeatherEntry.COLUMN_DATE + " <= ?", new String[]{Long.toString(yesterday)});
+        assertEquals("Error: Every day up to yesterday should have been deleted", 4, deleted);
+
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                null, null, null, null);
+        assertEquals("Error: Only today should be left in the weather table", 1, cursor.getCount());
+        cursor.close();
+
+        cursor = mContext.getContentResolver().query(
+                WeatherContract.HistoryEntry.buildHistoryLocationWithDateRange(
+                        TestUtilities.TEST_LOCATION, yesterday - 2 * millisecondsInADay, yesterday),
+                null, null, null, WeatherContract.HistoryEntry.COLUMN_DATE + " ASC");
+        assertEquals("Error: The archived days should be in the history", 3, cursor.getCount());
+        for (int i = 0; cursor.moveToNext(); i++) {
+            assertEquals("Error: The history should hold one day per row",
+                    WeatherContract.HistoryEntry.PERIOD_DAY,
+                    cursor.getInt(cursor.getColumnIndex(WeatherContract.HistoryEntry.COLUMN_PERIOD)));
+            assertEquals("Error: The archived day doesn't match the forecast it came from",
+                    71 + i, cursor.getInt(cursor.getColumnIndex(WeatherEntry.COLUMN_MAX_TEMP)));
+        }
+        cursor.close();
+    }
+
+
     static private final int BULK_INSERT_RECORDS_TO_INSERT = 10;
     static ContentValues[] createBulkInsertWeatherValues(long locationRowId) {
         long currentTestDate = TestUtilities.TEST_DATE;
@@ -512,4 +760,688 @@ public class TestProvider extends AndroidTestCase {
         }
         cursor.close();
     }
+
+    /*
+        Bulk inserting the same forecast again shouldn't write anything, and a changed day should
+        be updated in place rather than replaced with a new row.
+     */
+    public void testBulkInsertMergesExistingDays() {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+        assertTrue(locationRowId != -1);
+
+        ContentValues[] bulkInsertContentValues = createBulkInsertWeatherValues(locationRowId);
+        int insertCount = mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                bulkInsertContentValues);
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, insertCount);
+        long[] ids = queryWeatherIds();
+
+        insertCount = mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createBulkInsertWeatherValues(locationRowId));
+        assertEquals("Error: An unchanged forecast was written again", 0, insertCount);
+
+        // Change one day and add a new one at the end.
+        ContentValues[] changedValues = createBulkInsertWeatherValues(locationRowId);
+        changedValues[3].put(WeatherEntry.COLUMN_SHORT_DESC, "Meteors");
+        ContentValues newDay = new ContentValues(changedValues[BULK_INSERT_RECORDS_TO_INSERT - 1]);
+        newDay.put(WeatherEntry.COLUMN_DATE,
+                newDay.getAsLong(WeatherEntry.COLUMN_DATE) + 1000*60*60*24);
+        ContentValues[] withNewDay = new ContentValues[BULK_INSERT_RECORDS_TO_INSERT + 1];
+        System.arraycopy(changedValues, 0, withNewDay, 0, BULK_INSERT_RECORDS_TO_INSERT);
+        withNewDay[BULK_INSERT_RECORDS_TO_INSERT] = newDay;
+
+        insertCount = mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, withNewDay);
+        assertEquals("Error: Only the changed and the new day should have been written",
+                2, insertCount);
+
+        long[] idsAfter = queryWeatherIds();
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT + 1, idsAfter.length);
+        for (int i = 0; i < BULK_INSERT_RECORDS_TO_INSERT; i++) {
+            assertEquals("Error: Day " + i + " was replaced instead of updated", ids[i], idsAfter[i]);
+        }
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.CONTENT_URI,
+                null,
+                null,
+                null,
+                WeatherEntry.COLUMN_DATE + " ASC"
+        );
+        assertTrue(cursor.moveToPosition(3));
+        TestUtilities.validateCurrentRecord("testBulkInsertMergesExistingDays.  Error validating "
+                + "the changed day", cursor, changedValues[3]);
+        cursor.close();
+    }
+
+    /*
+        insertWeather is the typed ingest path the sync adapter uses.  It should merge exactly
+        like bulkInsert, and tell inserted, updated and unchanged days apart.
+     */
+    public void testInsertWeatherCountsChanges() {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+        WeatherProvider provider = getLocalWeatherProvider(mContext);
+
+        ContentValues[] expectedValues = createBulkInsertWeatherValues(locationRowId);
+        WeatherProvider.IngestResult result =
+                provider.insertWeather(locationRowId, createBulkInsertWeatherSeries(expectedValues));
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, result.inserted);
+        assertEquals(0, result.updated);
+
+        // The provider stores the dates normalized
+        for (ContentValues value : expectedValues) {
+            value.put(WeatherEntry.COLUMN_DATE,
+                    WeatherContract.normalizeDate(value.getAsLong(WeatherEntry.COLUMN_DATE)));
+        }
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.CONTENT_URI,
+                null,
+                null,
+                null,
+                WeatherEntry.COLUMN_DATE + " ASC"
+        );
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+        for (int i = 0; cursor.moveToNext(); i++) {
+            TestUtilities.validateCurrentRecord("testInsertWeatherCountsChanges.  Error validating "
+                    + "WeatherEntry " + i, cursor, expectedValues[i]);
+        }
+        cursor.close();
+
+        result = provider.insertWeather(locationRowId, createBulkInsertWeatherSeries(expectedValues));
+        assertEquals("Error: An unchanged forecast was written again", 0, result.getChanged());
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, result.unchanged);
+
+        expectedValues[3].put(WeatherEntry.COLUMN_MAX_TEMP, 99.5);
+        ForecastSeries batch = createBulkInsertWeatherSeries(expectedValues);
+        batch.add(expectedValues[BULK_INSERT_RECORDS_TO_INSERT - 1].getAsLong(WeatherEntry.COLUMN_DATE)
+                + 1000*60*60*24, 800, "Clear", 50, 60, 10, 1000, 2, 180);
+        result = provider.insertWeather(locationRowId, batch);
+        assertEquals(1, result.inserted);
+        assertEquals(1, result.updated);
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT - 1, result.unchanged);
+    }
+
+    /*
+        A row the compiled ingest statements can't take, here one that names its own _id,
+        should still be merged rather than replaced, and say so when nothing changed.
+     */
+    public void testInsertMergesIncompleteWeatherRow() {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+
+        ContentValues weatherValues = TestUtilities.createWeatherValues(locationRowId);
+        weatherValues.put(WeatherEntry._ID, 42L);
+        Uri first = mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI, weatherValues);
+        assertEquals(42L, ContentUris.parseId(first));
+        assertFalse("Error: A new row was reported unchanged", WeatherEntry.isUnchangedUri(first));
+
+        Uri second = mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI, weatherValues);
+        assertEquals("Error: Inserting the same row again gave it a different id",
+                42L, ContentUris.parseId(second));
+        assertTrue("Error: Inserting the same row again wasn't reported unchanged",
+                WeatherEntry.isUnchangedUri(second));
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.CONTENT_URI, null, null, null, null);
+        assertEquals("Error: Inserting the same row again stored it twice", 1, cursor.getCount());
+        cursor.close();
+    }
+
+    /*
+        applyBatch is how the sync adapter stores everything it fetched.  A new location and its
+        days should go in together, the days referring back to the location, with one
+        notification for weather observers rather than one per day.  Inserting days that are
+        already stored should report them unchanged, and a batch with a failing operation
+        shouldn't store anything.
+     */
+    public void testApplyBatch() throws Exception {
+        ContentValues[] weatherValues = createBulkInsertWeatherValues(-1);
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        operations.add(ContentProviderOperation.newInsert(LocationEntry.CONTENT_URI)
+                .withValues(TestUtilities.createNorthPoleLocationValues())
+                .build());
+        for (ContentValues value : weatherValues) {
+            operations.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                    .withValues(value)
+                    .withValueBackReference(WeatherEntry.COLUMN_LOC_KEY, 0)
+                    .build());
+        }
+
+        CountingObserver observer = CountingObserver.register(mContext, WeatherEntry.CONTENT_URI);
+        ContentProviderResult[] results;
+        try {
+            results = mContext.getContentResolver().applyBatch(
+                    WeatherContract.CONTENT_AUTHORITY, operations);
+            observer.waitForNotifications();
+        } finally {
+            observer.unregister(mContext);
+        }
+        assertEquals("Error: Weather observers weren't notified exactly once for the batch",
+                1, observer.mCount.get());
+
+        long locationRowId = ContentUris.parseId(results[0].uri);
+        for (int i = 1; i < results.length; i++) {
+            assertFalse("Error: A new day was reported unchanged",
+                    WeatherEntry.isUnchangedUri(results[i].uri));
+        }
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.CONTENT_URI,
+                null,
+                WeatherEntry.COLUMN_LOC_KEY + " = ?",
+                new String[]{Long.toString(locationRowId)},
+                null
+        );
+        assertEquals("Error: The days weren't stored with the location inserted before them",
+                BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+        cursor.close();
+
+        // The same days again
+        operations.clear();
+        for (ContentValues value : createBulkInsertWeatherValues(locationRowId)) {
+            operations.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                    .withValues(value)
+                    .build());
+        }
+        results = mContext.getContentResolver().applyBatch(
+                WeatherContract.CONTENT_AUTHORITY, operations);
+        for (ContentProviderResult result : results) {
+            assertTrue("Error: An unchanged day wasn't reported unchanged",
+                    WeatherEntry.isUnchangedUri(result.uri));
+        }
+
+        // A new day, followed by a location that is already stored
+        ContentValues newDay = TestUtilities.createWeatherValues(locationRowId);
+        newDay.put(WeatherEntry.COLUMN_DATE, TestUtilities.TEST_DATE - 1000*60*60*24);
+        operations.clear();
+        operations.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                .withValues(newDay)
+                .build());
+        operations.add(ContentProviderOperation.newInsert(LocationEntry.CONTENT_URI)
+                .withValues(TestUtilities.createNorthPoleLocationValues())
+                .build());
+        try {
+            mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+            fail("Error: Inserting a location twice should have failed the batch");
+        } catch (android.database.SQLException e) {
+            // expected
+        }
+        cursor = mContext.getContentResolver().query(
+                WeatherEntry.CONTENT_URI,
+                null,
+                null,
+                null,
+                null
+        );
+        assertEquals("Error: Part of a failed batch was stored",
+                BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+        cursor.close();
+    }
+
+    /*
+        applyForecasts is how the sync adapter stores forecasts when the provider is in its
+        process: the days go in straight from a ForecastSeries, for the location an upsert in
+        the same batch stored, and each forecast says how many of its days changed.
+     */
+    public void testApplyForecasts() throws Exception {
+        WeatherProvider provider = getLocalWeatherProvider(mContext);
+        ContentValues[] weatherValues = createBulkInsertWeatherValues(-1);
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        operations.add(ContentProviderOperation.newInsert(LocationEntry.buildUpsertUri())
+                .withValues(TestUtilities.createNorthPoleLocationValues())
+                .build());
+        int[] locationOperations = {0};
+        ForecastSeries[] forecasts = {createBulkInsertWeatherSeries(weatherValues)};
+
+        CountingObserver observer = CountingObserver.register(mContext, WeatherEntry.CONTENT_URI);
+        WeatherProvider.IngestResult[] results;
+        try {
+            results = provider.applyForecasts(operations, locationOperations, forecasts);
+            observer.waitForNotifications();
+        } finally {
+            observer.unregister(mContext);
+        }
+        assertEquals("Error: Weather observers weren't notified exactly once for the batch",
+                1, observer.mCount.get());
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, results[0].inserted);
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION),
+                null,
+                null,
+                null,
+                null
+        );
+        assertEquals("Error: The days weren't stored with the location upserted before them",
+                BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+        cursor.close();
+
+        // The same forecast again, as the next sync would store it
+        results = provider.applyForecasts(operations, locationOperations, forecasts);
+        assertEquals("Error: An unchanged forecast was written again", 0, results[0].getChanged());
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, results[0].unchanged);
+    }
+
+    /*
+        Upserting a location stores it the first time and returns the same _ID after that,
+        reporting it unchanged unless something about it differs.  The _IDs it remembers mustn't
+        outlive the locations: one deleted and stored again comes back with its new _ID.
+     */
+    public void testUpsertLocation() {
+        ContentValues values = TestUtilities.createNorthPoleLocationValues();
+        Uri first = mContext.getContentResolver().insert(LocationEntry.buildUpsertUri(), values);
+        long locationRowId = ContentUris.parseId(first);
+        assertTrue("Error: The location wasn't stored", locationRowId != -1);
+        assertFalse("Error: A new location was reported unchanged",
+                LocationEntry.isUnchangedUri(first));
+
+        Uri second = mContext.getContentResolver().insert(LocationEntry.buildUpsertUri(), values);
+        assertEquals("Error: Upserting the same location returned another _ID",
+                locationRowId, ContentUris.parseId(second));
+        assertTrue("Error: An unchanged location wasn't reported unchanged",
+                LocationEntry.isUnchangedUri(second));
+
+        ContentValues renamed = new ContentValues(values);
+        renamed.put(LocationEntry.COLUMN_CITY_NAME, "Santa's Village");
+        Uri third = mContext.getContentResolver().insert(LocationEntry.buildUpsertUri(), renamed);
+        assertEquals("Error: Updating a location returned another _ID",
+                locationRowId, ContentUris.parseId(third));
+        assertFalse("Error: A changed location was reported unchanged",
+                LocationEntry.isUnchangedUri(third));
+        Cursor cursor = mContext.getContentResolver().query(
+                LocationEntry.CONTENT_URI,
+                null,
+                LocationEntry._ID + " = " + locationRowId,
+                null,
+                null
+        );
+        TestUtilities.validateCursor("testUpsertLocation.  Error validating location update.",
+                cursor, renamed);
+        cursor.close();
+
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        WeatherProvider provider = getLocalWeatherProvider(mContext);
+        if (provider == null) {
+            return;
+        }
+        ContentValues otherLocation = new ContentValues(values);
+        otherLocation.put(LocationEntry.COLUMN_LOCATION_SETTING, "94043");
+        Uri[] uris = provider.upsertLocations(new ContentValues[]{values, otherLocation});
+        assertEquals("Error: Every location should have a uri", 2, uris.length);
+        assertTrue("Error: A deleted location came back with its old _ID",
+                ContentUris.parseId(uris[0]) != locationRowId);
+        cursor = mContext.getContentResolver().query(
+                LocationEntry.CONTENT_URI,
+                new String[]{LocationEntry._ID},
+                LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{"94043"},
+                null
+        );
+        assertTrue("Error: The second location wasn't stored", cursor.moveToFirst());
+        assertEquals("Error: Wrong _ID for the second location",
+                ContentUris.parseId(uris[1]), cursor.getLong(0));
+        cursor.close();
+    }
+
+    /*
+        Storing weather for one location shouldn't wake the observers of another, while the
+        observers of that location, of the changed day, and of the whole table are told.
+     */
+    public void testNotificationsAreNarrow() throws Exception {
+        long locationRowId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, TestUtilities.createNorthPoleLocationValues()));
+        ContentValues otherLocation = TestUtilities.createNorthPoleLocationValues();
+        otherLocation.put(LocationEntry.COLUMN_LOCATION_SETTING, "94043");
+        mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, otherLocation);
+
+        ContentValues weatherValues = TestUtilities.createWeatherValues(locationRowId);
+        CountingObserver locationObserver = CountingObserver.register(mContext,
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION));
+        CountingObserver dayObserver = CountingObserver.register(mContext,
+                WeatherEntry.buildWeatherLocationWithDate(TestUtilities.TEST_LOCATION,
+                        TestUtilities.TEST_DATE));
+        CountingObserver tableObserver = CountingObserver.register(mContext,
+                WeatherEntry.CONTENT_URI);
+        CountingObserver otherObserver = CountingObserver.register(mContext,
+                WeatherEntry.buildWeatherLocation("94043"));
+        try {
+            mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI, weatherValues);
+            locationObserver.waitForNotifications();
+            dayObserver.waitForNotifications();
+            tableObserver.waitForNotifications();
+        } finally {
+            locationObserver.unregister(mContext);
+            dayObserver.unregister(mContext);
+            tableObserver.unregister(mContext);
+            otherObserver.unregister(mContext);
+        }
+        assertEquals("Error: The observer of another location was told about this one's weather",
+                0, otherObserver.mCount.get());
+    }
+
+    /*
+        Asking for the same day twice is answered from the query cache the second time, until
+        a write to that day drops it; a write to another location's weather doesn't.
+     */
+    public void testQueryCache() {
+        WeatherProvider provider = getLocalWeatherProvider(mContext);
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        ContentValues otherLocation = TestUtilities.createNorthPoleLocationValues();
+        otherLocation.put(LocationEntry.COLUMN_LOCATION_SETTING, "94043");
+        long otherLocationRowId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, otherLocation));
+        ContentValues weatherValues = TestUtilities.createWeatherValues(locationRowId);
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI, weatherValues);
+
+        Uri dayUri = WeatherEntry.buildWeatherLocationWithDate(TestUtilities.TEST_LOCATION,
+                TestUtilities.TEST_DATE);
+        int hits = provider.getQueryCacheHitCount();
+        int misses = provider.getQueryCacheMissCount();
+        Cursor cursor = mContext.getContentResolver().query(dayUri, null, null, null, null);
+        TestUtilities.validateCursor("Error: The first query returned the wrong day",
+                cursor, weatherValues);
+        assertEquals("Error: The first query should have missed the cache",
+                misses + 1, provider.getQueryCacheMissCount());
+
+        cursor = mContext.getContentResolver().query(dayUri, null, null, null, null);
+        TestUtilities.validateCursor("Error: The cached query returned the wrong day",
+                cursor, weatherValues);
+        assertEquals("Error: The second query should have hit the cache",
+                hits + 1, provider.getQueryCacheHitCount());
+
+        // Another location's weather leaves the cached day alone
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI,
+                TestUtilities.createWeatherValues(otherLocationRowId));
+        cursor = mContext.getContentResolver().query(dayUri, null, null, null, null);
+        cursor.close();
+        assertEquals("Error: Another location's weather shouldn't have dropped the cached day",
+                hits + 2, provider.getQueryCacheHitCount());
+
+        // A change to the day itself drops it
+        weatherValues.put(WeatherEntry.COLUMN_MAX_TEMP, 80);
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI, weatherValues);
+        cursor = mContext.getContentResolver().query(dayUri, null, null, null, null);
+        TestUtilities.validateCursor("Error: The query after the change returned the old day",
+                cursor, weatherValues);
+        assertEquals("Error: The change should have dropped the cached day",
+                misses + 2, provider.getQueryCacheMissCount());
+    }
+
+    /*
+        Counts the notifications for a uri and its descendants.
+     */
+    static class CountingObserver extends ContentObserver {
+        final HandlerThread mHT;
+        final AtomicInteger mCount = new AtomicInteger();
+
+        static CountingObserver register(Context context, Uri uri) {
+            HandlerThread ht = new HandlerThread("ContentObserverThread");
+            ht.start();
+            CountingObserver observer = new CountingObserver(ht);
+            context.getContentResolver().registerContentObserver(uri, true, observer);
+            return observer;
+        }
+
+        private CountingObserver(HandlerThread ht) {
+            super(new Handler(ht.getLooper()));
+            mHT = ht;
+        }
+
+        @Override
+        public void onChange(boolean selfChange) {
+            mCount.incrementAndGet();
+        }
+
+        /*
+            Waits for a notification, and then a little longer, so that any that would follow
+            it are counted too.
+         */
+        void waitForNotifications() throws InterruptedException {
+            new PollingCheck(5000) {
+                @Override
+                protected boolean check() {
+                    return mCount.get() > 0;
+                }
+            }.run();
+            Thread.sleep(500);
+        }
+
+        void unregister(Context context) {
+            context.getContentResolver().unregisterContentObserver(this);
+            mHT.quit();
+        }
+    }
+
+    /*
+        Not a pass/fail test: logs how long it takes to store one sync's worth of days and
+        1,000 rows, through bulkInsert and through the typed insertWeather.  Building the rows is
+        part of the cost, so it is timed too.
+     */
+    public void testWeatherIngestBenchmark() {
+        runWeatherIngestBenchmark(new int[] {14, 1000}, false);
+    }
+
+    /*
+        The same at 100,000 rows, with row by row inserts as the baseline: ContentValues, a Time
+        and a freshly compiled insert each, on a connection of its own, which is what bulkInsert
+        used to do.  That takes minutes, so it is kept out of the suite; take the annotation off
+        to run it.
+     */
+    @Suppress
+    @LargeTest
+    public void testWeatherIngestBenchmarkLarge() {
+        runWeatherIngestBenchmark(new int[] {1000, 100000}, true);
+    }
+
+    private void runWeatherIngestBenchmark(int[] sizes, boolean rowByRow) {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+        WeatherProvider provider = getLocalWeatherProvider(mContext);
+        WeatherDbHelper dbHelper = rowByRow ? new WeatherDbHelper(mContext) : null;
+
+        for (int rows : sizes) {
+            long rowByRowMillis = -1;
+            if (dbHelper != null) {
+                SQLiteDatabase db = dbHelper.getWritableDatabase();
+                mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+                long start = System.nanoTime();
+                db.beginTransaction();
+                try {
+                    for (int i = 0; i < rows; i++) {
+                        ContentValues value = createBenchmarkWeatherValues(locationRowId, i);
+                        long date = value.getAsLong(WeatherEntry.COLUMN_DATE);
+                        Time time = new Time();
+                        time.set(date);
+                        value.put(WeatherEntry.COLUMN_DATE,
+                                time.setJulianDay(Time.getJulianDay(date, time.gmtoff)));
+                        assertTrue(db.insert(WeatherEntry.TABLE_NAME, null, value) != -1);
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                rowByRowMillis = (System.nanoTime() - start) / 1000000;
+            }
+
+            mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+            long start = System.nanoTime();
+            int inserted = 0;
+            // In chunks, to keep 100,000 ContentValues from piling up in memory at once.
+            for (int chunkStart = 0; chunkStart < rows; chunkStart += 1000) {
+                ContentValues[] values = new ContentValues[Math.min(1000, rows - chunkStart)];
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = createBenchmarkWeatherValues(locationRowId, chunkStart + i);
+                }
+                inserted += mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, values);
+            }
+            long bulkInsertMillis = (System.nanoTime() - start) / 1000000;
+            assertEquals(rows, inserted);
+
+            mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+            start = System.nanoTime();
+            ForecastSeries batch = new ForecastSeries(rows);
+            for (int i = 0; i < rows; i++) {
+                addBenchmarkWeather(batch, i);
+            }
+            WeatherProvider.IngestResult result = provider.insertWeather(locationRowId, batch);
+            long typedMillis = (System.nanoTime() - start) / 1000000;
+            assertEquals(rows, result.inserted);
+
+            // And once more, when every day is already stored
+            start = System.nanoTime();
+            result = provider.insertWeather(locationRowId, batch);
+            long unchangedMillis = (System.nanoTime() - start) / 1000000;
+            assertEquals(rows, result.unchanged);
+
+            Log.d(LOG_TAG, rows + " rows: "
+                    + (rowByRowMillis != -1 ? "row by row " + rowByRowMillis + "ms, " : "")
+                    + "bulkInsert " + bulkInsertMillis + "ms, insertWeather " + typedMillis
+                    + "ms, unchanged " + unchangedMillis + "ms");
+        }
+        if (dbHelper != null) {
+            dbHelper.close();
+        }
+    }
+
+    /*
+        Stress test for write-ahead logging: a few readers keep querying the forecast, the way
+        the loaders, widgets and Muzei do, while one long ingest transaction runs.  In WAL mode
+        they read the last committed data instead of waiting for the transaction to finish, so
+        no single query should take anywhere near as long as the ingest.
+     */
+    public void testReadersDontStallDuringIngest() throws Exception {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        final int readers = 3;
+        final int rows = 50000;
+
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        final long locationRowId = ContentUris.parseId(locationUri);
+        final WeatherProvider provider = getLocalWeatherProvider(mContext);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createBulkInsertWeatherValues(locationRowId));
+
+        final ForecastSeries batch = new ForecastSeries(rows);
+        for (int i = 0; i < rows; i++) {
+            addBenchmarkWeather(batch, BULK_INSERT_RECORDS_TO_INSERT + i);
+        }
+
+        final AtomicBoolean ingesting = new AtomicBoolean(true);
+        final AtomicLong maxQueryMillis = new AtomicLong();
+        final AtomicInteger queries = new AtomicInteger();
+        final Uri weatherUri = WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION);
+        Thread[] readerThreads = new Thread[readers];
+        for (int r = 0; r < readers; r++) {
+            readerThreads[r] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    while (ingesting.get()) {
+                        long start = SystemClock.elapsedRealtime();
+                        Cursor cursor = mContext.getContentResolver().query(weatherUri, null,
+                                null, null, WeatherEntry.COLUMN_DATE + " ASC");
+                        cursor.getCount();
+                        cursor.close();
+                        long millis = SystemClock.elapsedRealtime() - start;
+                        queries.incrementAndGet();
+                        long max = maxQueryMillis.get();
+                        while (millis > max && !maxQueryMillis.compareAndSet(max, millis)) {
+                            max = maxQueryMillis.get();
+                        }
+                    }
+                }
+            });
+            readerThreads[r].start();
+        }
+
+        long ingestStart = SystemClock.elapsedRealtime();
+        WeatherProvider.IngestResult result;
+        try {
+            result = provider.insertWeather(locationRowId, batch);
+        } finally {
+            ingesting.set(false);
+        }
+        long ingestMillis = SystemClock.elapsedRealtime() - ingestStart;
+        for (Thread thread : readerThreads) {
+            thread.join();
+        }
+        provider.checkpoint();
+
+        Log.d(LOG_TAG, "Ingest of " + rows + " rows took " + ingestMillis + "ms; " + queries.get()
+                + " queries ran meanwhile, the slowest took " + maxQueryMillis.get() + "ms");
+        assertEquals(rows, result.inserted);
+        assertTrue("Error: No query completed during the ingest", queries.get() > readers);
+        assertTrue("Error: A reader waited for the ingest to finish",
+                maxQueryMillis.get() < ingestMillis / 2);
+    }
+
+    private static long benchmarkDate(int day) {
+        return TestUtilities.TEST_DATE + day * (long) (1000*60*60*24);
+    }
+
+    private static ContentValues createBenchmarkWeatherValues(long locationRowId, int day) {
+        ContentValues weatherValues = new ContentValues();
+        weatherValues.put(WeatherEntry.COLUMN_LOC_KEY, locationRowId);
+        weatherValues.put(WeatherEntry.COLUMN_DATE, benchmarkDate(day));
+        weatherValues.put(WeatherEntry.COLUMN_DEGREES, 1.1);
+        weatherValues.put(WeatherEntry.COLUMN_HUMIDITY, 40 + day % 50);
+        weatherValues.put(WeatherEntry.COLUMN_PRESSURE, 1000 + day % 30);
+        weatherValues.put(WeatherEntry.COLUMN_MAX_TEMP, 75 + day % 10);
+        weatherValues.put(WeatherEntry.COLUMN_MIN_TEMP, 65 - day % 10);
+        weatherValues.put(WeatherEntry.COLUMN_SHORT_DESC, "Asteroids");
+        weatherValues.put(WeatherEntry.COLUMN_WIND_SPEED, 5.5);
+        weatherValues.put(WeatherEntry.COLUMN_WEATHER_ID, 321);
+        return weatherValues;
+    }
+
+    private static void addBenchmarkWeather(ForecastSeries batch, int day) {
+        batch.add(benchmarkDate(day), 321, "Asteroids", 65 - day % 10, 75 + day % 10,
+                40 + day % 50, 1000 + day % 30, 5.5, 1.1);
+    }
+
+    static ForecastSeries createBulkInsertWeatherSeries(ContentValues[] values) {
+        ForecastSeries batch = new ForecastSeries(values.length);
+        for (ContentValues value : values) {
+            batch.add(value.getAsLong(WeatherEntry.COLUMN_DATE),
+                    value.getAsInteger(WeatherEntry.COLUMN_WEATHER_ID),
+                    value.getAsString(WeatherEntry.COLUMN_SHORT_DESC),
+                    value.getAsDouble(WeatherEntry.COLUMN_MIN_TEMP),
+                    value.getAsDouble(WeatherEntry.COLUMN_MAX_TEMP),
+                    value.getAsDouble(WeatherEntry.COLUMN_HUMIDITY),
+                    value.getAsDouble(WeatherEntry.COLUMN_PRESSURE),
+                    value.getAsDouble(WeatherEntry.COLUMN_WIND_SPEED),
+                    value.getAsDouble(WeatherEntry.COLUMN_DEGREES));
+        }
+        return batch;
+    }
+
+    static WeatherProvider getLocalWeatherProvider(Context context) {
+        ContentProviderClient client = context.getContentResolver()
+                .acquireContentProviderClient(WeatherContract.CONTENT_AUTHORITY);
+        try {
+            return (WeatherProvider) client.getLocalContentProvider();
+        } finally {
+            client.release();
+        }
+    }
+
+    private long[] queryWeatherIds() {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.CONTENT_URI,
+                new String[]{WeatherEntry._ID},
+                null,
+                null,
+                WeatherEntry.COLUMN_DATE + " ASC"
+        );
+        long[] ids = new long[cursor.getCount()];
+        for (int i = 0; cursor.moveToNext(); i++) {
+            ids[i] = cursor.getLong(0);
+        }
+        cursor.close();
+        return ids;
+    }
 }
@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.net.Uri;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+public class TestQueryCache extends AndroidTestCase {
+    private static final String LOCATION_A = "99705";
+    private static final String LOCATION_B = "94043";
+    private static final long TEST_DATE = 1419033600L;  // December 20th, 2014
+
+    /*
+        A changed day drops the results for that day, its location and the whole table, but not
+        those of other days or other locations.
+     */
+    public void testDayInvalidatesItsAncestors() {
+        Uri changed = WeatherEntry.buildWeatherLocationWithDate(LOCATION_A, TEST_DATE);
+
+        assertTrue("Error: The changed day itself should be dropped",
+                QueryCache.isAffectedBy(changed, changed));
+        assertTrue("Error: The changed day's location should be dropped",
+                QueryCache.isAffectedBy(WeatherEntry.buildWeatherLocationWithStartDate(
+                        LOCATION_A, TEST_DATE), changed));
+        assertTrue("Error: The whole table should be dropped",
+                QueryCache.isAffectedBy(WeatherEntry.CONTENT_URI, changed));
+        assertFalse("Error: Another day shouldn't be dropped",
+                QueryCache.isAffectedBy(WeatherEntry.buildWeatherLocationWithDate(
+                        LOCATION_A, TEST_DATE + 1000*60*60*24), changed));
+        assertFalse("Error: Another location shouldn't be dropped",
+                QueryCache.isAffectedBy(WeatherEntry.buildWeatherLocation(LOCATION_B), changed));
+        assertFalse("Error: The current forecast has its own notifications",
+                QueryCache.isAffectedBy(WeatherContract.CurrentEntry.CONTENT_URI, changed));
+    }
+
+    /*
+        Weather and history results are joined with the location table, so a location change
+        drops them all.
+     */
+    public void testLocationInvalidatesJoins() {
+        Uri changed = WeatherContract.LocationEntry.CONTENT_URI;
+
+        assertTrue("Error: Weather joined with locations should be dropped",
+                QueryCache.isAffectedBy(WeatherEntry.buildWeatherLocation(LOCATION_B), changed));
+        assertTrue("Error: History joined with locations should be dropped",
+                QueryCache.isAffectedBy(WeatherContract.HistoryEntry.buildHistoryLocation(
+                        LOCATION_B), changed));
+        assertFalse("Error: Sync metrics don't depend on locations",
+                QueryCache.isAffectedBy(WeatherContract.SyncMetricsEntry.CONTENT_URI, changed));
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.HistoryEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+
+public class TestWeatherArchive extends AndroidTestCase {
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+    private static final long DAY_IN_MILLIS = 1000*60*60*24;
+    private static final int ARCHIVED_DAYS = 10;
+
+    private SQLiteDatabase mDb;
+    private long mLocationRowId;
+
+    /*
+        Each test starts from a fresh database, with one location whose first ten days of June
+        2014 are in the weather table.
+     */
+    public void setUp() {
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        mDb = new WeatherDbHelper(mContext).getWritableDatabase();
+        mLocationRowId = mDb.insert(WeatherContract.LocationEntry.TABLE_NAME, null,
+                TestUtilities.createNorthPoleLocationValues());
+        assertTrue("Error: Failure to insert North Pole Location Values", mLocationRowId != -1);
+
+        for (int i = 0; i < ARCHIVED_DAYS; i++) {
+            ContentValues values = TestUtilities.createWeatherValues(mLocationRowId);
+            values.put(WeatherEntry.COLUMN_DATE, getJuneDate(i + 1));
+            values.put(WeatherEntry.COLUMN_MIN_TEMP, 50 + i);
+            values.put(WeatherEntry.COLUMN_MAX_TEMP, 60 + i);
+            values.put(WeatherEntry.COLUMN_HUMIDITY, i);
+            // Rain on the first three days, sun after that
+            values.put(WeatherEntry.COLUMN_WEATHER_ID, i < 3 ? 500 : 800);
+            values.put(WeatherEntry.COLUMN_SHORT_DESC, i < 3 ? "Rain" : "Clear");
+            assertTrue("Error: Failure to insert weather values",
+                    mDb.insert(WeatherEntry.TABLE_NAME, null, values) != -1);
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDb.close();
+        super.tearDown();
+    }
+
+    public void testArchiveCopiesDays() {
+        WeatherArchive archive = new WeatherArchive(90, 0);
+        mDb.beginTransaction();
+        try {
+            assertEquals("Error: Every day should have been archived",
+                    ARCHIVED_DAYS, archive.archive(mDb, null, null, UTC));
+            // Within the daily retention, nothing is downsampled
+            assertFalse("Error: Retention shouldn't have changed recent history",
+                    archive.applyRetention(mDb, getJuneDate(ARCHIVED_DAYS + 1), UTC));
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+
+        Cursor cursor = queryHistory();
+        assertEquals("Error: There should be one history row per archived day",
+                ARCHIVED_DAYS, cursor.getCount());
+        for (int i = 0; cursor.moveToNext(); i++) {
+            assertEquals("Error: The history row should be for one day",
+                    HistoryEntry.PERIOD_DAY, cursor.getInt(cursor.getColumnIndex(HistoryEntry.COLUMN_PERIOD)));
+            assertEquals("Error: The history row should be in June 2014",
+                    201406, cursor.getInt(cursor.getColumnIndex(HistoryEntry.COLUMN_MONTH)));
+            assertEquals("Error: The history row doesn't match the day it came from",
+                    getJuneDate(i + 1), cursor.getLong(cursor.getColumnIndex(HistoryEntry.COLUMN_DATE)));
+        }
+        cursor.close();
+    }
+
+    /*
+        Months past the daily retention become one row per week: the lowest low, the highest
+        high, the average of the rest and the most common weather.
+     */
+    public void testRetentionDownsamplesToWeeks() {
+        WeatherArchive archive = new WeatherArchive(90, 0);
+        mDb.beginTransaction();
+        try {
+            archive.archive(mDb, null, null, UTC);
+            assertTrue("Error: Retention should have downsampled June",
+                    archive.applyRetention(mDb, getJuneDate(1) + 120 * DAY_IN_MILLIS, UTC));
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+
+        Cursor cursor = queryHistory();
+        assertEquals("Error: Ten days should have become two weeks", 2, cursor.getCount());
+
+        cursor.moveToFirst();
+        assertEquals("Error: The first week should cover the 1st to the 7th",
+                getJuneDate(1), cursor.getLong(cursor.getColumnIndex(HistoryEntry.COLUMN_DATE)));
+        assertEquals("Error: The first week should be a week",
+                HistoryEntry.PERIOD_WEEK, cursor.getInt(cursor.getColumnIndex(HistoryEntry.COLUMN_PERIOD)));
+        assertEquals("Error: The first week should cover seven days",
+                7, cursor.getInt(cursor.getColumnIndex(HistoryEntry.COLUMN_DAYS)));
+        assertEquals("Error: The first week's low should be its lowest day",
+                50.0, cursor.getDouble(cursor.getColumnIndex(WeatherEntry.COLUMN_MIN_TEMP)));
+        assertEquals("Error: The first week's high should be its highest day",
+                66.0, cursor.getDouble(cursor.getColumnIndex(WeatherEntry.COLUMN_MAX_TEMP)));
+        assertEquals("Error: The first week's humidity should be the average of its days",
+                3.0, cursor.getDouble(cursor.getColumnIndex(WeatherEntry.COLUMN_HUMIDITY)), 0.0001);
+        assertEquals("Error: The first week's weather should be its most common",
+                800, cursor.getInt(cursor.getColumnIndex(WeatherEntry.COLUMN_WEATHER_ID)));
+        assertEquals("Error: The first week's description should match its weather",
+                "Clear", cursor.getString(cursor.getColumnIndex(WeatherEntry.COLUMN_SHORT_DESC)));
+
+        cursor.moveToNext();
+        assertEquals("Error: The second week should start on the 8th",
+                getJuneDate(8), cursor.getLong(cursor.getColumnIndex(HistoryEntry.COLUMN_DATE)));
+        assertEquals("Error: The second week should cover the three days that were archived",
+                3, cursor.getInt(cursor.getColumnIndex(HistoryEntry.COLUMN_DAYS)));
+        cursor.close();
+    }
+
+    /*
+        Wind direction wraps around at north: a week of winds from 350, 0 and 10 degrees
+        blew from the north, not from the south.
+     */
+    public void testRetentionAveragesWindAcrossNorth() {
+        double[] degrees = {350, 0, 10};
+        for (int i = 0; i < degrees.length; i++) {
+            ContentValues values = new ContentValues();
+            values.put(WeatherEntry.COLUMN_DEGREES, degrees[i]);
+            mDb.update(WeatherEntry.TABLE_NAME, values, WeatherEntry.COLUMN_DATE + " = ?",
+                    new String[]{Long.toString(getJuneDate(8 + i))});
+        }
+
+        WeatherArchive archive = new WeatherArchive(90, 0);
+        mDb.beginTransaction();
+        try {
+            archive.archive(mDb, null, null, UTC);
+            archive.applyRetention(mDb, getJuneDate(1) + 120 * DAY_IN_MILLIS, UTC);
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+
+        Cursor cursor = queryHistory();
+        assertTrue("Error: The second week wasn't downsampled", cursor.moveToPosition(1));
+        double weekDegrees = cursor.getDouble(cursor.getColumnIndex(WeatherEntry.COLUMN_DEGREES));
+        cursor.close();
+        assertTrue("Error: The week's wind direction should be in [0, 360), not " + weekDegrees,
+                weekDegrees >= 0 && weekDegrees < 360);
+        assertEquals("Error: The week's wind should be from the north, not " + weekDegrees,
+                0.0, Math.min(weekDegrees, 360 - weekDegrees), 0.0001);
+    }
+
+    public void testRetentionDropsOldMonths() {
+        WeatherArchive archive = new WeatherArchive(90, 365);
+        mDb.beginTransaction();
+        try {
+            archive.archive(mDb, null, null, UTC);
+            assertTrue("Error: Retention should have dropped June",
+                    archive.applyRetention(mDb, getJuneDate(1) + 400 * DAY_IN_MILLIS, UTC));
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+
+        Cursor cursor = queryHistory();
+        assertEquals("Error: History past the retention should have been deleted",
+                0, cursor.getCount());
+        cursor.close();
+    }
+
+    private Cursor queryHistory() {
+        return mDb.query(HistoryEntry.TABLE_NAME, null,
+                HistoryEntry.COLUMN_LOC_KEY + " = ?", new String[]{Long.toString(mLocationRowId)},
+                null, null, HistoryEntry.COLUMN_DATE + " ASC");
+    }
+
+    private static long getJuneDate(int dayOfMonth) {
+        Calendar calendar = Calendar.getInstance(UTC);
+        calendar.clear();
+        calendar.set(2014, Calendar.JUNE, dayOfMonth);
+        return calendar.getTimeInMillis();
+    }
+}
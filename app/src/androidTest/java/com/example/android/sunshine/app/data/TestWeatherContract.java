@@ -17,6 +17,10 @@ package com.example.android.sunshine.app.data;
 
 import android.net.Uri;
 import android.test.AndroidTestCase;
+import android.text.format.DateUtils;
+import android.text.format.Time;
+
+import java.util.TimeZone;
 
 /*
     Students: This is NOT a complete test for the WeatherContract --- just for the functions
@@ -42,4 +46,22 @@ public class TestWeatherContract extends AndroidTestCase {
                 locationUri.toString(),
                 "content://com.example.android.sunshine.app/weather/%2FNorth%20Pole");
     }
+
+    /*
+        normalizeDate does in arithmetic what Time.setJulianDay does.  Walk a year and a bit in
+        uneven steps, which crosses both daylight saving changes wherever the test runs, and
+        check the two always agree.
+     */
+    public void testNormalizeDateMatchesTime() {
+        TimeZone timeZone = TimeZone.getDefault();
+        Time time = new Time();
+        long start = 1419033600000L;  // December 20th, 2014
+        long end = start + 400 * DateUtils.DAY_IN_MILLIS;
+        for (long date = start; date < end; date += 37 * DateUtils.MINUTE_IN_MILLIS) {
+            time.set(date);
+            long expected = time.setJulianDay(Time.getJulianDay(date, time.gmtoff));
+            assertEquals("Error: normalizeDate disagrees with Time for " + date,
+                    expected, WeatherContract.normalizeDate(date, timeZone));
+        }
+    }
 }
@@ -0,0 +1,213 @@
+package com.example.android.sunshine.app.sync;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+/*
+    A tiny in-process stand-in for the OpenWeatherMap daily forecast endpoint.  It speaks just
+    enough HTTP/1.1 for HttpURLConnection: keep-alive, gzip and ETag/If-None-Match.  It counts
+    connections and requests so tests can check that connections are reused.
+ */
+public class FakeOwmServer {
+    static final String FORECAST_PATH = "/data/2.5/forecast/daily";
+
+    private final ServerSocket mServerSocket;
+    private final AtomicInteger mConnectionCount = new AtomicInteger();
+    private final AtomicInteger mRequestCount = new AtomicInteger();
+    private final AtomicInteger mNotModifiedCount = new AtomicInteger();
+
+    private volatile String mForecastJson;
+    private volatile String mETag;
+    private volatile int mResponseDelayMillis;
+    private volatile int mErrorCode;
+
+    public FakeOwmServer(String forecastJson) throws IOException {
+        mForecastJson = forecastJson;
+        mETag = "\"" + forecastJson.hashCode() + "\"";
+        mServerSocket = new ServerSocket(0, 0, InetAddress.getByName("127.0.0.1"));
+
+        Thread acceptThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                acceptLoop();
+            }
+        }, "FakeOwmServer");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+    }
+
+    public String getBaseUrl() {
+        return "http://127.0.0.1:" + mServerSocket.getLocalPort() + FORECAST_PATH + "?";
+    }
+
+    /** Changes the forecast that is served, and with it the ETag. */
+    public void setForecastJson(String forecastJson) {
+        mForecastJson = forecastJson;
+        mETag = "\"" + forecastJson.hashCode() + "\"";
+    }
+
+    /** Simulates a slow server by waiting this long before each response. */
+    public void setResponseDelayMillis(int responseDelayMillis) {
+        mResponseDelayMillis = responseDelayMillis;
+    }
+
+    /**
+     * Answers every forecast request with this HTTP error, the way OpenWeatherMap does, or
+     * serves the forecast again if it is 0.
+     */
+    public void setErrorCode(int errorCode) {
+        mErrorCode = errorCode;
+    }
+
+    public int getConnectionCount() {
+        return mConnectionCount.get();
+    }
+
+    public int getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    public int getNotModifiedCount() {
+        return mNotModifiedCount.get();
+    }
+
+    public void shutdown() {
+        try {
+            mServerSocket.close();
+        } catch (IOException e) {
+            // We're going away anyway.
+        }
+    }
+
+    private void acceptLoop() {
+        while (!mServerSocket.isClosed()) {
+            final Socket socket;
+            try {
+                socket = mServerSocket.accept();
+            } catch (IOException e) {
+                return;
+            }
+            mConnectionCount.incrementAndGet();
+            Thread connectionThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    serve(socket);
+                }
+            }, "FakeOwmServer connection");
+            connectionThread.setDaemon(true);
+            connectionThread.start();
+        }
+    }
+
+    private void serve(Socket socket) {
+        try {
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = socket.getOutputStream();
+            // Keep answering requests on this connection until the client hangs up.
+            while (true) {
+                String requestLine = readLine(in);
+                if (requestLine == null || requestLine.length() == 0) {
+                    break;
+                }
+                Map<String, String> headers = new HashMap<String, String>();
+                String line;
+                while ((line = readLine(in)) != null && line.length() > 0) {
+                    int colon = line.indexOf(':');
+                    if (colon > 0) {
+                        headers.put(line.substring(0, colon).trim().toLowerCase(Locale.US),
+                                line.substring(colon + 1).trim());
+                    }
+                }
+                mRequestCount.incrementAndGet();
+                if (mResponseDelayMillis > 0) {
+                    Thread.sleep(mResponseDelayMillis);
+                }
+                respond(requestLine, headers, out);
+            }
+        } catch (IOException | InterruptedException e) {
+            // The client went away.
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Nothing more to do.
+            }
+        }
+    }
+
+    private void respond(String requestLine, Map<String, String> headers, OutputStream out)
+            throws IOException {
+        String eTag = mETag;
+        int errorCode = mErrorCode;
+        StringBuilder head = new StringBuilder();
+
+        if (errorCode != 0 && requestLine.startsWith("GET " + FORECAST_PATH)) {
+            byte[] body = ("{\"cod\":" + errorCode + ",\"message\":\"Error\"}").getBytes("UTF-8");
+            head.append("HTTP/1.1 ").append(errorCode).append(" Error\r\n")
+                    .append("Content-Type: application/json; charset=utf-8\r\n")
+                    .append("Content-Length: ").append(body.length).append("\r\n\r\n");
+            out.write(head.toString().getBytes("US-ASCII"));
+            out.write(body);
+        } else if (!requestLine.startsWith("GET " + FORECAST_PATH)) {
+            byte[] body = "{\"cod\":\"404\",\"message\":\"Not found\"}".getBytes("UTF-8");
+            head.append("HTTP/1.1 404 Not Found\r\n")
+                    .append("Content-Type: application/json; charset=utf-8\r\n")
+                    .append("Content-Length: ").append(body.length).append("\r\n\r\n");
+            out.write(head.toString().getBytes("US-ASCII"));
+            out.write(body);
+        } else if (eTag.equals(headers.get("if-none-match"))) {
+            mNotModifiedCount.incrementAndGet();
+            head.append("HTTP/1.1 304 Not Modified\r\n")
+                    .append("ETag: ").append(eTag).append("\r\n\r\n");
+            out.write(head.toString().getBytes("US-ASCII"));
+        } else {
+            byte[] body = mForecastJson.getBytes("UTF-8");
+            String acceptEncoding = headers.get("accept-encoding");
+            boolean gzip = acceptEncoding != null && acceptEncoding.contains("gzip");
+            if (gzip) {
+                ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+                GZIPOutputStream gzipStream = new GZIPOutputStream(compressed);
+                gzipStream.write(body);
+                gzipStream.close();
+                body = compressed.toByteArray();
+            }
+            head.append("HTTP/1.1 200 OK\r\n")
+                    .append("Content-Type: application/json; charset=utf-8\r\n")
+                    .append("ETag: ").append(eTag).append("\r\n");
+            if (gzip) {
+                head.append("Content-Encoding: gzip\r\n");
+            }
+            head.append("Content-Length: ").append(body.length).append("\r\n\r\n");
+            out.write(head.toString().getBytes("US-ASCII"));
+            out.write(body);
+        }
+        out.flush();
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = in.read()) != -1) {
+            if (c == '\n') {
+                int length = line.length();
+                if (length > 0 && line.charAt(length - 1) == '\r') {
+                    line.setLength(length - 1);
+                }
+                return line.toString();
+            }
+            line.append((char) c);
+        }
+        return line.length() == 0 ? null : line.toString();
+    }
+}
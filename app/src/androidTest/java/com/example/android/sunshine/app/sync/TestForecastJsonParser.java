@@ -0,0 +1,155 @@
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+import org.json.JSONException;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+    Runs the streaming parser side by side with the original JSONObject parser and checks that
+    both deliver exactly the same city and days for the same response.
+ */
+public class TestForecastJsonParser extends AndroidTestCase {
+
+    private static final String DAY_1 =
+            "{\"dt\":1419076800,\"temp\":{\"day\":-3.1,\"min\":-6.08,\"max\":-1.5," +
+            "\"night\":-6.08,\"eve\":-3.45,\"morn\":-1.93},\"pressure\":1001.24," +
+            "\"humidity\":94,\"weather\":[{\"id\":600,\"main\":\"Snow\"," +
+            "\"description\":\"light snow\",\"icon\":\"13d\"}],\"speed\":2.36," +
+            "\"deg\":207,\"clouds\":92,\"snow\":0.84}";
+
+    private static final String DAY_2 =
+            // fields deliberately out of the usual order
+            "{\"weather\":[{\"main\":\"Clear\",\"id\":800},{\"main\":\"Ignored\",\"id\":1}]," +
+            "\"deg\":340.5,\"speed\":4.1,\"humidity\":\"71\",\"pressure\":1010," +
+            "\"temp\":{\"max\":2,\"min\":-9.75},\"dt\":1419163200}";
+
+    private static final String CITY =
+            "{\"id\":5861897,\"name\":\"Fairbanks\",\"coord\":{\"lon\":-147.716,\"lat\":64.8378}," +
+            "\"country\":\"US\",\"population\":0}";
+
+    private static final String FORECAST_CITY_FIRST =
+            "{\"city\":" + CITY + ",\"cod\":\"200\",\"message\":0.0122,\"cnt\":2," +
+            "\"list\":[" + DAY_1 + "," + DAY_2 + "]}";
+
+    private static final String FORECAST_LIST_FIRST =
+            "{\"list\":[" + DAY_1 + "," + DAY_2 + "],\"cnt\":2,\"city\":" + CITY +
+            ",\"cod\":200}";
+
+    private static final String FORECAST_NO_CODE =
+            "{\"city\":" + CITY + ",\"list\":[" + DAY_2 + "]}";
+
+    private static final String FORECAST_NOT_FOUND =
+            "{\"cod\":\"404\",\"message\":\"Error: Not found city\"}";
+
+    private static final String FORECAST_SERVER_ERROR =
+            "{\"message\":\"Internal error\",\"cod\":500}";
+
+    private static final String FORECAST_MISSING_CITY =
+            "{\"cod\":\"200\",\"list\":[" + DAY_1 + "]}";
+
+    /*
+        Records every callback as a String so two parses can be compared with assertEquals.
+     */
+    static class RecordingCallback implements ForecastJsonParser.Callback {
+        final List<String> mEvents = new ArrayList<String>();
+
+        @Override
+        public void onCity(String cityName, double lat, double lon) {
+            mEvents.add("city " + cityName + " " + lat + " " + lon);
+        }
+
+        @Override
+        public void onDay(int index, ForecastJsonParser.ForecastDay day) {
+            mEvents.add("day " + index + " " + day.pressure + " " + day.humidity + " " +
+                    day.windSpeed + " " + day.windDirection + " " + day.high + " " + day.low +
+                    " " + day.description + " " + day.weatherId);
+        }
+    }
+
+    private static ByteArrayInputStream streamOf(String json) throws IOException {
+        return new ByteArrayInputStream(json.getBytes("UTF-8"));
+    }
+
+    private void assertParsersAgree(String json, int expectedCode) throws Exception {
+        RecordingCallback dom = new RecordingCallback();
+        int domCode = ForecastJsonParser.parseDom(json, dom);
+
+        RecordingCallback streaming = new RecordingCallback();
+        int streamingCode = ForecastJsonParser.parse(streamOf(json), streaming);
+
+        assertEquals("Error: DOM parser returned the wrong cod", expectedCode, domCode);
+        assertEquals("Error: Streaming parser and DOM parser disagree on cod",
+                domCode, streamingCode);
+
+        // The city may be reported before or after the days by the streaming parser, so only
+        // the set of days and the city itself have to match.
+        assertEquals("Error: Streaming parser and DOM parser reported a different number of events",
+                dom.mEvents.size(), streaming.mEvents.size());
+        for (String event : dom.mEvents) {
+            assertTrue("Error: Streaming parser did not report " + event,
+                    streaming.mEvents.contains(event));
+        }
+    }
+
+    public void testCityFirst() throws Exception {
+        assertParsersAgree(FORECAST_CITY_FIRST, HttpURLConnection.HTTP_OK);
+    }
+
+    public void testListFirst() throws Exception {
+        assertParsersAgree(FORECAST_LIST_FIRST, HttpURLConnection.HTTP_OK);
+    }
+
+    public void testNoCode() throws Exception {
+        assertParsersAgree(FORECAST_NO_CODE, HttpURLConnection.HTTP_OK);
+    }
+
+    public void testErrorCodes() throws Exception {
+        assertParsersAgree(FORECAST_NOT_FOUND, HttpURLConnection.HTTP_NOT_FOUND);
+        assertParsersAgree(FORECAST_SERVER_ERROR, HttpURLConnection.HTTP_INTERNAL_ERROR);
+    }
+
+    public void testDaysAreIndexedInOrder() throws Exception {
+        RecordingCallback streaming = new RecordingCallback();
+        ForecastJsonParser.parse(streamOf(FORECAST_LIST_FIRST), streaming);
+
+        assertTrue(streaming.mEvents.get(0).startsWith("day 0 "));
+        assertTrue(streaming.mEvents.get(1).startsWith("day 1 "));
+        assertTrue(streaming.mEvents.get(2).startsWith("city Fairbanks"));
+    }
+
+    public void testMissingCityIsInvalid() throws Exception {
+        try {
+            ForecastJsonParser.parseDom(FORECAST_MISSING_CITY, new RecordingCallback());
+            fail("Error: DOM parser accepted a forecast without a city");
+        } catch (JSONException expected) {
+        }
+        try {
+            ForecastJsonParser.parse(streamOf(FORECAST_MISSING_CITY), new RecordingCallback());
+            fail("Error: Streaming parser accepted a forecast without a city");
+        } catch (JSONException expected) {
+        }
+    }
+
+    public void testMalformedIsInvalid() throws Exception {
+        try {
+            ForecastJsonParser.parse(streamOf("{\"list\":[{\"pressure\":}]}"),
+                    new RecordingCallback());
+            fail("Error: Streaming parser accepted malformed JSON");
+        } catch (JSONException expected) {
+        }
+    }
+
+    public void testEmptyStreamIsAnIOException() throws Exception {
+        try {
+            ForecastJsonParser.parse(streamOf(""), new RecordingCallback());
+            fail("Error: Streaming parser accepted an empty response");
+        } catch (IOException expected) {
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.zip.GZIPOutputStream;
+
+public class TestResponseReader extends AndroidTestCase {
+
+    private static final String BODY;
+
+    static {
+        StringBuilder body = new StringBuilder("{\"list\":[");
+        for (int i = 0; i < 14; i++) {
+            if (i > 0) body.append(',');
+            body.append("{\"pressure\":1001.24,\"humidity\":94,\"speed\":2.36,\"deg\":207}");
+        }
+        BODY = body.append("]}").toString();
+    }
+
+    /*
+        A canned response, so the reader can be tested without a network.
+     */
+    static class FakeConnection extends HttpURLConnection {
+        private final byte[] mBody;
+        private final String mEncoding;
+        private final int mContentLength;
+
+        FakeConnection(byte[] body, String encoding, int contentLength) throws IOException {
+            super(new URL("http://localhost/"));
+            mBody = body;
+            mEncoding = encoding;
+            mContentLength = contentLength;
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return new ByteArrayInputStream(mBody);
+        }
+
+        @Override
+        public String getContentEncoding() {
+            return mEncoding;
+        }
+
+        @Override
+        public int getContentLength() {
+            return mContentLength;
+        }
+
+        @Override
+        public void disconnect() {
+        }
+
+        @Override
+        public boolean usingProxy() {
+            return false;
+        }
+
+        @Override
+        public void connect() {
+        }
+    }
+
+    private static byte[] gzip(byte[] bytes) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        GZIPOutputStream gzip = new GZIPOutputStream(out);
+        gzip.write(bytes);
+        gzip.close();
+        return out.toByteArray();
+    }
+
+    public void testRequestsGzip() throws Exception {
+        FakeConnection connection = new FakeConnection(new byte[0], null, 0);
+        ResponseReader.requestCompression(connection);
+        assertEquals("gzip", connection.getRequestProperty("Accept-Encoding"));
+    }
+
+    public void testPlainBody() throws Exception {
+        byte[] body = BODY.getBytes("UTF-8");
+        ResponseReader reader = new ResponseReader(new FakeConnection(body, null, body.length));
+
+        assertEquals(BODY, reader.readString());
+        assertFalse(reader.isGzipped());
+        assertEquals(body.length, reader.getWireBytes());
+        assertEquals(body.length, reader.getDecodedBytes());
+    }
+
+    public void testGzippedBody() throws Exception {
+        byte[] body = BODY.getBytes("UTF-8");
+        byte[] compressed = gzip(body);
+        ResponseReader reader = new ResponseReader(
+                new FakeConnection(compressed, "gzip", compressed.length));
+
+        assertEquals(BODY, reader.readString());
+        assertTrue(reader.isGzipped());
+        assertEquals(compressed.length, reader.getWireBytes());
+        assertEquals(body.length, reader.getDecodedBytes());
+        assertTrue("Error: gzip didn't shrink the forecast",
+                reader.getWireBytes() < reader.getDecodedBytes());
+    }
+
+    public void testUnknownLengthGrowsBuffer() throws Exception {
+        byte[] body = BODY.getBytes("UTF-8");
+        // Lie about the length so the initial buffer is far too small.
+        ResponseReader reader = new ResponseReader(new FakeConnection(body, null, 3));
+
+        assertEquals(BODY, reader.readString());
+    }
+
+    public void testEmptyBody() throws Exception {
+        ResponseReader reader = new ResponseReader(new FakeConnection(new byte[0], null, -1));
+        assertNull(reader.readString());
+    }
+}
@@ -0,0 +1,76 @@
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+import java.util.Random;
+
+public class TestSyncBackoff extends AndroidTestCase {
+    private static final long NOW = 1419033600000L;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        SyncBackoff.onSyncSucceeded(mContext);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        SyncBackoff.onSyncSucceeded(mContext);
+        super.tearDown();
+    }
+
+    public void testBackoffGrowsWithJitterAndIsBounded() {
+        Random random = new Random(42);
+        long previousCeiling = 0;
+        for (int attempt = 0; attempt < 40; attempt++) {
+            long ceiling = Math.min(SyncBackoff.SYNC_MAX_MILLIS,
+                    attempt < 32 ? SyncBackoff.SYNC_BASE_MILLIS << attempt : Long.MAX_VALUE);
+            long delay = SyncBackoff.backoffMillis(attempt, SyncBackoff.SYNC_BASE_MILLIS,
+                    SyncBackoff.SYNC_MAX_MILLIS, random);
+            assertTrue("Error: Delay " + delay + " out of range for attempt " + attempt,
+                    delay >= ceiling / 2 && delay <= ceiling);
+            assertTrue(ceiling >= previousCeiling);
+            previousCeiling = ceiling;
+        }
+    }
+
+    public void testBackoffIsJittered() {
+        Random random = new Random(42);
+        long first = SyncBackoff.backoffMillis(3, 1000, 60000, random);
+        boolean differs = false;
+        for (int i = 0; i < 10 && !differs; i++) {
+            differs = SyncBackoff.backoffMillis(3, 1000, 60000, random) != first;
+        }
+        assertTrue("Error: Every delay was the same", differs);
+    }
+
+    public void testBreakerOpensAfterRepeatedFailures() {
+        Random random = new Random(42);
+        for (int i = 1; i < SyncBackoff.BREAKER_THRESHOLD; i++) {
+            long retryAt = SyncBackoff.onSyncFailed(mContext, NOW, random);
+            assertTrue(retryAt > NOW && retryAt <= NOW + SyncBackoff.SYNC_MAX_MILLIS);
+            assertTrue("Error: Breaker opened too early", SyncBackoff.allowSync(mContext, NOW));
+        }
+
+        long openUntil = SyncBackoff.onSyncFailed(mContext, NOW, random);
+        assertEquals(NOW + SyncBackoff.BREAKER_OPEN_MILLIS, openUntil);
+        assertFalse("Error: Breaker didn't open", SyncBackoff.allowSync(mContext, NOW + 1));
+        // Half open: one sync is let through once the breaker's time is up...
+        assertTrue(SyncBackoff.allowSync(mContext, openUntil));
+
+        // ...and it closes again as soon as a sync gets through.
+        SyncBackoff.onSyncSucceeded(mContext);
+        assertEquals(0, SyncBackoff.getConsecutiveFailures(mContext));
+        assertTrue(SyncBackoff.allowSync(mContext, NOW));
+    }
+
+    public void testFailedHalfOpenSyncReopensBreaker() {
+        for (int i = 0; i < SyncBackoff.BREAKER_THRESHOLD; i++) {
+            SyncBackoff.onSyncFailed(mContext, NOW, new Random(i));
+        }
+        long later = NOW + SyncBackoff.BREAKER_OPEN_MILLIS;
+        long openUntil = SyncBackoff.onSyncFailed(mContext, later, new Random(0));
+        assertEquals(later + SyncBackoff.BREAKER_OPEN_MILLIS, openUntil);
+        assertFalse(SyncBackoff.allowSync(mContext, later + 1));
+    }
+}
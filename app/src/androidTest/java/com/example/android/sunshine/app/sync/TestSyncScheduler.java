@@ -0,0 +1,92 @@
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+/*
+    Checks the decisions SyncScheduler makes for given conditions.
+ */
+public class TestSyncScheduler extends AndroidTestCase {
+
+    private static SyncScheduler.Conditions daytime() {
+        SyncScheduler.Conditions conditions = new SyncScheduler.Conditions();
+        conditions.mHourOfDay = 14;
+        conditions.mBatteryPercent = 80;
+        return conditions;
+    }
+
+    public void testDefaultConditionsKeepTheBaseInterval() {
+        SyncScheduler.Schedule schedule = SyncScheduler.decide(daytime());
+        assertEquals(SyncScheduler.BASE_INTERVAL, schedule.mInterval);
+        assertEquals("default", schedule.mReason);
+    }
+
+    public void testStableForecastSyncsLessOften() {
+        SyncScheduler.Conditions conditions = daytime();
+        conditions.mVolatility = 0f;
+        assertTrue("Error: A stable forecast didn't stretch the interval",
+                SyncScheduler.decide(conditions).mInterval > SyncScheduler.BASE_INTERVAL);
+    }
+
+    public void testChangingForecastSyncsMoreOften() {
+        SyncScheduler.Conditions conditions = daytime();
+        conditions.mVolatility = 1f;
+        assertTrue("Error: A changing forecast didn't shrink the interval",
+                SyncScheduler.decide(conditions).mInterval < SyncScheduler.BASE_INTERVAL);
+    }
+
+    public void testNightAndMeteredOnlyMatterWhenNothingIsShown() {
+        SyncScheduler.Conditions conditions = daytime();
+        conditions.mHourOfDay = 3;
+        conditions.mMetered = true;
+        int unseen = SyncScheduler.decide(conditions).mInterval;
+        assertTrue(unseen > SyncScheduler.BASE_INTERVAL);
+
+        conditions.mWidgetsInstalled = true;
+        conditions.mInteractive = true;
+        assertEquals(SyncScheduler.BASE_INTERVAL, SyncScheduler.decide(conditions).mInterval);
+    }
+
+    /*
+        A widget on a phone whose screen is off isn't being looked at, so the night stretch
+        still applies.
+     */
+    public void testWidgetsDontCountWhileTheScreenIsOff() {
+        SyncScheduler.Conditions conditions = daytime();
+        conditions.mHourOfDay = 3;
+        conditions.mWidgetsInstalled = true;
+        conditions.mWearableConnected = true;
+        SyncScheduler.Schedule schedule = SyncScheduler.decide(conditions);
+        assertTrue("Error: Widgets on a sleeping phone kept the night from stretching the interval",
+                schedule.mInterval > SyncScheduler.BASE_INTERVAL);
+        assertTrue("Error: The night wasn't the reason, the reason was " + schedule.mReason,
+                schedule.mReason.contains("night"));
+    }
+
+    public void testLowBatteryUnlessCharging() {
+        SyncScheduler.Conditions conditions = daytime();
+        conditions.mBatteryPercent = 5;
+        assertTrue(SyncScheduler.decide(conditions).mInterval > SyncScheduler.BASE_INTERVAL);
+
+        conditions.mCharging = true;
+        assertEquals(SyncScheduler.BASE_INTERVAL, SyncScheduler.decide(conditions).mInterval);
+    }
+
+    public void testShownForecastIsNeverOlderThanTheBaseInterval() {
+        SyncScheduler.Conditions conditions = daytime();
+        conditions.mVolatility = 0f;
+        conditions.mBatteryPercent = 5;
+        conditions.mAppVisible = true;
+        assertEquals(SyncScheduler.BASE_INTERVAL, SyncScheduler.decide(conditions).mInterval);
+    }
+
+    public void testIntervalStaysWithinLimits() {
+        SyncScheduler.Conditions conditions = daytime();
+        conditions.mVolatility = 0f;
+        conditions.mHourOfDay = 2;
+        conditions.mMetered = true;
+        conditions.mBatteryPercent = 1;
+        SyncScheduler.Schedule schedule = SyncScheduler.decide(conditions);
+        assertEquals(SyncScheduler.MAX_INTERVAL, schedule.mInterval);
+        assertTrue(schedule.mFlex > 0 && schedule.mFlex < schedule.mInterval);
+    }
+}
@@ -0,0 +1,27 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Intent;
+import android.test.AndroidTestCase;
+
+public class TestTodayForecast extends AndroidTestCase {
+
+    public void testIntentRoundTrip() {
+        TodayForecast today = new TodayForecast("99705", 1419033600000L, 600, -1.5, -6.08, "Snow");
+        Intent intent = today.writeTo(new Intent(SunshineSyncAdapter.ACTION_DATA_UPDATED));
+
+        // The widget provider forwards the extras to its service.
+        TodayForecast received = TodayForecast.fromIntent(new Intent().putExtras(intent));
+        assertNotNull("Error: The snapshot didn't survive the intent", received);
+        assertEquals(today.locationSetting, received.locationSetting);
+        assertEquals(today.date, received.date);
+        assertEquals(today.weatherId, received.weatherId);
+        assertEquals(today.high, received.high);
+        assertEquals(today.low, received.low);
+        assertEquals(today.description, received.description);
+    }
+
+    public void testIntentWithoutSnapshot() {
+        assertNull(TodayForecast.fromIntent(new Intent(SunshineSyncAdapter.ACTION_DATA_UPDATED)));
+        assertNull(TodayForecast.fromIntent(null));
+    }
+}
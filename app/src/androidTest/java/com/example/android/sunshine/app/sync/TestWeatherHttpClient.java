@@ -0,0 +1,164 @@
+package com.example.android.sunshine.app.sync;
+
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.net.HttpURLConnection;
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+    Exercises KeepAliveWeatherHttpClient against FakeOwmServer, without touching the real API.
+ */
+public class TestWeatherHttpClient extends AndroidTestCase {
+    public static final String LOG_TAG = TestWeatherHttpClient.class.getSimpleName();
+
+    private static final String FORECAST =
+            "{\"city\":{\"name\":\"Fairbanks\",\"coord\":{\"lon\":-147.716,\"lat\":64.8378}}," +
+            "\"cod\":\"200\",\"list\":[{\"temp\":{\"min\":-6.08,\"max\":-1.5}," +
+            "\"pressure\":1001.24,\"humidity\":94,\"weather\":[{\"id\":600,\"main\":\"Snow\"}]," +
+            "\"speed\":2.36,\"deg\":207}]}";
+
+    private FakeOwmServer mServer;
+    private WeatherHttpClient mClient;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mServer = new FakeOwmServer(FORECAST);
+        mClient = new KeepAliveWeatherHttpClient(mServer.getBaseUrl(), 5000, 5000);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        super.tearDown();
+    }
+
+    private Uri forecastUri(String location) {
+        return mClient.buildForecastUri()
+                .appendQueryParameter("q", location)
+                .appendQueryParameter("cnt", "14")
+                .build();
+    }
+
+    /*
+        Fetches and parses one forecast the way the sync adapter does, returning the status code.
+     */
+    private int fetch(String location, Map<String, String> headers,
+                      TestForecastJsonParser.RecordingCallback callback) throws Exception {
+        WeatherHttpClient.Response response = mClient.get(forecastUri(location), headers);
+        try {
+            int responseCode = response.getResponseCode();
+            if (responseCode == HttpURLConnection.HTTP_OK) {
+                ResponseReader body = response.getBody();
+                assertEquals(HttpURLConnection.HTTP_OK,
+                        ForecastJsonParser.parse(body.getInputStream(), callback));
+                assertTrue("Error: the client didn't ask for gzip", body.isGzipped());
+            }
+            return responseCode;
+        } finally {
+            response.close();
+        }
+    }
+
+    public void testConnectionIsReused() throws Exception {
+        final int locations = 5;
+        for (int i = 0; i < locations; i++) {
+            TestForecastJsonParser.RecordingCallback callback =
+                    new TestForecastJsonParser.RecordingCallback();
+            assertEquals(HttpURLConnection.HTTP_OK,
+                    fetch("location " + i, new HashMap<String, String>(), callback));
+            assertEquals(2, callback.mEvents.size());
+        }
+        assertEquals(locations, mServer.getRequestCount());
+        assertEquals("Error: every request opened a new connection",
+                1, mServer.getConnectionCount());
+    }
+
+    public void testNotModified() throws Exception {
+        WeatherHttpClient.Response response =
+                mClient.get(forecastUri("99705"), new HashMap<String, String>());
+        String eTag = response.getHeaderField("ETag");
+        response.close();
+        assertNotNull(eTag);
+
+        Map<String, String> headers = new HashMap<String, String>();
+        headers.put("If-None-Match", eTag);
+        assertEquals(HttpURLConnection.HTTP_NOT_MODIFIED,
+                fetch("99705", headers, new TestForecastJsonParser.RecordingCallback()));
+        assertEquals(1, mServer.getNotModifiedCount());
+
+        // A 304 has to leave the connection reusable too.
+        fetch("99705", new HashMap<String, String>(),
+                new TestForecastJsonParser.RecordingCallback());
+        assertEquals(1, mServer.getConnectionCount());
+
+        // Once the forecast changes the old ETag no longer matches.
+        mServer.setForecastJson(FORECAST.replace("Snow", "Rain"));
+        assertEquals(HttpURLConnection.HTTP_OK,
+                fetch("99705", headers, new TestForecastJsonParser.RecordingCallback()));
+    }
+
+    public void testNotFound() throws Exception {
+        Uri nowhere = Uri.parse(
+                mServer.getBaseUrl().replace(FakeOwmServer.FORECAST_PATH, "/nowhere"));
+        WeatherHttpClient.Response response = mClient.get(nowhere, new HashMap<String, String>());
+        assertEquals(HttpURLConnection.HTTP_NOT_FOUND, response.getResponseCode());
+        response.close();
+    }
+
+    /*
+        A bad API key would be turned down again, so the sync gives up on it straight away
+        rather than retrying it as if the server were down.
+     */
+    public void testUnauthorizedIsNotRetried() throws Exception {
+        mServer.setErrorCode(HttpURLConnection.HTTP_UNAUTHORIZED);
+        SunshineSyncAdapter.LocationResult result = syncLocation("99705");
+        assertEquals("Error: A 401 should be a hard error",
+                SunshineSyncAdapter.LOCATION_STATUS_SERVER_INVALID, result.mStatus);
+        assertEquals("Error: A 401 was retried", 1, mServer.getRequestCount());
+    }
+
+    /*
+        OpenWeatherMap answers 404 for a location it doesn't know.
+     */
+    public void testNotFoundIsInvalidLocation() throws Exception {
+        mServer.setErrorCode(HttpURLConnection.HTTP_NOT_FOUND);
+        SunshineSyncAdapter.LocationResult result = syncLocation("nowhere");
+        assertEquals("Error: A 404 should mark the location invalid",
+                SunshineSyncAdapter.LOCATION_STATUS_INVALID, result.mStatus);
+        assertEquals("Error: A 404 was retried", 1, mServer.getRequestCount());
+    }
+
+    /*
+        Syncs one location the way onPerformSync does, against the fake server.
+     */
+    private SunshineSyncAdapter.LocationResult syncLocation(String location) {
+        SunshineSyncAdapter adapter = new SunshineSyncAdapter(mContext, false);
+        adapter.setHttpClient(mClient);
+        return adapter.syncLocation(new SunshineSyncAdapter.LocationRequest(location),
+                new SyncMetrics(System.currentTimeMillis()));
+    }
+
+    /*
+        Not a pass/fail test: logs how long fetching and parsing a forecast takes over a reused
+        connection, so changes to the sync path can be compared.
+     */
+    public void testFetchLatency() throws Exception {
+        final int runs = 50;
+        // Warm up the connection and the code paths first.
+        fetch("warm up", new HashMap<String, String>(),
+                new TestForecastJsonParser.RecordingCallback());
+
+        long start = System.nanoTime();
+        for (int i = 0; i < runs; i++) {
+            fetch("location " + i, new HashMap<String, String>(),
+                    new TestForecastJsonParser.RecordingCallback());
+        }
+        long averageMicros = (System.nanoTime() - start) / runs / 1000;
+        Log.d(LOG_TAG, "Average fetch and parse: " + averageMicros + "us over " + runs + " runs, "
+                + mServer.getConnectionCount() + " connection(s)");
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.text.format.Time;
+
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Formats the days the forecast is shown for, for {@link Utility}.  The list, the detail view,
+ * the widgets and the notification ask for the same two weeks of days over and over, so each
+ * string is kept, by day and style, and the formatters are made once and reused.
+ *
+ * Names like "Today" and "Tomorrow" depend on the current day, so everything kept is dropped
+ * when the day changes, and when the time zone or the locale does.  Thread safe.
+ */
+final class DayFormatter {
+    // The styles of Utility's day strings
+    static final int STYLE_FRIENDLY = 0;
+    static final int STYLE_FRIENDLY_LONG_TODAY = 1;
+    static final int STYLE_FULL_FRIENDLY = 2;
+    static final int STYLE_DAY_NAME = 3;
+    static final int STYLE_MONTH_DAY = 4;
+    private static final int STYLES = 5;
+
+    // Days kept per style, a month's worth.  A day's strings go in the slot of its julian day
+    // modulo this, so looking one up allocates nothing.
+    private static final int CACHE_DAYS = 32;
+    private static final int NO_DAY = Integer.MIN_VALUE;
+
+    private static DayFormatter sInstance;
+
+    private final Context mContext;
+    // Everything below is guarded by this.
+    private final int[] mCachedDays = new int[STYLES * CACHE_DAYS];
+    private final String[] mCachedStrings = new String[STYLES * CACHE_DAYS];
+    // null until the first call, and after the time zone changes
+    private TimeZone mTimeZone;
+    private Locale mLocale;
+    private int mToday;
+    private SimpleDateFormat mDayNameFormat;
+    private SimpleDateFormat mShortDateFormat;
+    private SimpleDateFormat mMonthDayFormat;
+    private int mHitCount;
+    private int mMissCount;
+
+    private DayFormatter(Context context) {
+        mContext = context;
+        // The process picks up the new default time zone before this is sent
+        context.registerReceiver(new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                synchronized (DayFormatter.this) {
+                    mTimeZone = null;
+                }
+            }
+        }, new IntentFilter(Intent.ACTION_TIMEZONE_CHANGED));
+    }
+
+    static synchronized DayFormatter getInstance(Context context) {
+        if (sInstance == null) {
+            Context appContext = context.getApplicationContext();
+            sInstance = new DayFormatter(appContext != null ? appContext : context);
+        }
+        return sInstance;
+    }
+
+    /**
+     * @param style one of the STYLE_ constants
+     * @return the day of dateInMillis, in the given style
+     */
+    synchronized String format(long dateInMillis, int style) {
+        long now = System.currentTimeMillis();
+        if (mTimeZone == null || Locale.getDefault() != mLocale || getJulianDay(now) != mToday) {
+            reset(now);
+        }
+
+        int julianDay = getJulianDay(dateInMillis);
+        int slot = style * CACHE_DAYS + julianDay % CACHE_DAYS;
+        if (mCachedDays[slot] == julianDay) {
+            mHitCount++;
+            return mCachedStrings[slot];
+        }
+        mMissCount++;
+        String formatted = formatUncached(dateInMillis, julianDay, style);
+        mCachedDays[slot] = julianDay;
+        mCachedStrings[slot] = formatted;
+        return formatted;
+    }
+
+    synchronized int getHitCount() {
+        return mHitCount;
+    }
+
+    synchronized int getMissCount() {
+        return mMissCount;
+    }
+
+    private String formatUncached(long dateInMillis, int julianDay, int style) {
+        switch (style) {
+            case STYLE_FRIENDLY_LONG_TODAY:
+                // For today: "Today, June 8"
+                if (julianDay == mToday) {
+                    return mContext.getString(R.string.format_full_friendly_date,
+                            mContext.getString(R.string.today),
+                            format(dateInMillis, STYLE_MONTH_DAY));
+                }
+                return format(dateInMillis, STYLE_FRIENDLY);
+            case STYLE_FRIENDLY:
+                // For the next week: "Tomorrow", "Wednesday"; after that: "Mon Jun 8"
+                if (julianDay < mToday + 7) {
+                    return format(dateInMillis, STYLE_DAY_NAME);
+                }
+                return mShortDateFormat.format(dateInMillis);
+            case STYLE_FULL_FRIENDLY:
+                return mContext.getString(R.string.format_full_friendly_date,
+                        format(dateInMillis, STYLE_DAY_NAME),
+                        format(dateInMillis, STYLE_MONTH_DAY));
+            case STYLE_DAY_NAME:
+                if (julianDay == mToday) {
+                    return mContext.getString(R.string.today);
+                } else if (julianDay == mToday + 1) {
+                    return mContext.getString(R.string.tomorrow);
+                }
+                return mDayNameFormat.format(dateInMillis);
+            case STYLE_MONTH_DAY:
+                return mMonthDayFormat.format(dateInMillis);
+            default:
+                throw new IllegalArgumentException("Unknown style: " + style);
+        }
+    }
+
+    /**
+     * Starts over for a new day, time zone or locale.
+     */
+    private void reset(long now) {
+        if (mTimeZone == null || Locale.getDefault() != mLocale) {
+            mTimeZone = TimeZone.getDefault();
+            mLocale = Locale.getDefault();
+            mDayNameFormat = new SimpleDateFormat("EEEE");
+            mShortDateFormat = new SimpleDateFormat("EEE MMM dd");
+            mMonthDayFormat = new SimpleDateFormat("MMMM dd");
+        }
+        mToday = getJulianDay(now);
+        Arrays.fill(mCachedDays, NO_DAY);
+        Arrays.fill(mCachedStrings, null);
+    }
+
+    private int getJulianDay(long millis) {
+        return Time.getJulianDay(millis, mTimeZone.getOffset(millis) / 1000);
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.support.v7.widget.RecyclerView;
+
+/**
+ * Works out what changed between two forecasts and tells an adapter with the fewest item range
+ * notifications, instead of notifyDataSetChanged(), so rows that didn't change aren't rebound.
+ *
+ * Days are matched by date.  Forecasts are sorted by date and have one row per day, so a single
+ * pass over both finds every difference, and no day can ever have moved.  Rows are compared by
+ * what they show, so a change in humidity doesn't rebind a row, while a change of units does.
+ */
+final class ForecastDiff {
+
+    private ForecastDiff() {
+    }
+
+    /**
+     * Notifies adapter of the changes that turn oldRows into newRows.  Must be called after the
+     * adapter has switched to newRows, and before the RecyclerView lays out again.
+     */
+    static void dispatch(ForecastRow[] oldRows, ForecastRow[] newRows, RecyclerView.Adapter adapter) {
+        if (!isSortedByDate(oldRows) || !isSortedByDate(newRows)) {
+            adapter.notifyDataSetChanged();
+            return;
+        }
+
+        int oldSize = oldRows.length;
+        int newSize = newRows.length;
+        int oldIndex = 0;
+        // Rows before newIndex already match newRows, and the rest are still oldRows' from
+        // oldIndex on, so newIndex is also the adapter position both are at.
+        int newIndex = 0;
+        while (oldIndex < oldSize || newIndex < newSize) {
+            if (newIndex == newSize
+                    || (oldIndex < oldSize && oldRows[oldIndex].mDate < newRows[newIndex].mDate)) {
+                int count = 1;
+                while (oldIndex + count < oldSize && (newIndex == newSize
+                        || oldRows[oldIndex + count].mDate < newRows[newIndex].mDate)) {
+                    count++;
+                }
+                adapter.notifyItemRangeRemoved(newIndex, count);
+                oldIndex += count;
+            } else if (oldIndex == oldSize
+                    || newRows[newIndex].mDate < oldRows[oldIndex].mDate) {
+                int count = 1;
+                while (newIndex + count < newSize && (oldIndex == oldSize
+                        || newRows[newIndex + count].mDate < oldRows[oldIndex].mDate)) {
+                    count++;
+                }
+                adapter.notifyItemRangeInserted(newIndex, count);
+                newIndex += count;
+            } else {
+                int count = 0;
+                while (oldIndex + count < oldSize && newIndex + count < newSize
+                        && oldRows[oldIndex + count].mDate == newRows[newIndex + count].mDate
+                        && !oldRows[oldIndex + count].equals(newRows[newIndex + count])) {
+                    count++;
+                }
+                if (count > 0) {
+                    adapter.notifyItemRangeChanged(newIndex, count);
+                    oldIndex += count;
+                    newIndex += count;
+                } else {
+                    oldIndex++;
+                    newIndex++;
+                }
+            }
+        }
+    }
+
+    private static boolean isSortedByDate(ForecastRow[] rows) {
+        for (int i = 1; i < rows.length; i++) {
+            if (rows[i].mDate <= rows[i - 1].mDate) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
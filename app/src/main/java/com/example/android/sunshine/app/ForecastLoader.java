@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.net.Uri;
+import android.support.v4.content.CursorLoader;
+
+/**
+ * A CursorLoader for the forecast list that also formats the rows of each result, on the
+ * loader's background thread, for {@link ForecastAdapter} to bind.
+ */
+public class ForecastLoader extends CursorLoader {
+
+    public ForecastLoader(Context context, Uri uri, String[] projection, String selection,
+                          String[] selectionArgs, String sortOrder) {
+        super(context, uri, projection, selection, selectionArgs, sortOrder);
+    }
+
+    @Override
+    public Cursor loadInBackground() {
+        Cursor cursor = super.loadInBackground();
+        if (cursor == null) {
+            return null;
+        }
+        return new RowsCursor(cursor, ForecastRow.fromCursor(getContext(), cursor));
+    }
+
+    /**
+     * The result of a load: the cursor, along with its rows ready to bind.
+     */
+    static final class RowsCursor extends CursorWrapper {
+        private final ForecastRow[] mRows;
+
+        RowsCursor(Cursor cursor, ForecastRow[] rows) {
+            super(cursor);
+            mRows = rows;
+        }
+
+        ForecastRow[] getRows() {
+            return mRows;
+        }
+    }
+}
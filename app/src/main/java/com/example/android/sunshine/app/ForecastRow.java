@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.database.Cursor;
+
+import com.example.android.sunshine.app.data.ForecastSeries;
+
+/**
+ * One row of the forecast list, with every string it shows already formatted.  Rows are built
+ * off the main thread by {@link ForecastLoader}, so that binding one only copies its fields into
+ * views.  Immutable.
+ */
+final class ForecastRow {
+    final long mDate;
+    final int mIconResource;
+    // The bigger art, for the row that is laid out as today
+    final int mArtResource;
+    // null when the local graphics are used
+    final String mArtUrl;
+    final String mDateText;
+    // The date text for the row that is laid out as today
+    final String mLongDateText;
+    final String mDescription;
+    final String mDescriptionA11y;
+    final String mHighText;
+    final String mHighA11y;
+    final String mLowText;
+    final String mLowA11y;
+    // Named after the date, which is unique in a forecast, so it stays right when rows move
+    final String mTransitionName;
+
+    private ForecastRow(Context context, ForecastSeries days, int index, boolean localGraphics) {
+        int weatherId = days.getWeatherId(index);
+        mDate = days.getDate(index);
+        mIconResource = Utility.getIconResourceForWeatherCondition(weatherId);
+        mArtResource = Utility.getArtResourceForWeatherCondition(weatherId);
+        mArtUrl = localGraphics ? null : Utility.getArtUrlForWeatherCondition(context, weatherId);
+        mDateText = Utility.getFriendlyDayString(context, mDate, false);
+        mLongDateText = Utility.getFriendlyDayString(context, mDate, true);
+        mDescription = Utility.getStringForWeatherCondition(context, weatherId);
+        mDescriptionA11y = context.getString(R.string.a11y_forecast, mDescription);
+        mHighText = Utility.formatTemperature(context, days.getMaxTemp(index));
+        mHighA11y = context.getString(R.string.a11y_high_temp, mHighText);
+        mLowText = Utility.formatTemperature(context, days.getMinTemp(index));
+        mLowA11y = context.getString(R.string.a11y_low_temp, mLowText);
+        mTransitionName = "iconView" + mDate;
+    }
+
+    /**
+     * @return the rows for every day of the series, formatted with the current settings
+     */
+    static ForecastRow[] fromSeries(Context context, ForecastSeries days) {
+        boolean localGraphics = Utility.usingLocalGraphics(context);
+        ForecastRow[] rows = new ForecastRow[days.size()];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = new ForecastRow(context, days, i, localGraphics);
+        }
+        return rows;
+    }
+
+    static ForecastRow[] fromCursor(Context context, Cursor cursor) {
+        return fromSeries(context, ForecastSeries.fromCursor(cursor));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ForecastRow)) {
+            return false;
+        }
+        ForecastRow other = (ForecastRow) o;
+        // The accessibility strings and the transition name follow from the rest
+        return mDate == other.mDate
+                && mIconResource == other.mIconResource
+                && mArtResource == other.mArtResource
+                && (mArtUrl == null ? other.mArtUrl == null : mArtUrl.equals(other.mArtUrl))
+                && mDateText.equals(other.mDateText)
+                && mLongDateText.equals(other.mLongDateText)
+                && mDescription.equals(other.mDescription)
+                && mHighText.equals(other.mHighText)
+                && mLowText.equals(other.mLowText);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = (int) (mDate ^ (mDate >>> 32));
+        result = 31 * result + mIconResource;
+        result = 31 * result + mDescription.hashCode();
+        result = 31 * result + mHighText.hashCode();
+        result = 31 * result + mLowText.hashCode();
+        return result;
+    }
+}
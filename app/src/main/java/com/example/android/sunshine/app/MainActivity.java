@@ -18,6 +18,7 @@ package com.example.android.sunshine.app;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.net.Uri;
+import android.os.Build;
 import android.os.Bundle;
 import android.preference.PreferenceManager;
 import android.support.v4.app.ActivityCompat;
@@ -33,6 +34,7 @@ import android.view.View;
 import com.example.android.sunshine.app.data.WeatherContract;
 import com.example.android.sunshine.app.gcm.RegistrationIntentService;
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
+import com.example.android.sunshine.app.sync.SyncScheduler;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.GoogleApiAvailability;
 import com.google.android.gms.common.api.GoogleApiClient;
@@ -149,6 +151,7 @@ public class MainActivity extends AppCompatActivity implements ForecastFragment.
     public void onStart() {
         super.onStart();
         mGoogleApiClient.connect();
+        SyncScheduler.setAppVisible(this, true);
     }
 
     // Send a message when the data layer connection is successful.
@@ -162,6 +165,10 @@ public class MainActivity extends AppCompatActivity implements ForecastFragment.
         if (null != mGoogleApiClient && mGoogleApiClient.isConnected()) {
             mGoogleApiClient.disconnect();
         }
+        // A rotation stops and restarts us straight away; don't reschedule the sync for that.
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB || !isChangingConfigurations()) {
+            SyncScheduler.setAppVisible(this, false);
+        }
         super.onStop();
     }
 
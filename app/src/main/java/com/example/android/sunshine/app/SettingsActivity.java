@@ -152,6 +152,9 @@ public class SettingsActivity extends PreferenceActivity
     // start our synchronization here
     @Override
     public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+        // SharedPreferences runs its listeners in no particular order, so the snapshot's may
+        // not have run yet.  What we trigger below should see the new settings.
+        SettingsSnapshot.reload(this);
         if ( key.equals(getString(R.string.pref_location_key)) ) {
             // we've changed the location
             // Wipe out any potential PlacePicker latlng values so that we can use this text entry.
@@ -165,11 +168,11 @@ public class SettingsActivity extends PreferenceActivity
                 mAttribution.setVisibility(View.GONE);
             }
 
-            Utility.resetLocationStatus(this);
-            SunshineSyncAdapter.syncImmediately(this);
+            SunshineSyncAdapter.onPreferredLocationChanged(this);
         } else if ( key.equals(getString(R.string.pref_units_key)) ) {
             // units have changed. update lists of weather entries accordingly
             getContentResolver().notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
+            getContentResolver().notifyChange(WeatherContract.CurrentEntry.CONTENT_URI, null);
         } else if ( key.equals(getString(R.string.pref_location_status_key)) ) {
             // our location status has changed.  Update the summary accordingly
             Preference locationPreference = findPreference(getString(R.string.pref_location_key));
@@ -177,6 +180,7 @@ public class SettingsActivity extends PreferenceActivity
         } else if ( key.equals(getString(R.string.pref_art_pack_key)) ) {
             // art pack have changed. update lists of weather entries accordingly
             getContentResolver().notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
+            getContentResolver().notifyChange(WeatherContract.CurrentEntry.CONTENT_URI, null);
         }
     }
 
@@ -233,8 +237,7 @@ public class SettingsActivity extends PreferenceActivity
                             Snackbar.LENGTH_LONG).show();
                 }
 
-                Utility.resetLocationStatus(this);
-                SunshineSyncAdapter.syncImmediately(this);
+                SunshineSyncAdapter.onPreferredLocationChanged(this);
             }
         } else {
             super.onActivityResult(requestCode, resultCode, data);
@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+/**
+ * The preferences that {@link Utility} is asked for over and over, by every list row, widget,
+ * watch face update and notification, read once instead of looking up the SharedPreferences
+ * and the preference keys every time.  Immutable: a preference change builds a new snapshot and
+ * swaps it in whole, so a reader never sees, say, the new location with the old coordinates.
+ *
+ * SharedPreferences tells its listeners about changes on the main thread, in no particular
+ * order.  Another listener that reads these settings may run before the snapshot has been
+ * rebuilt, and so may code that writes these preferences from another thread and reads them
+ * back before the main thread gets to run; both should call {@link #reload(Context)} first.
+ */
+public final class SettingsSnapshot {
+    private static final Object sLock = new Object();
+    private static volatile SettingsSnapshot sSnapshot;
+    // SharedPreferences only keeps a weak reference to its listeners.  Guarded by sLock.
+    private static SharedPreferences.OnSharedPreferenceChangeListener sListener;
+
+    private final String mPreferredLocation;
+    private final boolean mMetric;
+    private final String mArtPack;
+    private final boolean mLocalGraphics;
+    private final boolean mLocationLatLonAvailable;
+    private final float mLocationLatitude;
+    private final float mLocationLongitude;
+
+    private SettingsSnapshot(Context context, SharedPreferences prefs) {
+        mPreferredLocation = prefs.getString(context.getString(R.string.pref_location_key),
+                context.getString(R.string.pref_location_default));
+
+        String metric = context.getString(R.string.pref_units_metric);
+        mMetric = prefs.getString(context.getString(R.string.pref_units_key), metric)
+                .equals(metric);
+
+        String sunshineArtPack = context.getString(R.string.pref_art_pack_sunshine);
+        mArtPack = prefs.getString(context.getString(R.string.pref_art_pack_key), sunshineArtPack);
+        mLocalGraphics = mArtPack.equals(sunshineArtPack);
+
+        String latitudeKey = context.getString(R.string.pref_location_latitude);
+        String longitudeKey = context.getString(R.string.pref_location_longitude);
+        mLocationLatLonAvailable = prefs.contains(latitudeKey) && prefs.contains(longitudeKey);
+        mLocationLatitude = prefs.getFloat(latitudeKey, Utility.DEFAULT_LATLONG);
+        mLocationLongitude = prefs.getFloat(longitudeKey, Utility.DEFAULT_LATLONG);
+    }
+
+    /**
+     * @return the current settings.  The first call reads them and starts following changes.
+     */
+    public static SettingsSnapshot get(Context context) {
+        SettingsSnapshot snapshot = sSnapshot;
+        if (snapshot != null) {
+            return snapshot;
+        }
+        synchronized (sLock) {
+            if (sSnapshot == null) {
+                final Context appContext = getApplicationContext(context);
+                SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(appContext);
+                sListener = new SharedPreferences.OnSharedPreferenceChangeListener() {
+                    @Override
+                    public void onSharedPreferenceChanged(SharedPreferences sharedPreferences,
+                                                          String key) {
+                        // Rebuilding is a handful of map lookups, cheaper than working out
+                        // whether the key is one of ours.
+                        synchronized (sLock) {
+                            sSnapshot = new SettingsSnapshot(appContext, sharedPreferences);
+                        }
+                    }
+                };
+                prefs.registerOnSharedPreferenceChangeListener(sListener);
+                sSnapshot = new SettingsSnapshot(appContext, prefs);
+            }
+            return sSnapshot;
+        }
+    }
+
+    /**
+     * Reads the settings again now, rather than once the change listener has run.
+     *
+     * @return the settings as they are stored
+     */
+    public static SettingsSnapshot reload(Context context) {
+        get(context);
+        synchronized (sLock) {
+            Context appContext = getApplicationContext(context);
+            sSnapshot = new SettingsSnapshot(appContext,
+                    PreferenceManager.getDefaultSharedPreferences(appContext));
+            return sSnapshot;
+        }
+    }
+
+    private static Context getApplicationContext(Context context) {
+        Context appContext = context.getApplicationContext();
+        return appContext != null ? appContext : context;
+    }
+
+    public String getPreferredLocation() {
+        return mPreferredLocation;
+    }
+
+    public boolean isMetric() {
+        return mMetric;
+    }
+
+    /**
+     * @return the URL format of the art pack, or that of the local graphics
+     */
+    public String getArtPack() {
+        return mArtPack;
+    }
+
+    public boolean usingLocalGraphics() {
+        return mLocalGraphics;
+    }
+
+    public boolean isLocationLatLonAvailable() {
+        return mLocationLatLonAvailable;
+    }
+
+    public float getLocationLatitude() {
+        return mLocationLatitude;
+    }
+
+    public float getLocationLongitude() {
+        return mLocationLongitude;
+    }
+}
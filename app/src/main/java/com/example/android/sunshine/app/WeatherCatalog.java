@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+
+import com.example.android.sunshine.shared.WeatherConditions;
+
+import java.util.Locale;
+
+/**
+ * The icon, art, description and pictures for each weather condition id, for {@link Utility}.
+ * The ids are sorted into conditions by {@link WeatherConditions}, shared with the watch face;
+ * the resources are looked up in arrays indexed by condition, or by weather id for the
+ * descriptions, which are finer grained.  The art urls of the current art pack are formatted
+ * once, when the art pack is first asked for.
+ */
+final class WeatherCatalog {
+    private static final int NO_RESOURCE = -1;
+
+    // By condition
+    private static final int[] ICONS = {
+            NO_RESOURCE,
+            R.drawable.ic_storm,
+            R.drawable.ic_light_rain,
+            R.drawable.ic_rain,
+            R.drawable.ic_snow,
+            R.drawable.ic_fog,
+            R.drawable.ic_storm,
+            R.drawable.ic_clear,
+            R.drawable.ic_light_clouds,
+            R.drawable.ic_cloudy
+    };
+    private static final int[] ARTS = {
+            NO_RESOURCE,
+            R.drawable.art_storm,
+            R.drawable.art_light_rain,
+            R.drawable.art_rain,
+            R.drawable.art_snow,
+            R.drawable.art_fog,
+            R.drawable.art_storm,
+            R.drawable.art_clear,
+            R.drawable.art_light_clouds,
+            R.drawable.art_clouds
+    };
+    private static final String[] IMAGE_URLS = {
+            null,
+            "http://upload.wikimedia.org/wikipedia/commons/2/28/Thunderstorm_in_Annemasse,_France.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/a/a0/Rain_on_leaf_504605006.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/6/6c/Rain-on-Thassos.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/b/b8/Fresh_snow.JPG",
+            "http://upload.wikimedia.org/wikipedia/commons/e/e6/Westminster_fog_-_London_-_UK.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/d/dc/Raised_dust_ahead_of_a_severe_thunderstorm_1.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/7/7e/A_few_trees_and_the_sun_(6009964513).jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/e/e7/Cloudy_Blue_Sky_(5031259890).jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/5/54/Cloudy_hills_in_Elis,_Greece_2.jpg"
+    };
+
+    // By weather id, 0 where there is no description
+    private static final int[] sDescriptions = new int[WeatherConditions.MAX_WEATHER_ID + 1];
+
+    static {
+        for (int weatherId = 200; weatherId <= 232; weatherId++) {
+            sDescriptions[weatherId] = R.string.condition_2xx;
+        }
+        for (int weatherId = 300; weatherId <= 321; weatherId++) {
+            sDescriptions[weatherId] = R.string.condition_3xx;
+        }
+        sDescriptions[500] = R.string.condition_500;
+        sDescriptions[501] = R.string.condition_501;
+        sDescriptions[502] = R.string.condition_502;
+        sDescriptions[503] = R.string.condition_503;
+        sDescriptions[504] = R.string.condition_504;
+        sDescriptions[511] = R.string.condition_511;
+        sDescriptions[520] = R.string.condition_520;
+        sDescriptions[531] = R.string.condition_531;
+        sDescriptions[600] = R.string.condition_600;
+        sDescriptions[601] = R.string.condition_601;
+        sDescriptions[602] = R.string.condition_602;
+        sDescriptions[611] = R.string.condition_611;
+        sDescriptions[612] = R.string.condition_612;
+        sDescriptions[615] = R.string.condition_615;
+        sDescriptions[616] = R.string.condition_616;
+        sDescriptions[620] = R.string.condition_620;
+        sDescriptions[621] = R.string.condition_621;
+        sDescriptions[622] = R.string.condition_622;
+        sDescriptions[701] = R.string.condition_701;
+        sDescriptions[711] = R.string.condition_711;
+        sDescriptions[721] = R.string.condition_721;
+        sDescriptions[731] = R.string.condition_731;
+        sDescriptions[741] = R.string.condition_741;
+        sDescriptions[751] = R.string.condition_751;
+        sDescriptions[761] = R.string.condition_761;
+        sDescriptions[762] = R.string.condition_762;
+        sDescriptions[771] = R.string.condition_771;
+        sDescriptions[781] = R.string.condition_781;
+        sDescriptions[800] = R.string.condition_800;
+        sDescriptions[801] = R.string.condition_801;
+        sDescriptions[802] = R.string.condition_802;
+        sDescriptions[803] = R.string.condition_803;
+        sDescriptions[804] = R.string.condition_804;
+        sDescriptions[900] = R.string.condition_900;
+        sDescriptions[901] = R.string.condition_901;
+        sDescriptions[902] = R.string.condition_902;
+        sDescriptions[903] = R.string.condition_903;
+        sDescriptions[904] = R.string.condition_904;
+        sDescriptions[905] = R.string.condition_905;
+        sDescriptions[906] = R.string.condition_906;
+        sDescriptions[951] = R.string.condition_951;
+        sDescriptions[952] = R.string.condition_952;
+        sDescriptions[953] = R.string.condition_953;
+        sDescriptions[954] = R.string.condition_954;
+        sDescriptions[955] = R.string.condition_955;
+        sDescriptions[956] = R.string.condition_956;
+        sDescriptions[957] = R.string.condition_957;
+        sDescriptions[958] = R.string.condition_958;
+        sDescriptions[959] = R.string.condition_959;
+        sDescriptions[960] = R.string.condition_960;
+        sDescriptions[961] = R.string.condition_961;
+        sDescriptions[962] = R.string.condition_962;
+    }
+
+    // The art urls of the art pack last asked for, replaced whole when the art pack changes
+    private static volatile ArtUrls sArtUrls;
+
+    private WeatherCatalog() {
+    }
+
+    static int getIconResource(int weatherId) {
+        return ICONS[WeatherConditions.getCondition(weatherId)];
+    }
+
+    static int getArtResource(int weatherId) {
+        return ARTS[WeatherConditions.getCondition(weatherId)];
+    }
+
+    static String getImageUrl(int weatherId) {
+        return IMAGE_URLS[WeatherConditions.getCondition(weatherId)];
+    }
+
+    static String getArtUrl(Context context, int weatherId) {
+        int condition = WeatherConditions.getCondition(weatherId);
+        if (condition == WeatherConditions.CONDITION_UNKNOWN) {
+            return null;
+        }
+        String artPack = Utility.getArtPack(context);
+        ArtUrls artUrls = sArtUrls;
+        // The art pack comes from the settings snapshot, so is the same instance until it changes
+        if (artUrls == null || !artUrls.mArtPack.equals(artPack)) {
+            artUrls = new ArtUrls(artPack);
+            sArtUrls = artUrls;
+        }
+        return artUrls.mUrls[condition];
+    }
+
+    static String getDescription(Context context, int weatherId) {
+        int stringId = weatherId >= 0 && weatherId <= WeatherConditions.MAX_WEATHER_ID
+                ? sDescriptions[weatherId] : 0;
+        if (stringId == 0) {
+            return context.getString(R.string.condition_unknown, weatherId);
+        }
+        return context.getString(stringId);
+    }
+
+    private static final class ArtUrls {
+        final String mArtPack;
+        final String[] mUrls = new String[WeatherConditions.CONDITION_COUNT];
+
+        ArtUrls(String artPack) {
+            mArtPack = artPack;
+            for (int condition = 0; condition < mUrls.length; condition++) {
+                String artName = WeatherConditions.getArtName(condition);
+                if (artName != null) {
+                    mUrls[condition] = String.format(Locale.US, artPack, artName);
+                }
+            }
+        }
+    }
+}
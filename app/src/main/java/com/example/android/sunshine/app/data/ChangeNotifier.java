@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Sends the provider's change notifications.  Rather than going out straight away, the changes
+ * of a burst are collected for a short window after the first one and then sent together, so
+ * that a burst of writes wakes each observer once.
+ *
+ * The uris are kept as narrow as they can be, so an observer of one location's weather isn't
+ * woken by another location's.  When the window closes, a uri whose ancestor is also pending is
+ * dropped, and several days of one location are sent as that location's uri.
+ */
+class ChangeNotifier {
+    // The fewest path segments of a uri for one row, e.g. weather/94043/1419033600000.  Pending
+    // siblings at this depth are sent as their parent; shallower ones never are, as that would
+    // wake the observers of every location.
+    private static final int MIN_COLLAPSE_SEGMENTS = 3;
+
+    private final ContentResolver mResolver;
+    private final Handler mHandler;
+
+    private final Object mLock = new Object();
+    // Guarded by mLock
+    private final Set<Uri> mPending = new LinkedHashSet<Uri>();
+    private long mWindowMillis;
+    private boolean mScheduled;
+
+    private final Runnable mFlush = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    /**
+     * @param windowMillis how long changes are collected for; 0 sends each one straight away
+     */
+    ChangeNotifier(ContentResolver resolver, long windowMillis) {
+        mResolver = resolver;
+        mWindowMillis = windowMillis;
+        mHandler = new Handler(Looper.getMainLooper());
+    }
+
+    void setWindowMillis(long windowMillis) {
+        synchronized (mLock) {
+            mWindowMillis = windowMillis;
+        }
+        if (windowMillis <= 0) {
+            flush();
+        }
+    }
+
+    /**
+     * Queues a notification for uri, to go out when the window closes.
+     */
+    void notifyChange(Uri uri) {
+        synchronized (mLock) {
+            if (mWindowMillis > 0) {
+                mPending.add(uri);
+                if (!mScheduled) {
+                    mScheduled = true;
+                    mHandler.postDelayed(mFlush, mWindowMillis);
+                }
+                return;
+            }
+        }
+        mResolver.notifyChange(uri, null);
+    }
+
+    /**
+     * Sends whatever is pending now.
+     */
+    void flush() {
+        List<Uri> uris;
+        synchronized (mLock) {
+            mHandler.removeCallbacks(mFlush);
+            mScheduled = false;
+            if (mPending.isEmpty()) {
+                return;
+            }
+            uris = coalesce(mPending);
+            mPending.clear();
+        }
+        for (Uri uri : uris) {
+            mResolver.notifyChange(uri, null);
+        }
+    }
+
+    /**
+     * @return the uris to notify so that every observer of the given ones hears about them,
+     * in the order they were given
+     */
+    static List<Uri> coalesce(Collection<Uri> uris) {
+        // Several rows under one parent become the parent.
+        Map<Uri, Integer> siblings = new HashMap<Uri, Integer>();
+        for (Uri uri : uris) {
+            Uri parent = getParent(uri);
+            if (parent != null) {
+                Integer count = siblings.get(parent);
+                siblings.put(parent, count == null ? 1 : count + 1);
+            }
+        }
+        Set<Uri> collapsed = new LinkedHashSet<Uri>();
+        for (Uri uri : uris) {
+            Uri parent = getParent(uri);
+            if (parent != null && siblings.get(parent) > 1) {
+                collapsed.add(parent);
+            } else {
+                collapsed.add(uri);
+            }
+        }
+
+        // Observers are told about changes below the uri they watch, so a uri under another
+        // pending one is already covered.
+        List<Uri> result = new ArrayList<Uri>(collapsed.size());
+        for (Uri uri : collapsed) {
+            boolean covered = false;
+            for (Uri other : collapsed) {
+                if (isAncestor(other, uri)) {
+                    covered = true;
+                    break;
+                }
+            }
+            if (!covered) {
+                result.add(uri);
+            }
+        }
+        return result;
+    }
+
+    private static Uri getParent(Uri uri) {
+        List<String> segments = uri.getPathSegments();
+        if (segments.size() < MIN_COLLAPSE_SEGMENTS) {
+            return null;
+        }
+        Uri.Builder builder = new Uri.Builder().scheme(uri.getScheme())
+                .authority(uri.getAuthority());
+        for (int i = 0; i < segments.size() - 1; i++) {
+            builder.appendPath(segments.get(i));
+        }
+        return builder.build();
+    }
+
+    private static boolean isAncestor(Uri ancestor, Uri uri) {
+        if (!ancestor.getAuthority().equals(uri.getAuthority())) {
+            return false;
+        }
+        List<String> ancestorSegments = ancestor.getPathSegments();
+        List<String> segments = uri.getPathSegments();
+        return ancestorSegments.size() < segments.size()
+                && ancestorSegments.equals(segments.subList(0, ancestorSegments.size()));
+    }
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+
+import java.util.Arrays;
+
+/**
+ * Days of weather, kept column by column in primitive arrays, so that moving them around doesn't
+ * box every value into a ContentValues or keep a Cursor open.  Days parsed by the sync adapter
+ * are handed to the provider as one, through
+ * {@link WeatherProvider#applyForecasts(java.util.ArrayList, int[], ForecastSeries[])}, when it
+ * runs in the same process; otherwise they go in day by day, from {@link #getContentValues(int)}.
+ * Query results can be read into one with {@link #readFrom(Cursor)} for the UI to bind from.
+ *
+ * A series read again reuses its arrays, so refreshing one every time its query does allocates
+ * nothing once it has grown to size.  Not thread safe.
+ */
+public final class ForecastSeries {
+    // The columns readFrom() reads and toCursor() writes
+    public static final String[] COLUMNS = {
+            WeatherContract.WeatherEntry._ID,
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+            WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+            WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherContract.WeatherEntry.COLUMN_DEGREES
+    };
+
+    private int mSize;
+
+    // _IDs of days read from the provider; 0 for days added to be stored
+    long[] mIds;
+    long[] mDates;
+    int[] mWeatherIds;
+    String[] mShortDescs;
+    double[] mMinTemps;
+    double[] mMaxTemps;
+    double[] mHumidities;
+    double[] mPressures;
+    double[] mWindSpeeds;
+    double[] mDegrees;
+
+    public ForecastSeries(int capacity) {
+        capacity = Math.max(capacity, 1);
+        mIds = new long[capacity];
+        mDates = new long[capacity];
+        mWeatherIds = new int[capacity];
+        mShortDescs = new String[capacity];
+        mMinTemps = new double[capacity];
+        mMaxTemps = new double[capacity];
+        mHumidities = new double[capacity];
+        mPressures = new double[capacity];
+        mWindSpeeds = new double[capacity];
+        mDegrees = new double[capacity];
+    }
+
+    /**
+     * @return a new series holding the rows of cursor
+     */
+    public static ForecastSeries fromCursor(Cursor cursor) {
+        ForecastSeries series = new ForecastSeries(cursor.getCount());
+        series.readFrom(cursor);
+        return series;
+    }
+
+    /**
+     * Adds a day.  The date doesn't need to be normalized, the provider does that.
+     */
+    public void add(long date, int weatherId, String shortDesc, double minTemp, double maxTemp,
+                    double humidity, double pressure, double windSpeed, double degrees) {
+        if (shortDesc == null) {
+            throw new IllegalArgumentException("Weather description is required");
+        }
+        ensureCapacity(mSize + 1);
+        mIds[mSize] = 0;
+        mDates[mSize] = date;
+        mWeatherIds[mSize] = weatherId;
+        mShortDescs[mSize] = shortDesc;
+        mMinTemps[mSize] = minTemp;
+        mMaxTemps[mSize] = maxTemp;
+        mHumidities[mSize] = humidity;
+        mPressures[mSize] = pressure;
+        mWindSpeeds[mSize] = windSpeed;
+        mDegrees[mSize] = degrees;
+        mSize++;
+    }
+
+    /**
+     * Replaces the days with the rows of cursor.  Columns of {@link #COLUMNS} the cursor doesn't
+     * have read as 0, or null for the description.  The cursor is left where it was.
+     */
+    public void readFrom(Cursor cursor) {
+        clear();
+        int count = cursor.getCount();
+        ensureCapacity(count);
+
+        int idIndex = cursor.getColumnIndex(WeatherContract.WeatherEntry._ID);
+        int dateIndex = cursor.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_DATE);
+        int weatherIdIndex = cursor.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID);
+        int shortDescIndex = cursor.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC);
+        int minTempIndex = cursor.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP);
+        int maxTempIndex = cursor.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP);
+        int humidityIndex = cursor.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_HUMIDITY);
+        int pressureIndex = cursor.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_PRESSURE);
+        int windSpeedIndex = cursor.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED);
+        int degreesIndex = cursor.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_DEGREES);
+
+        int position = cursor.getPosition();
+        for (int i = 0; i < count && cursor.moveToPosition(i); i++) {
+            mIds[i] = idIndex == -1 ? 0 : cursor.getLong(idIndex);
+            mDates[i] = dateIndex == -1 ? 0 : cursor.getLong(dateIndex);
+            mWeatherIds[i] = weatherIdIndex == -1 ? 0 : cursor.getInt(weatherIdIndex);
+            mShortDescs[i] = shortDescIndex == -1 ? null : cursor.getString(shortDescIndex);
+            mMinTemps[i] = minTempIndex == -1 ? 0 : cursor.getDouble(minTempIndex);
+            mMaxTemps[i] = maxTempIndex == -1 ? 0 : cursor.getDouble(maxTempIndex);
+            mHumidities[i] = humidityIndex == -1 ? 0 : cursor.getDouble(humidityIndex);
+            mPressures[i] = pressureIndex == -1 ? 0 : cursor.getDouble(pressureIndex);
+            mWindSpeeds[i] = windSpeedIndex == -1 ? 0 : cursor.getDouble(windSpeedIndex);
+            mDegrees[i] = degreesIndex == -1 ? 0 : cursor.getDouble(degreesIndex);
+            mSize++;
+        }
+        cursor.moveToPosition(position);
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public void clear() {
+        Arrays.fill(mShortDescs, 0, mSize, null);
+        mSize = 0;
+    }
+
+    public long getId(int index) {
+        return mIds[index];
+    }
+
+    public long getDate(int index) {
+        return mDates[index];
+    }
+
+    public int getWeatherId(int index) {
+        return mWeatherIds[index];
+    }
+
+    public String getShortDesc(int index) {
+        return mShortDescs[index];
+    }
+
+    public double getMinTemp(int index) {
+        return mMinTemps[index];
+    }
+
+    public double getMaxTemp(int index) {
+        return mMaxTemps[index];
+    }
+
+    public double getHumidity(int index) {
+        return mHumidities[index];
+    }
+
+    public double getPressure(int index) {
+        return mPressures[index];
+    }
+
+    public double getWindSpeed(int index) {
+        return mWindSpeeds[index];
+    }
+
+    public double getDegrees(int index) {
+        return mDegrees[index];
+    }
+
+    /**
+     * Converts the series for code that still takes a Cursor, with the columns of
+     * {@link #COLUMNS}.
+     */
+    public Cursor toCursor() {
+        MatrixCursor cursor = new MatrixCursor(COLUMNS, mSize);
+        for (int i = 0; i < mSize; i++) {
+            cursor.newRow()
+                    .add(mIds[i])
+                    .add(mDates[i])
+                    .add(mWeatherIds[i])
+                    .add(mShortDescs[i])
+                    .add(mMinTemps[i])
+                    .add(mMaxTemps[i])
+                    .add(mHumidities[i])
+                    .add(mPressures[i])
+                    .add(mWindSpeeds[i])
+                    .add(mDegrees[i]);
+        }
+        return cursor;
+    }
+
+    /**
+     * @return one day, without the location, which the caller has to add; for callers that can
+     * only reach the provider through a ContentResolver
+     */
+    public ContentValues getContentValues(int index) {
+        ContentValues weatherValues = new ContentValues();
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, mDates[index]);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, mHumidities[index]);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, mPressures[index]);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, mWindSpeeds[index]);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, mDegrees[index]);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, mMaxTemps[index]);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, mMinTemps[index]);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, mShortDescs[index]);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, mWeatherIds[index]);
+        return weatherValues;
+    }
+
+    private void ensureCapacity(int size) {
+        if (size <= mDates.length) {
+            return;
+        }
+        int capacity = Math.max(size, mDates.length * 2);
+        mIds = Arrays.copyOf(mIds, capacity);
+        mDates = Arrays.copyOf(mDates, capacity);
+        mWeatherIds = Arrays.copyOf(mWeatherIds, capacity);
+        mShortDescs = Arrays.copyOf(mShortDescs, capacity);
+        mMinTemps = Arrays.copyOf(mMinTemps, capacity);
+        mMaxTemps = Arrays.copyOf(mMaxTemps, capacity);
+        mHumidities = Arrays.copyOf(mHumidities, capacity);
+        mPressures = Arrays.copyOf(mPressures, capacity);
+        mWindSpeeds = Arrays.copyOf(mWindSpeeds, capacity);
+        mDegrees = Arrays.copyOf(mDegrees, capacity);
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.support.v4.util.LongSparseArray;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The _IDs of the stored locations by location setting, and the other way round, so the provider
+ * doesn't have to look a location up every time it writes a day of weather for it.
+ *
+ * Only committed rows go in.  Locations are never renumbered or renamed by the sync, so entries
+ * stay good until a location is updated or deleted, which clears the lot.  Thread safe.
+ */
+class LocationRegistry {
+    private final Map<String, Long> mIds = new HashMap<String, Long>();
+    private final LongSparseArray<String> mSettings = new LongSparseArray<String>();
+    // Bumped by every clear(), so that a lookup read before a write commits but only stored
+    // afterwards is thrown away.
+    private long mGeneration;
+
+    /**
+     * @return the _ID of the location, or -1 if it isn't known
+     */
+    synchronized long getId(String locationSetting) {
+        Long id = mIds.get(locationSetting);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * @return the setting of the location, or null if it isn't known
+     */
+    synchronized String getSetting(long locationId) {
+        return mSettings.get(locationId);
+    }
+
+    /**
+     * @return the value to hand to put() along with what a lookup about to be run finds
+     */
+    synchronized long getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Remembers a location that was looked up, unless the registry was cleared since generation
+     * was taken.
+     */
+    synchronized void put(String locationSetting, long locationId, long generation) {
+        if (generation == mGeneration) {
+            mIds.put(locationSetting, locationId);
+            mSettings.put(locationId, locationSetting);
+        }
+    }
+
+    /**
+     * Forgets every location.  Must be called by a write that changes or removes locations
+     * before it commits; a lookup running after that waits for the commit or the rollback, and
+     * either way finds what is stored.
+     */
+    synchronized void clear() {
+        mGeneration++;
+        mIds.clear();
+        mSettings.clear();
+    }
+}
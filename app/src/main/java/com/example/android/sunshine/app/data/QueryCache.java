@@ -0,0 +1,314 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.annotation.TargetApi;
+import android.database.AbstractCursor;
+import android.database.CrossProcessCursor;
+import android.database.Cursor;
+import android.database.CursorWindow;
+import android.net.Uri;
+import android.os.Build;
+import android.support.v4.util.LruCache;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the results of the provider's most recent queries, so that the same query asked again
+ * (the forecast list, the widgets and the watch face all ask for the same few) doesn't go back
+ * to SQLite.  A result is copied into a CursorWindow once and every hit gets its own cursor over
+ * that window, so callers can move and close their cursors independently.
+ *
+ * The provider invalidates results with the same uris it notifies observers with, once the write
+ * has committed.  A result is dropped if its uri is the changed uri, is above it or is below it,
+ * so a change to one day of one location leaves the other locations' results alone.
+ */
+class QueryCache {
+    // Changing a location changes every result joined with it.
+    private static final String[] LOCATION_DEPENDENT_PATHS = {
+            WeatherContract.PATH_WEATHER,
+            WeatherContract.PATH_HISTORY
+    };
+
+    private final Object mLock = new Object();
+    // Guarded by mLock, as is the reference each entry holds on its window.
+    private final LruCache<Key, Entry> mEntries;
+    // Bumped by every invalidation, so that a result read before a write commits but only
+    // stored afterwards is thrown away instead of cached.
+    private long mGeneration;
+
+    /**
+     * @param maxEntries how many results are kept at most
+     */
+    QueryCache(int maxEntries) {
+        mEntries = new LruCache<Key, Entry>(maxEntries) {
+            @Override
+            protected void entryRemoved(boolean evicted, Key key, Entry oldValue, Entry newValue) {
+                oldValue.mWindow.close();
+            }
+        };
+    }
+
+    /**
+     * @return a new cursor over the cached result of the query, or null if it isn't cached
+     */
+    Cursor get(Key key) {
+        synchronized (mLock) {
+            Entry entry = mEntries.get(key);
+            return entry == null ? null : new WindowCursor(entry.mColumnNames, entry.mWindow);
+        }
+    }
+
+    /**
+     * @return the value to hand to put() along with the result of the query about to be run
+     */
+    long getGeneration() {
+        synchronized (mLock) {
+            return mGeneration;
+        }
+    }
+
+    /**
+     * Caches the result of a query, unless something was invalidated since generation was
+     * taken or the result doesn't fit in a window.
+     *
+     * @return a cursor over the cached copy, in which case the one passed in has been closed;
+     * otherwise the cursor passed in
+     */
+    Cursor put(Key key, Uri uri, Cursor cursor, long generation) {
+        if (!(cursor instanceof CrossProcessCursor)) {
+            return cursor;
+        }
+        CursorWindow window = newWindow(uri.toString());
+        ((CrossProcessCursor) cursor).fillWindow(0, window);
+        if (window.getStartPosition() != 0 || window.getNumRows() != cursor.getCount()) {
+            window.close();
+            return cursor;
+        }
+        Entry entry = new Entry(uri, cursor.getColumnNames(), window);
+        synchronized (mLock) {
+            if (generation != mGeneration) {
+                window.close();
+                return cursor;
+            }
+            mEntries.put(key, entry);
+            cursor.close();
+            return new WindowCursor(entry.mColumnNames, window);
+        }
+    }
+
+    /**
+     * Drops every result that a change to uri may have made out of date.  Must be called after
+     * the change has committed.
+     */
+    void invalidate(Uri uri) {
+        synchronized (mLock) {
+            mGeneration++;
+            for (Map.Entry<Key, Entry> entry : mEntries.snapshot().entrySet()) {
+                if (isAffectedBy(entry.getValue().mUri, uri)) {
+                    mEntries.remove(entry.getKey());
+                }
+            }
+        }
+    }
+
+    void clear() {
+        synchronized (mLock) {
+            mGeneration++;
+            mEntries.evictAll();
+        }
+    }
+
+    int getHitCount() {
+        return mEntries.hitCount();
+    }
+
+    int getMissCount() {
+        return mEntries.missCount();
+    }
+
+    /**
+     * @return whether the result of a query on cachedUri may change when changedUri does
+     */
+    static boolean isAffectedBy(Uri cachedUri, Uri changedUri) {
+        if (!cachedUri.getAuthority().equals(changedUri.getAuthority())) {
+            return false;
+        }
+        List<String> cached = cachedUri.getPathSegments();
+        List<String> changed = changedUri.getPathSegments();
+        if (!cached.isEmpty() && changed.size() == 1
+                && changed.get(0).equals(WeatherContract.PATH_LOCATION)) {
+            for (String path : LOCATION_DEPENDENT_PATHS) {
+                if (path.equals(cached.get(0))) {
+                    return true;
+                }
+            }
+        }
+        int common = Math.min(cached.size(), changed.size());
+        return cached.subList(0, common).equals(changed.subList(0, common));
+    }
+
+    @SuppressWarnings("deprecation")
+    private static CursorWindow newWindow(String name) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH_MR1) {
+            return new CursorWindow(name);
+        }
+        return new CursorWindow(false);
+    }
+
+    /**
+     * What a query is cached by: everything that was passed to query().
+     */
+    static final class Key {
+        private final Uri mUri;
+        private final String[] mProjection;
+        private final String mSelection;
+        private final String[] mSelectionArgs;
+        private final String mSortOrder;
+        private final int mHashCode;
+
+        Key(Uri uri, String[] projection, String selection, String[] selectionArgs,
+            String sortOrder) {
+            mUri = uri;
+            mProjection = projection;
+            mSelection = selection;
+            mSelectionArgs = selectionArgs;
+            mSortOrder = sortOrder;
+            mHashCode = Arrays.hashCode(new Object[]{uri, Arrays.hashCode(projection), selection,
+                    Arrays.hashCode(selectionArgs), sortOrder});
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return mHashCode == other.mHashCode
+                    && mUri.equals(other.mUri)
+                    && Arrays.equals(mProjection, other.mProjection)
+                    && equal(mSelection, other.mSelection)
+                    && Arrays.equals(mSelectionArgs, other.mSelectionArgs)
+                    && equal(mSortOrder, other.mSortOrder);
+        }
+
+        @Override
+        public int hashCode() {
+            return mHashCode;
+        }
+
+        private static boolean equal(String a, String b) {
+            return a == null ? b == null : a.equals(b);
+        }
+    }
+
+    private static final class Entry {
+        final Uri mUri;
+        final String[] mColumnNames;
+        final CursorWindow mWindow;
+
+        Entry(Uri uri, String[] columnNames, CursorWindow window) {
+            mUri = uri;
+            mColumnNames = columnNames;
+            mWindow = window;
+        }
+    }
+
+    /**
+     * A read-only cursor over a cached window.  Each one holds a reference on the window, so the
+     * window outlives its eviction for as long as any cursor over it is open.
+     */
+    private static final class WindowCursor extends AbstractCursor {
+        private final String[] mColumnNames;
+        private final CursorWindow mWindow;
+
+        WindowCursor(String[] columnNames, CursorWindow window) {
+            mColumnNames = columnNames;
+            mWindow = window;
+            window.acquireReference();
+        }
+
+        @Override
+        public int getCount() {
+            return mWindow.getNumRows();
+        }
+
+        @Override
+        public String[] getColumnNames() {
+            return mColumnNames;
+        }
+
+        @Override
+        public String getString(int column) {
+            return mWindow.getString(mPos, column);
+        }
+
+        @Override
+        public short getShort(int column) {
+            return mWindow.getShort(mPos, column);
+        }
+
+        @Override
+        public int getInt(int column) {
+            return mWindow.getInt(mPos, column);
+        }
+
+        @Override
+        public long getLong(int column) {
+            return mWindow.getLong(mPos, column);
+        }
+
+        @Override
+        public float getFloat(int column) {
+            return mWindow.getFloat(mPos, column);
+        }
+
+        @Override
+        public double getDouble(int column) {
+            return mWindow.getDouble(mPos, column);
+        }
+
+        @Override
+        public byte[] getBlob(int column) {
+            return mWindow.getBlob(mPos, column);
+        }
+
+        @Override
+        @SuppressWarnings("deprecation")
+        public boolean isNull(int column) {
+            return mWindow.isNull(mPos, column);
+        }
+
+        @Override
+        @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+        public int getType(int column) {
+            return mWindow.getType(mPos, column);
+        }
+
+        @Override
+        public void close() {
+            if (!isClosed()) {
+                super.close();
+                mWindow.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,342 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.text.format.DateUtils;
+
+import com.example.android.sunshine.app.data.WeatherContract.HistoryEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * Moves past days from the weather table into the history table, and keeps the history within
+ * its retention policy: daily rows for the months that overlap the last mDailyRetentionDays,
+ * weekly rows before that, and nothing for months that ended more than mWeeklyRetentionDays
+ * ago.  Retention always works on whole months, which the history table is indexed by.
+ *
+ * Everything here must be called inside a write transaction.
+ */
+class WeatherArchive {
+    private static final String[] WEATHER_PROJECTION = {
+            WeatherEntry.COLUMN_LOC_KEY,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES
+    };
+
+    // these indices must match the projection
+    private static final int INDEX_LOC_KEY = 0;
+    private static final int INDEX_DATE = 1;
+    private static final int INDEX_WEATHER_ID = 2;
+    private static final int INDEX_SHORT_DESC = 3;
+    private static final int INDEX_MIN_TEMP = 4;
+    private static final int INDEX_MAX_TEMP = 5;
+    private static final int INDEX_HUMIDITY = 6;
+    private static final int INDEX_PRESSURE = 7;
+    private static final int INDEX_WIND_SPEED = 8;
+    private static final int INDEX_DEGREES = 9;
+
+    // The same columns, followed by the number of days each history row covers.
+    private static final String[] HISTORY_PROJECTION = {
+            HistoryEntry.COLUMN_LOC_KEY,
+            HistoryEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES,
+            HistoryEntry.COLUMN_DAYS
+    };
+
+    private static final int INDEX_DAYS = 10;
+
+    // A day or a week of history.  A row for the same location, first day and period replaces
+    // the one that is there.
+    private static final String SQL_INSERT_HISTORY = "INSERT OR REPLACE INTO " +
+            HistoryEntry.TABLE_NAME + " (" +
+            HistoryEntry.COLUMN_LOC_KEY + ", " +
+            HistoryEntry.COLUMN_MONTH + ", " +
+            HistoryEntry.COLUMN_DATE + ", " +
+            HistoryEntry.COLUMN_DAYS + ", " +
+            HistoryEntry.COLUMN_PERIOD + ", " +
+            WeatherEntry.COLUMN_WEATHER_ID + ", " +
+            WeatherEntry.COLUMN_SHORT_DESC + ", " +
+            WeatherEntry.COLUMN_MIN_TEMP + ", " +
+            WeatherEntry.COLUMN_MAX_TEMP + ", " +
+            WeatherEntry.COLUMN_HUMIDITY + ", " +
+            WeatherEntry.COLUMN_PRESSURE + ", " +
+            WeatherEntry.COLUMN_WIND_SPEED + ", " +
+            WeatherEntry.COLUMN_DEGREES +
+            ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private final int mDailyRetentionDays;
+    private final int mWeeklyRetentionDays;
+
+    /**
+     * @param dailyRetentionDays how long days are kept one row per day
+     * @param weeklyRetentionDays how long history is kept at all; 0 keeps it forever
+     */
+    WeatherArchive(int dailyRetentionDays, int weeklyRetentionDays) {
+        mDailyRetentionDays = dailyRetentionDays;
+        mWeeklyRetentionDays = weeklyRetentionDays;
+    }
+
+    /**
+     * Copies the weather rows that match the selection into the history, one row per day.  The
+     * caller deletes them from the weather table afterwards.
+     *
+     * @return the number of days copied
+     */
+    int archive(SQLiteDatabase db, String selection, String[] selectionArgs, TimeZone timeZone) {
+        Cursor cursor = db.query(WeatherEntry.TABLE_NAME, WEATHER_PROJECTION, selection,
+                selectionArgs, null, null, null);
+        if (cursor.getCount() == 0) {
+            cursor.close();
+            return 0;
+        }
+        Calendar calendar = Calendar.getInstance(timeZone);
+        SQLiteStatement insert = db.compileStatement(SQL_INSERT_HISTORY);
+        int archived = 0;
+        try {
+            while (cursor.moveToNext()) {
+                long date = cursor.getLong(INDEX_DATE);
+                insert.bindLong(1, cursor.getLong(INDEX_LOC_KEY));
+                insert.bindLong(2, getMonth(calendar, date));
+                insert.bindLong(3, date);
+                insert.bindLong(4, 1);
+                insert.bindLong(5, HistoryEntry.PERIOD_DAY);
+                insert.bindLong(6, cursor.getInt(INDEX_WEATHER_ID));
+                insert.bindString(7, cursor.getString(INDEX_SHORT_DESC));
+                insert.bindDouble(8, cursor.getDouble(INDEX_MIN_TEMP));
+                insert.bindDouble(9, cursor.getDouble(INDEX_MAX_TEMP));
+                insert.bindDouble(10, cursor.getDouble(INDEX_HUMIDITY));
+                insert.bindDouble(11, cursor.getDouble(INDEX_PRESSURE));
+                insert.bindDouble(12, cursor.getDouble(INDEX_WIND_SPEED));
+                insert.bindDouble(13, cursor.getDouble(INDEX_DEGREES));
+                insert.executeInsert();
+                archived++;
+            }
+        } finally {
+            insert.close();
+            cursor.close();
+        }
+        return archived;
+    }
+
+    /**
+     * Downsamples the months that fell out of the daily retention to weeks, and drops the
+     * months that fell out of the history altogether.
+     *
+     * @return whether the history changed
+     */
+    boolean applyRetention(SQLiteDatabase db, long now, TimeZone timeZone) {
+        Calendar calendar = Calendar.getInstance(timeZone);
+        boolean changed = false;
+
+        int dailyCutoff = getMonth(calendar, now - mDailyRetentionDays * DateUtils.DAY_IN_MILLIS);
+        Cursor months = db.query(true, HistoryEntry.TABLE_NAME,
+                new String[]{HistoryEntry.COLUMN_LOC_KEY, HistoryEntry.COLUMN_MONTH},
+                HistoryEntry.COLUMN_PERIOD + " = ? AND " + HistoryEntry.COLUMN_MONTH + " < ?",
+                new String[]{Integer.toString(HistoryEntry.PERIOD_DAY), Integer.toString(dailyCutoff)},
+                null, null, null, null);
+        try {
+            while (months.moveToNext()) {
+                downsampleMonth(db, months.getLong(0), months.getInt(1), calendar);
+                changed = true;
+            }
+        } finally {
+            months.close();
+        }
+
+        if (mWeeklyRetentionDays > 0) {
+            int cutoff = getMonth(calendar, now - mWeeklyRetentionDays * DateUtils.DAY_IN_MILLIS);
+            changed |= db.delete(HistoryEntry.TABLE_NAME,
+                    HistoryEntry.COLUMN_PERIOD + " IN (?, ?) AND " + HistoryEntry.COLUMN_MONTH + " < ?",
+                    new String[]{Integer.toString(HistoryEntry.PERIOD_DAY),
+                            Integer.toString(HistoryEntry.PERIOD_WEEK), Integer.toString(cutoff)}) > 0;
+        }
+        return changed;
+    }
+
+    /**
+     * Replaces one location's month of history with one row per week of the month.  Weeks that
+     * were already downsampled are folded in, weighted by the days they cover, so a day that
+     * arrives late doesn't overwrite its week.
+     */
+    private static void downsampleMonth(SQLiteDatabase db, long locationId, int month,
+                                        Calendar calendar) {
+        String selection = HistoryEntry.COLUMN_LOC_KEY + " = ? AND " +
+                HistoryEntry.COLUMN_MONTH + " = ?";
+        String[] selectionArgs = new String[]{Long.toString(locationId), Integer.toString(month)};
+
+        List<Week> weeks = new ArrayList<Week>();
+        Map<Long, Week> weeksByDate = new HashMap<Long, Week>();
+        Cursor cursor = db.query(HistoryEntry.TABLE_NAME, HISTORY_PROJECTION, selection,
+                selectionArgs, null, null, HistoryEntry.COLUMN_DATE + " ASC");
+        try {
+            while (cursor.moveToNext()) {
+                long weekDate = getWeekDate(calendar, cursor.getLong(INDEX_DATE));
+                Week week = weeksByDate.get(weekDate);
+                if (week == null) {
+                    week = new Week(weekDate);
+                    weeksByDate.put(weekDate, week);
+                    weeks.add(week);
+                }
+                week.add(cursor.getInt(INDEX_DAYS),
+                        cursor.getInt(INDEX_WEATHER_ID),
+                        cursor.getString(INDEX_SHORT_DESC),
+                        cursor.getDouble(INDEX_MIN_TEMP),
+                        cursor.getDouble(INDEX_MAX_TEMP),
+                        cursor.getDouble(INDEX_HUMIDITY),
+                        cursor.getDouble(INDEX_PRESSURE),
+                        cursor.getDouble(INDEX_WIND_SPEED),
+                        cursor.getDouble(INDEX_DEGREES));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        db.delete(HistoryEntry.TABLE_NAME, selection, selectionArgs);
+        SQLiteStatement insert = db.compileStatement(SQL_INSERT_HISTORY);
+        try {
+            for (Week week : weeks) {
+                insert.bindLong(1, locationId);
+                insert.bindLong(2, month);
+                insert.bindLong(3, week.mDate);
+                insert.bindLong(4, week.mDays);
+                insert.bindLong(5, HistoryEntry.PERIOD_WEEK);
+                insert.bindLong(6, week.getWeatherId());
+                insert.bindString(7, week.getShortDesc());
+                insert.bindDouble(8, week.mMinTemp);
+                insert.bindDouble(9, week.mMaxTemp);
+                insert.bindDouble(10, week.mHumidity / week.mDays);
+                insert.bindDouble(11, week.mPressure / week.mDays);
+                insert.bindDouble(12, week.mWindSpeed / week.mDays);
+                insert.bindDouble(13, week.getDegrees());
+                insert.executeInsert();
+            }
+        } finally {
+            insert.close();
+        }
+    }
+
+    /**
+     * @return the month date falls in, as year * 100 + month
+     */
+    static int getMonth(Calendar calendar, long date) {
+        calendar.setTimeInMillis(date);
+        return calendar.get(Calendar.YEAR) * 100 + calendar.get(Calendar.MONTH) + 1;
+    }
+
+    /**
+     * @return the first day of the week of the month date falls in: the 1st, 8th, 15th, 22nd
+     * or 29th
+     */
+    static long getWeekDate(Calendar calendar, long date) {
+        calendar.setTimeInMillis(date);
+        int dayOfMonth = calendar.get(Calendar.DAY_OF_MONTH);
+        calendar.set(Calendar.DAY_OF_MONTH, (dayOfMonth - 1) / 7 * 7 + 1);
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        return calendar.getTimeInMillis();
+    }
+
+    /**
+     * The days of one week, being added up.  The averaged columns are kept as sums weighted by
+     * days.  Wind direction wraps around at north, so it is summed as a unit vector instead.
+     */
+    private static final class Week {
+        final long mDate;
+        int mDays;
+        double mMinTemp = Double.MAX_VALUE;
+        double mMaxTemp = -Double.MAX_VALUE;
+        double mHumidity;
+        double mPressure;
+        double mWindSpeed;
+        double mDegreesSin;
+        double mDegreesCos;
+        // Days per weather id, and a description for each, to find the most common weather
+        final Map<Integer, Integer> mWeatherDays = new HashMap<Integer, Integer>();
+        final Map<Integer, String> mShortDescs = new HashMap<Integer, String>();
+
+        Week(long date) {
+            mDate = date;
+        }
+
+        void add(int days, int weatherId, String shortDesc, double minTemp, double maxTemp,
+                 double humidity, double pressure, double windSpeed, double degrees) {
+            mDays += days;
+            mMinTemp = Math.min(mMinTemp, minTemp);
+            mMaxTemp = Math.max(mMaxTemp, maxTemp);
+            mHumidity += humidity * days;
+            mPressure += pressure * days;
+            mWindSpeed += windSpeed * days;
+            double radians = Math.toRadians(degrees);
+            mDegreesSin += Math.sin(radians) * days;
+            mDegreesCos += Math.cos(radians) * days;
+            Integer weatherDays = mWeatherDays.get(weatherId);
+            mWeatherDays.put(weatherId, weatherDays == null ? days : weatherDays + days);
+            if (!mShortDescs.containsKey(weatherId)) {
+                mShortDescs.put(weatherId, shortDesc);
+            }
+        }
+
+        /**
+         * @return the average wind direction, from 0 up to 360 degrees
+         */
+        double getDegrees() {
+            return (Math.toDegrees(Math.atan2(mDegreesSin, mDegreesCos)) + 360) % 360;
+        }
+
+        int getWeatherId() {
+            int weatherId = 0;
+            int mostDays = 0;
+            for (Map.Entry<Integer, Integer> entry : mWeatherDays.entrySet()) {
+                // Ties go to the lower id, so the result doesn't depend on map order
+                if (entry.getValue() > mostDays
+                        || (entry.getValue() == mostDays && entry.getKey() < weatherId)) {
+                    weatherId = entry.getKey();
+                    mostDays = entry.getValue();
+                }
+            }
+            return weatherId;
+        }
+
+        String getShortDesc() {
+            return mShortDescs.get(getWeatherId());
+        }
+    }
+}
@@ -19,7 +19,9 @@ import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.net.Uri;
 import android.provider.BaseColumns;
-import android.text.format.Time;
+import android.text.format.DateUtils;
+
+import java.util.TimeZone;
 
 /**
  * Defines table and column names for the weather database.
@@ -43,15 +45,36 @@ public class WeatherContract {
     // At least, let's hope not.  Don't be that dev, reader.  Don't be that dev.
     public static final String PATH_WEATHER = "weather";
     public static final String PATH_LOCATION = "location";
+    public static final String PATH_SYNC_METRICS = "sync_metrics";
+    public static final String PATH_CURRENT = "current";
+    public static final String PATH_HISTORY = "history";
 
     // To make it easy to query for the exact date, we normalize all dates that go into
     // the database to the start of the the Julian day at UTC.
     public static long normalizeDate(long startDate) {
-        // normalize the start date to the beginning of the (UTC) day
-        Time time = new Time();
-        time.set(startDate);
-        int julianDay = Time.getJulianDay(startDate, time.gmtoff);
-        return time.setJulianDay(julianDay);
+        return normalizeDate(startDate, TimeZone.getDefault());
+    }
+
+    /**
+     * Normalizes the start date to the beginning of its day in the given time zone, the same
+     * way Time.setJulianDay() does, but with plain arithmetic and without allocating.  Callers
+     * normalizing many dates should look the time zone up once, since TimeZone.getDefault()
+     * returns a copy every time.
+     */
+    public static long normalizeDate(long startDate, TimeZone timeZone) {
+        long localDay = floorDiv(startDate + timeZone.getOffset(startDate), DateUtils.DAY_IN_MILLIS);
+        long localMidnight = localDay * DateUtils.DAY_IN_MILLIS;
+        // Across a daylight saving change the offset at midnight isn't the one at startDate.
+        long utcGuess = localMidnight - timeZone.getOffset(startDate);
+        return localMidnight - timeZone.getOffset(utcGuess);
+    }
+
+    private static long floorDiv(long x, long y) {
+        long quotient = x / y;
+        if ((x % y != 0) && ((x < 0) != (y < 0))) {
+            quotient--;
+        }
+        return quotient;
     }
 
     /* Inner class that defines the table contents of the location table */
@@ -81,14 +104,195 @@ public class WeatherContract {
         public static final String COLUMN_COORD_LAT = "coord_lat";
         public static final String COLUMN_COORD_LONG = "coord_long";
 
+        // HTTP cache validators returned by openweathermap with the last forecast we stored for
+        // this location.  They are sent back on the next sync so the server can answer with
+        // "304 Not Modified" instead of the full forecast.  Either may be null.
+        public static final String COLUMN_ETAG = "etag";
+        public static final String COLUMN_LAST_MODIFIED = "last_modified";
+
+        // Inserting with this on the uri updates the location stored with the same setting, if
+        // there is one, instead of failing.
+        public static final String PARAM_UPSERT = "upsert";
+        // Added by an upsert to the uri of a location that was already stored with the same values.
+        public static final String PARAM_UNCHANGED = "unchanged";
+
         public static Uri buildLocationUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
+
+        /**
+         * @return the uri to insert a location with so that it is stored or updated, whichever
+         * is needed
+         */
+        public static Uri buildUpsertUri() {
+            return CONTENT_URI.buildUpon().appendQueryParameter(PARAM_UPSERT, "1").build();
+        }
+
+        public static boolean isUpsertUri(Uri uri) {
+            return uri.getQueryParameter(PARAM_UPSERT) != null;
+        }
+
+        /**
+         * @return true if an upsert returned this uri for a location that didn't change
+         */
+        public static boolean isUnchangedUri(Uri uri) {
+            return uri.getQueryParameter(PARAM_UNCHANGED) != null;
+        }
+    }
+
+    /*
+        Inner class that defines the current forecast table: the weather for the preferred
+        location joined with the location, kept up to date by the provider.  Its columns have the
+        same names as in WeatherEntry and LocationEntry, and _ID is the weather row's _ID, so it
+        can be queried with the same projections as a weather location URI.
+     */
+    public static final class CurrentEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_CURRENT).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_CURRENT;
+
+        public static final String TABLE_NAME = "current_forecast";
+
+        public static Uri buildCurrentWithStartDate(long startDate) {
+            return CONTENT_URI.buildUpon().appendQueryParameter(WeatherEntry.COLUMN_DATE,
+                    Long.toString(normalizeDate(startDate))).build();
+        }
+    }
+
+    /*
+        Inner class that defines the history table: past days of weather, archived from the
+        weather table once they are over.  Rows are grouped by month, the unit retention works
+        in.  Recent months hold one row per day; older months are downsampled to one row per
+        week of the month (days 1-7, 8-14, 15-21, 22-28 and the rest), and the oldest are
+        dropped.  The weather columns have the same names as in WeatherEntry; in a weekly row
+        they hold the lowest min, the highest max, the most common weather and the average of
+        the rest.
+     */
+    public static final class HistoryEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_HISTORY).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_HISTORY;
+
+        public static final String TABLE_NAME = "weather_history";
+
+        // Column with the foreign key into the location table.
+        public static final String COLUMN_LOC_KEY = WeatherEntry.COLUMN_LOC_KEY;
+        // The month the row belongs to, in local time, as year * 100 + month, e.g. 201412
+        public static final String COLUMN_MONTH = "month";
+        // The first day the row covers, normalized like WeatherEntry.COLUMN_DATE
+        public static final String COLUMN_DATE = WeatherEntry.COLUMN_DATE;
+        // The number of days the row covers: 1 for a daily row, up to 7 for a weekly one
+        public static final String COLUMN_DAYS = "days";
+        // PERIOD_DAY or PERIOD_WEEK
+        public static final String COLUMN_PERIOD = "period";
+
+        public static final int PERIOD_DAY = 1;
+        public static final int PERIOD_WEEK = 7;
+
+        // Query parameter for the end of a date range, inclusive
+        public static final String PARAM_END_DATE = "end";
+
+        public static Uri buildHistoryLocation(String locationSetting) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting).build();
+        }
+
+        public static Uri buildHistoryLocationWithDateRange(String locationSetting,
+                                                            long startDate, long endDate) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendQueryParameter(COLUMN_DATE, Long.toString(normalizeDate(startDate)))
+                    .appendQueryParameter(PARAM_END_DATE, Long.toString(normalizeDate(endDate)))
+                    .build();
+        }
+
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+
+        /**
+         * @return the start of the date range, or 0 if there is none
+         */
+        public static long getStartDateFromUri(Uri uri) {
+            return WeatherEntry.getStartDateFromUri(uri);
+        }
+
+        /**
+         * @return the end of the date range, or Long.MAX_VALUE if there is none
+         */
+        public static long getEndDateFromUri(Uri uri) {
+            String dateString = uri.getQueryParameter(PARAM_END_DATE);
+            if (null != dateString && dateString.length() > 0)
+                return Long.parseLong(dateString);
+            else
+                return Long.MAX_VALUE;
+        }
+    }
+
+    /* Inner class that defines the table contents of the sync metrics table */
+    public static final class SyncMetricsEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_SYNC_METRICS).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_SYNC_METRICS;
+
+        public static final String TABLE_NAME = "sync_metrics";
+
+        // The table is a ring buffer: once it holds this many rows, each new row pushes out the
+        // oldest one.
+        public static final int MAX_ROWS = 2000;
+
+        // Wall clock time the sync started, in milliseconds since the epoch.  Every row written
+        // by one sync has the same value.
+        public static final String COLUMN_SYNC_START = "sync_start";
+        // The location setting the phase was for, or null for phases of the sync as a whole.
+        public static final String COLUMN_LOCATION_SETTING = "location_setting";
+        // One of the PHASE_ values below.  Rows written by older versions of the app may have
+        // phases that are no longer recorded; the ring buffer rotates them out.
+        public static final String COLUMN_PHASE = "phase";
+        // How long the phase took, in milliseconds.
+        public static final String COLUMN_DURATION = "duration";
+        // The number of bytes the phase handled, or null if it doesn't deal in bytes.
+        public static final String COLUMN_BYTES = "bytes";
+        // One of the OUTCOME_ values below, or null for phases that can't fail on their own.
+        public static final String COLUMN_OUTCOME = "outcome";
+
+        // Per location.  PHASE_DOWNLOAD counts the bytes that came over the wire, PHASE_PARSE the
+        // bytes after decompression.  PHASE_LOCATION covers the whole of one location.
+        public static final String PHASE_CONNECT = "connect";
+        public static final String PHASE_FIRST_BYTE = "first_byte";
+        public static final String PHASE_DOWNLOAD = "download";
+        public static final String PHASE_PARSE = "parse";
+        public static final String PHASE_LOCATION = "location";
+        // Per sync.  Fan-out phases are named PHASE_FAN_OUT followed by the consumer.
+        // PHASE_APPLY_BATCH stores every location and deletes old days in one transaction.
+        public static final String PHASE_APPLY_BATCH = "apply_batch";
+        public static final String PHASE_FAN_OUT = "fan_out:";
+        public static final String PHASE_SYNC = "sync";
+
+        public static final String OUTCOME_OK = "ok";
+        public static final String OUTCOME_NOT_MODIFIED = "not_modified";
+        public static final String OUTCOME_SERVER_DOWN = "server_down";
+        public static final String OUTCOME_SERVER_INVALID = "server_invalid";
+        public static final String OUTCOME_INVALID = "invalid";
+        public static final String OUTCOME_UNKNOWN = "unknown";
+        public static final String OUTCOME_ERROR = "error";
+        // The sync was skipped because the server has been failing.
+        public static final String OUTCOME_CIRCUIT_OPEN = "circuit_open";
     }
 
     /* Inner class that defines the table contents of the weather table */
     public static final class WeatherEntry implements BaseColumns {
 
+        // Changes are notified on the narrowest uri that covers them, usually
+        // weather/[location]/[date] or weather/[location], so observing a location's uri (as
+        // cursors from query() do) doesn't hear about other locations.
         public static final Uri CONTENT_URI =
                 BASE_CONTENT_URI.buildUpon().appendPath(PATH_WEATHER).build();
 
@@ -126,6 +330,11 @@ public class WeatherContract {
         // Degrees are meteorological degrees (e.g, 0 is north, 180 is south).  Stored as floats.
         public static final String COLUMN_DEGREES = "degrees";
 
+        // Added by insert to the uri of a day that was already stored with the same values.
+        public static final String PARAM_UNCHANGED = "unchanged";
+        // Deleting with this on the uri moves the days into HistoryEntry instead of dropping them.
+        public static final String PARAM_ARCHIVE = "archive";
+
         public static Uri buildWeatherUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
@@ -164,5 +373,23 @@ public class WeatherContract {
             else
                 return 0;
         }
+
+        /**
+         * @return the uri to delete days with so that they are kept in the history
+         */
+        public static Uri buildArchiveUri() {
+            return CONTENT_URI.buildUpon().appendQueryParameter(PARAM_ARCHIVE, "1").build();
+        }
+
+        public static boolean isArchiveUri(Uri uri) {
+            return uri.getQueryParameter(PARAM_ARCHIVE) != null;
+        }
+
+        /**
+         * @return true if an insert returned this uri for a day that didn't change
+         */
+        public static boolean isUnchangedUri(Uri uri) {
+            return uri.getQueryParameter(PARAM_UNCHANGED) != null;
+        }
     }
 }
@@ -15,29 +15,149 @@
  */
 package com.example.android.sunshine.app.data;
 
+import android.annotation.TargetApi;
 import android.content.Context;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
+import android.util.Log;
 
+import com.example.android.sunshine.app.data.WeatherContract.CurrentEntry;
+import com.example.android.sunshine.app.data.WeatherContract.HistoryEntry;
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.SyncMetricsEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
 /**
  * Manages a local database for weather data.
+ *
+ * The schema is built up one version at a time: onCreate creates the oldest schema we still
+ * support and then runs every migration after it, exactly like an upgrade would.  So a fresh
+ * install and an upgraded one always end up with the same schema, and an upgrade keeps the
+ * cached forecast instead of starting the user off with an empty screen.
+ *
+ * From Honeycomb on the database runs in write-ahead logging mode: the sync adapter's ingest
+ * transactions append to the log while the UI, widgets and Muzei keep reading the last committed
+ * state on their own connections, instead of waiting for the write lock.
  */
 public class WeatherDbHelper extends SQLiteOpenHelper {
+    private static final String LOG_TAG = WeatherDbHelper.class.getSimpleName();
+
+    // If you change the database schema, you must increment the database version, and add a
+    // step for the new version to upgradeTo().
+    static final int DATABASE_VERSION = 7;
 
-    // If you change the database schema, you must increment the database version.
-    private static final int DATABASE_VERSION = 2;
+    // Databases older than this are discarded and recreated rather than migrated.
+    static final int OLDEST_MIGRATABLE_VERSION = 2;
 
     static final String DATABASE_NAME = "weather.db";
 
+    // Index on weather for the provider's location queries (location_id = ? AND date >= ?,
+    // ordered by date).  The UNIQUE constraints already index location.location_setting, and
+    // weather (date, location_id), which the purge of old days uses.
+    static final String INDEX_WEATHER_LOCATION_DATE = "weather_location_date";
+
+    // Index on the history for retention, which works a month at a time.  The history's UNIQUE
+    // constraint indexes (location_id, date, period) for the provider's date range queries.
+    static final String INDEX_HISTORY_PERIOD_MONTH = "weather_history_period_month";
+
+    // Checkpoint policy.  We write in bursts (a few locations and their metrics per sync, hours
+    // apart), so the automatic checkpoint is set high enough that a sync never stops to run one
+    // halfway through; WeatherProvider.checkpoint() folds the log back in once the sync is done.
+    // A checkpoint leaves the log file at its largest size, so it is truncated to
+    // WAL_SIZE_LIMIT_BYTES when it is reused.
+    static final int WAL_AUTOCHECKPOINT_PAGES = 1000;
+    static final long WAL_SIZE_LIMIT_BYTES = 512 * 1024;
+
     public WeatherDbHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            enableWriteAheadLogging();
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private void enableWriteAheadLogging() {
+        // The framework keeps a pool of read connections next to the one writer.
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        if (db.isReadOnly() || Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN && !enableWriteAheadLogging(db)) {
+            return;
+        }
+        // These matter on the connection that writes, which is the one that checkpoints.  The
+        // transaction makes sure they run there rather than on one of the read connections.
+        db.beginTransaction();
+        try {
+            DatabaseUtils.longForQuery(db,
+                    "PRAGMA wal_autocheckpoint=" + WAL_AUTOCHECKPOINT_PAGES, null);
+            DatabaseUtils.longForQuery(db,
+                    "PRAGMA journal_size_limit=" + WAL_SIZE_LIMIT_BYTES, null);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static boolean enableWriteAheadLogging(SQLiteDatabase db) {
+        // Before Jelly Bean the helper can't do this for us; this also opens the read connections.
+        return db.enableWriteAheadLogging();
     }
 
     @Override
     public void onCreate(SQLiteDatabase sqLiteDatabase) {
+        createVersion2(sqLiteDatabase);
+        for (int version = OLDEST_MIGRATABLE_VERSION + 1; version <= DATABASE_VERSION; version++) {
+            upgradeTo(sqLiteDatabase, version);
+        }
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
+        // Note that this only fires if you change the version number for your database.
+        // It does NOT depend on the version number for your application.
+        if (oldVersion < OLDEST_MIGRATABLE_VERSION) {
+            // This database is only a cache for online data, so anything too old to migrate
+            // is simply discarded and we start over.
+            recreate(sqLiteDatabase);
+            return;
+        }
+        Log.d(LOG_TAG, "Upgrading database from version " + oldVersion + " to " + newVersion);
+        // SQLiteOpenHelper runs this in a transaction, so a failed step leaves the old
+        // database untouched.
+        for (int version = oldVersion + 1; version <= newVersion; version++) {
+            upgradeTo(sqLiteDatabase, version);
+        }
+    }
+
+    @Override
+    public void onDowngrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
+        // We can't know what a newer version changed, so start over.
+        recreate(sqLiteDatabase);
+    }
+
+    private void recreate(SQLiteDatabase sqLiteDatabase) {
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + SyncMetricsEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + CurrentEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + HistoryEntry.TABLE_NAME);
+        onCreate(sqLiteDatabase);
+    }
+
+    /**
+     * Creates the schema as it was at version 2.  Never change this: later changes belong in a
+     * new step of upgradeTo().
+     */
+    static void createVersion2(SQLiteDatabase sqLiteDatabase) {
         // Create a table to hold locations.  A location consists of the string supplied in the
         // location setting, the city name, and the latitude and longitude
         final String SQL_CREATE_LOCATION_TABLE = "CREATE TABLE " + LocationEntry.TABLE_NAME + " (" +
@@ -83,16 +203,101 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
         sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
     }
 
-    @Override
-    public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
-        // This database is only a cache for online data, so its upgrade policy is
-        // to simply to discard the data and start over
-        // Note that this only fires if you change the version number for your database.
-        // It does NOT depend on the version number for your application.
-        // If you want to update the schema without wiping data, commenting out the next 2 lines
-        // should be your top priority before modifying this method.
-        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
-        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
-        onCreate(sqLiteDatabase);
+    /**
+     * Migrates the schema from version - 1 to version.  Each step must keep the data that is
+     * already there.
+     */
+    static void upgradeTo(SQLiteDatabase sqLiteDatabase, int version) {
+        switch (version) {
+            case 3:
+                // HTTP cache validators for conditional requests
+                sqLiteDatabase.execSQL("ALTER TABLE " + LocationEntry.TABLE_NAME +
+                        " ADD COLUMN " + LocationEntry.COLUMN_ETAG + " TEXT");
+                sqLiteDatabase.execSQL("ALTER TABLE " + LocationEntry.TABLE_NAME +
+                        " ADD COLUMN " + LocationEntry.COLUMN_LAST_MODIFIED + " TEXT");
+                break;
+            case 4: {
+                // AUTOINCREMENT keeps _ID growing even after old rows are deleted, which the ring
+                // buffer trigger below relies on.
+                final String SQL_CREATE_SYNC_METRICS_TABLE = "CREATE TABLE " + SyncMetricsEntry.TABLE_NAME + " (" +
+                        SyncMetricsEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+                        SyncMetricsEntry.COLUMN_SYNC_START + " INTEGER NOT NULL, " +
+                        SyncMetricsEntry.COLUMN_LOCATION_SETTING + " TEXT, " +
+                        SyncMetricsEntry.COLUMN_PHASE + " TEXT NOT NULL, " +
+                        SyncMetricsEntry.COLUMN_DURATION + " INTEGER NOT NULL, " +
+                        SyncMetricsEntry.COLUMN_BYTES + " INTEGER, " +
+                        SyncMetricsEntry.COLUMN_OUTCOME + " TEXT " +
+                        " );";
+
+                // Keep only the newest MAX_ROWS rows
+                final String SQL_CREATE_SYNC_METRICS_TRIGGER = "CREATE TRIGGER " +
+                        SyncMetricsEntry.TABLE_NAME + "_ring AFTER INSERT ON " + SyncMetricsEntry.TABLE_NAME +
+                        " BEGIN DELETE FROM " + SyncMetricsEntry.TABLE_NAME + " WHERE " +
+                        SyncMetricsEntry._ID + " <= NEW." + SyncMetricsEntry._ID + " - " +
+                        SyncMetricsEntry.MAX_ROWS + "; END;";
+
+                sqLiteDatabase.execSQL(SQL_CREATE_SYNC_METRICS_TABLE);
+                sqLiteDatabase.execSQL(SQL_CREATE_SYNC_METRICS_TRIGGER);
+                break;
+            }
+            case 5:
+                sqLiteDatabase.execSQL("CREATE INDEX " + INDEX_WEATHER_LOCATION_DATE + " ON " +
+                        WeatherEntry.TABLE_NAME + " (" + WeatherEntry.COLUMN_LOC_KEY + ", " +
+                        WeatherEntry.COLUMN_DATE + ")");
+                break;
+            case 6: {
+                // The preferred location's forecast, denormalized for the hot read path.  The
+                // UNIQUE date doubles as the index its date range queries use.  WeatherProvider
+                // fills it in as it writes weather.
+                final String SQL_CREATE_CURRENT_TABLE = "CREATE TABLE " + CurrentEntry.TABLE_NAME + " (" +
+                        CurrentEntry._ID + " INTEGER PRIMARY KEY," +
+                        WeatherEntry.COLUMN_DATE + " INTEGER UNIQUE NOT NULL, " +
+                        WeatherEntry.COLUMN_SHORT_DESC + " TEXT NOT NULL, " +
+                        WeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL," +
+                        WeatherEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
+                        WeatherEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
+                        WeatherEntry.COLUMN_HUMIDITY + " REAL NOT NULL, " +
+                        WeatherEntry.COLUMN_PRESSURE + " REAL NOT NULL, " +
+                        WeatherEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
+                        WeatherEntry.COLUMN_DEGREES + " REAL NOT NULL, " +
+                        LocationEntry.COLUMN_LOCATION_SETTING + " TEXT NOT NULL, " +
+                        LocationEntry.COLUMN_CITY_NAME + " TEXT NOT NULL, " +
+                        LocationEntry.COLUMN_COORD_LAT + " REAL NOT NULL, " +
+                        LocationEntry.COLUMN_COORD_LONG + " REAL NOT NULL " +
+                        " );";
+                sqLiteDatabase.execSQL(SQL_CREATE_CURRENT_TABLE);
+                break;
+            }
+            case 7: {
+                // Past days, moved out of the weather table so that it only holds the forecast.
+                final String SQL_CREATE_HISTORY_TABLE = "CREATE TABLE " + HistoryEntry.TABLE_NAME + " (" +
+                        HistoryEntry._ID + " INTEGER PRIMARY KEY," +
+                        HistoryEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                        HistoryEntry.COLUMN_MONTH + " INTEGER NOT NULL, " +
+                        HistoryEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
+                        HistoryEntry.COLUMN_DAYS + " INTEGER NOT NULL, " +
+                        HistoryEntry.COLUMN_PERIOD + " INTEGER NOT NULL, " +
+                        WeatherEntry.COLUMN_SHORT_DESC + " TEXT NOT NULL, " +
+                        WeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL," +
+                        WeatherEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
+                        WeatherEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
+                        WeatherEntry.COLUMN_HUMIDITY + " REAL NOT NULL, " +
+                        WeatherEntry.COLUMN_PRESSURE + " REAL NOT NULL, " +
+                        WeatherEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
+                        WeatherEntry.COLUMN_DEGREES + " REAL NOT NULL, " +
+                        " FOREIGN KEY (" + HistoryEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+                        LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+                        " UNIQUE (" + HistoryEntry.COLUMN_LOC_KEY + ", " +
+                        HistoryEntry.COLUMN_DATE + ", " +
+                        HistoryEntry.COLUMN_PERIOD + ") ON CONFLICT REPLACE);";
+                sqLiteDatabase.execSQL(SQL_CREATE_HISTORY_TABLE);
+                sqLiteDatabase.execSQL("CREATE INDEX " + INDEX_HISTORY_PERIOD_MONTH + " ON " +
+                        HistoryEntry.TABLE_NAME + " (" + HistoryEntry.COLUMN_PERIOD + ", " +
+                        HistoryEntry.COLUMN_MONTH + ")");
+                break;
+            }
+            default:
+                throw new IllegalStateException("No migration to database version " + version);
+        }
     }
 }
@@ -17,25 +17,52 @@ package com.example.android.sunshine.app.data;
 
 import android.annotation.TargetApi;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.util.Log;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.WeatherContract.CurrentEntry;
+import com.example.android.sunshine.app.data.WeatherContract.HistoryEntry;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
 
 public class WeatherProvider extends ContentProvider {
+    private static final String LOG_TAG = WeatherProvider.class.getSimpleName();
 
     // The URI Matcher used by this content provider.
     private static final UriMatcher sUriMatcher = buildUriMatcher();
     private WeatherDbHelper mOpenHelper;
+    private ChangeNotifier mNotifier;
+    private WeatherArchive mArchive;
+    private QueryCache mQueryCache;
+    private final LocationRegistry mLocations = new LocationRegistry();
 
     static final int WEATHER = 100;
     static final int WEATHER_WITH_LOCATION = 101;
     static final int WEATHER_WITH_LOCATION_AND_DATE = 102;
     static final int LOCATION = 300;
+    static final int SYNC_METRICS = 400;
+    static final int CURRENT = 500;
+    static final int HISTORY = 600;
+    static final int HISTORY_WITH_LOCATION = 601;
 
-    private static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
+    static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
 
     static{
         sWeatherByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
@@ -52,22 +79,252 @@ public class WeatherProvider extends ContentProvider {
     }
 
     //location.location_setting = ?
-    private static final String sLocationSettingSelection =
+    static final String sLocationSettingSelection =
             WeatherContract.LocationEntry.TABLE_NAME+
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? ";
 
     //location.location_setting = ? AND date >= ?
-    private static final String sLocationSettingWithStartDateSelection =
+    static final String sLocationSettingWithStartDateSelection =
             WeatherContract.LocationEntry.TABLE_NAME+
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " >= ? ";
 
     //location.location_setting = ? AND date = ?
-    private static final String sLocationSettingAndDaySelection =
+    static final String sLocationSettingAndDaySelection =
             WeatherContract.LocationEntry.TABLE_NAME +
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ";
 
+    // The current forecast table goes by the name of the weather table, so that projections
+    // qualified with it, like weather._id, work against it too.
+    static final SQLiteQueryBuilder sCurrentQueryBuilder;
+
+    static{
+        sCurrentQueryBuilder = new SQLiteQueryBuilder();
+        sCurrentQueryBuilder.setTables(CurrentEntry.TABLE_NAME + " AS " +
+                WeatherContract.WeatherEntry.TABLE_NAME);
+    }
+
+    static final SQLiteQueryBuilder sHistoryByLocationSettingQueryBuilder;
+
+    static{
+        sHistoryByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
+
+        //weather_history INNER JOIN location ON weather_history.location_id = location._id
+        sHistoryByLocationSettingQueryBuilder.setTables(
+                HistoryEntry.TABLE_NAME + " INNER JOIN " +
+                        WeatherContract.LocationEntry.TABLE_NAME +
+                        " ON " + HistoryEntry.TABLE_NAME +
+                        "." + HistoryEntry.COLUMN_LOC_KEY +
+                        " = " + WeatherContract.LocationEntry.TABLE_NAME +
+                        "." + WeatherContract.LocationEntry._ID);
+    }
+
+    //location.location_setting = ? AND weather_history.date BETWEEN ? AND ?
+    static final String sHistoryLocationSettingWithDateRangeSelection =
+            WeatherContract.LocationEntry.TABLE_NAME +
+                    "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
+                    HistoryEntry.TABLE_NAME + "." + HistoryEntry.COLUMN_DATE + " BETWEEN ? AND ? ";
+
+    //location_setting = ?
+    static final String sCurrentLocationSettingSelection =
+            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? ";
+
+    //location_setting = ? AND date >= ?
+    static final String sCurrentLocationSettingWithStartDateSelection =
+            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " >= ? ";
+
+    // Rebuilds the current forecast table from weather joined with location, for the location
+    // setting given as the argument.
+    private static final String SQL_REFRESH_CURRENT = "INSERT INTO " + CurrentEntry.TABLE_NAME +
+            " (" + CurrentEntry._ID + ", " +
+            WeatherContract.WeatherEntry.COLUMN_DATE + ", " +
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC + ", " +
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID + ", " +
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP + ", " +
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP + ", " +
+            WeatherContract.WeatherEntry.COLUMN_HUMIDITY + ", " +
+            WeatherContract.WeatherEntry.COLUMN_PRESSURE + ", " +
+            WeatherContract.WeatherEntry.COLUMN_WIND_SPEED + ", " +
+            WeatherContract.WeatherEntry.COLUMN_DEGREES + ", " +
+            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + ", " +
+            WeatherContract.LocationEntry.COLUMN_CITY_NAME + ", " +
+            WeatherContract.LocationEntry.COLUMN_COORD_LAT + ", " +
+            WeatherContract.LocationEntry.COLUMN_COORD_LONG +
+            ") SELECT " +
+            WeatherContract.WeatherEntry.TABLE_NAME + "." + WeatherContract.WeatherEntry._ID + ", " +
+            WeatherContract.WeatherEntry.COLUMN_DATE + ", " +
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC + ", " +
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID + ", " +
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP + ", " +
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP + ", " +
+            WeatherContract.WeatherEntry.COLUMN_HUMIDITY + ", " +
+            WeatherContract.WeatherEntry.COLUMN_PRESSURE + ", " +
+            WeatherContract.WeatherEntry.COLUMN_WIND_SPEED + ", " +
+            WeatherContract.WeatherEntry.COLUMN_DEGREES + ", " +
+            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + ", " +
+            WeatherContract.LocationEntry.COLUMN_CITY_NAME + ", " +
+            WeatherContract.LocationEntry.COLUMN_COORD_LAT + ", " +
+            WeatherContract.LocationEntry.COLUMN_COORD_LONG +
+            " FROM " + WeatherContract.WeatherEntry.TABLE_NAME + " INNER JOIN " +
+            WeatherContract.LocationEntry.TABLE_NAME + " ON " +
+            WeatherContract.WeatherEntry.TABLE_NAME + "." + WeatherContract.WeatherEntry.COLUMN_LOC_KEY +
+            " = " + WeatherContract.LocationEntry.TABLE_NAME + "." + WeatherContract.LocationEntry._ID +
+            " WHERE " + sLocationSettingSelection;
+
+    // The location columns copied into the current forecast table.  Updating any other column
+    // of a location, like the validators every sync writes, leaves the table as it is.
+    private static final String[] CURRENT_LOCATION_COLUMNS = {
+            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+            WeatherContract.LocationEntry.COLUMN_CITY_NAME,
+            WeatherContract.LocationEntry.COLUMN_COORD_LAT,
+            WeatherContract.LocationEntry.COLUMN_COORD_LONG
+    };
+
+    // The location columns mLocations is keyed by.  Updating any other column leaves it as it is.
+    private static final String[] LOCATION_KEY_COLUMNS = {
+            WeatherContract.LocationEntry._ID,
+            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING
+    };
+
+    //date = ? AND location_id = ?
+    private static final String sDateAndLocationKeySelection =
+            WeatherContract.WeatherEntry.COLUMN_DATE + " = ? AND " +
+                    WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? ";
+
+    // Outcomes of merging one incoming weather row with what is already stored.
+    private static final int MERGE_FAILED = 0;
+    private static final int MERGE_INSERTED = 1;
+    private static final int MERGE_UPDATED = 2;
+    private static final int MERGE_UNCHANGED = 3;
+
+    // Inserts a day, unless its location already has one for that date.  OR IGNORE overrides
+    // the table's ON CONFLICT REPLACE, so an existing day is left for the update below.
+    private static final String SQL_INSERT_WEATHER = "INSERT OR IGNORE INTO " +
+            WeatherContract.WeatherEntry.TABLE_NAME + " (" +
+            WeatherContract.WeatherEntry.COLUMN_LOC_KEY + ", " +
+            WeatherContract.WeatherEntry.COLUMN_DATE + ", " +
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID + ", " +
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC + ", " +
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP + ", " +
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP + ", " +
+            WeatherContract.WeatherEntry.COLUMN_HUMIDITY + ", " +
+            WeatherContract.WeatherEntry.COLUMN_PRESSURE + ", " +
+            WeatherContract.WeatherEntry.COLUMN_WIND_SPEED + ", " +
+            WeatherContract.WeatherEntry.COLUMN_DEGREES +
+            ") VALUES (?1, ?2, ?3, ?4, ?5, ?6, ?7, ?8, ?9, ?10)";
+
+    // Overwrites a stored day in place, but only if something differs, so that changes()
+    // tells an update from a day that was already up to date.  Takes the same arguments as
+    // SQL_INSERT_WEATHER.
+    private static final String SQL_UPDATE_WEATHER = "UPDATE " +
+            WeatherContract.WeatherEntry.TABLE_NAME + " SET " +
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID + " = ?3, " +
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC + " = ?4, " +
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP + " = ?5, " +
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP + " = ?6, " +
+            WeatherContract.WeatherEntry.COLUMN_HUMIDITY + " = ?7, " +
+            WeatherContract.WeatherEntry.COLUMN_PRESSURE + " = ?8, " +
+            WeatherContract.WeatherEntry.COLUMN_WIND_SPEED + " = ?9, " +
+            WeatherContract.WeatherEntry.COLUMN_DEGREES + " = ?10" +
+            " WHERE " + WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ?1 AND " +
+            WeatherContract.WeatherEntry.COLUMN_DATE + " = ?2 AND NOT (" +
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID + " IS ?3 AND " +
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC + " IS ?4 AND " +
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP + " IS ?5 AND " +
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP + " IS ?6 AND " +
+            WeatherContract.WeatherEntry.COLUMN_HUMIDITY + " IS ?7 AND " +
+            WeatherContract.WeatherEntry.COLUMN_PRESSURE + " IS ?8 AND " +
+            WeatherContract.WeatherEntry.COLUMN_WIND_SPEED + " IS ?9 AND " +
+            WeatherContract.WeatherEntry.COLUMN_DEGREES + " IS ?10)";
+
+    // Finds the _ID of a day written by the statements above.
+    private static final String SQL_WEATHER_ID = "SELECT " + WeatherContract.WeatherEntry._ID +
+            " FROM " + WeatherContract.WeatherEntry.TABLE_NAME +
+            " WHERE " + WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ?1 AND " +
+            WeatherContract.WeatherEntry.COLUMN_DATE + " = ?2";
+
+    // The columns a ContentValues must have to take the compiled statement path.
+    private static final String[] WEATHER_INGEST_COLUMNS = {
+            WeatherContract.WeatherEntry.COLUMN_LOC_KEY,
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+            WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+            WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherContract.WeatherEntry.COLUMN_DEGREES
+    };
+
+    // Compiled once and kept for as long as the database they were compiled against.  Guarded
+    // by mIngestLock, which is held for a whole ingest transaction; SQLite only lets one
+    // writer in at a time anyway.  The lock is always taken after the transaction has begun,
+    // never before, as applyBatch() holds its transaction across many inserts.
+    private final Object mIngestLock = new Object();
+    private SQLiteDatabase mIngestDb;
+    private SQLiteStatement mInsertWeatherStatement;
+    private SQLiteStatement mUpdateWeatherStatement;
+    private SQLiteStatement mChangesStatement;
+    private SQLiteStatement mWeatherIdStatement;
+
+    // The location setting the current forecast table was last built for, and that location's
+    // _ID, or -1 if it isn't stored yet.  Only changed inside a write transaction.
+    private final Object mCurrentLock = new Object();
+    private String mCurrentLocationSetting;
+    private long mCurrentLocationId = -1;
+
+    // Set on the thread running applyBatch(), for as long as it runs.
+    private final ThreadLocal<BatchState> mBatch = new ThreadLocal<BatchState>();
+
+    /**
+     * What the operations of a batch leave for its commit: the uris to notify, each once,
+     * whether the current forecast table needs rebuilding, and the locations it inserted.
+     */
+    private static final class BatchState {
+        final Set<Uri> mNotifications = new LinkedHashSet<Uri>();
+        boolean mCurrentStale;
+        // Locations inserted by the batch, by setting, for mLocations once the batch commits
+        final Map<String, Long> mNewLocations = new HashMap<String, Long>();
+        // mLocations' generation when the batch began
+        long mLocationGeneration;
+        // Set once the batch updates or deletes locations, after which mLocations is left
+        // alone until the commit
+        boolean mLocationsChanged;
+    }
+
+    /**
+     * What writing a batch of weather rows did.
+     */
+    public static final class IngestResult {
+        public final int inserted;
+        public final int updated;
+        public final int unchanged;
+        // Whether the current forecast table was rebuilt
+        final boolean currentChanged;
+
+        IngestResult(int inserted, int updated, int unchanged, boolean currentChanged) {
+            this.inserted = inserted;
+            this.updated = updated;
+            this.unchanged = unchanged;
+            this.currentChanged = currentChanged;
+        }
+
+        /**
+         * @return the number of days that were added or changed
+         */
+        public int getChanged() {
+            return inserted + updated;
+        }
+
+        @Override
+        public String toString() {
+            return inserted + " inserted, " + updated + " updated, " + unchanged + " unchanged";
+        }
+    }
+
     private Cursor getWeatherByLocationSetting(Uri uri, String[] projection, String sortOrder) {
         String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
         long startDate = WeatherContract.WeatherEntry.getStartDateFromUri(uri);
@@ -93,6 +350,65 @@ public class WeatherProvider extends ContentProvider {
         );
     }
 
+    /**
+     * Reads the preferred location's forecast from the current forecast table.  Only writes
+     * rebuild the table, so after the preferred location changes it holds the old location's
+     * days until the next write; until then the forecast is read from weather joined with
+     * location, as for a weather location uri.  Reading never waits for the write lock.
+     */
+    private Cursor getCurrentForecast(Uri uri, String[] projection, String sortOrder,
+                                      String locationSetting) {
+        long startDate = WeatherContract.WeatherEntry.getStartDateFromUri(uri);
+
+        String[] selectionArgs;
+        String selection;
+        if (startDate == 0) {
+            selection = sCurrentLocationSettingSelection;
+            selectionArgs = new String[]{locationSetting};
+        } else {
+            selection = sCurrentLocationSettingWithStartDateSelection;
+            selectionArgs = new String[]{locationSetting, Long.toString(startDate)};
+        }
+
+        Cursor cursor = sCurrentQueryBuilder.query(mOpenHelper.getReadableDatabase(),
+                projection,
+                selection,
+                selectionArgs,
+                null,
+                null,
+                sortOrder
+        );
+        if (cursor.getCount() > 0) {
+            return cursor;
+        }
+        // Either the table is for another location, or there is nothing to show anyway, in
+        // which case the join is just as quick to say so.
+        cursor.close();
+        return sWeatherByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
+                projection,
+                startDate == 0 ? sLocationSettingSelection : sLocationSettingWithStartDateSelection,
+                selectionArgs,
+                null,
+                null,
+                sortOrder
+        );
+    }
+
+    private Cursor getHistoryByLocationSetting(Uri uri, String[] projection, String sortOrder) {
+        String locationSetting = HistoryEntry.getLocationSettingFromUri(uri);
+        long startDate = HistoryEntry.getStartDateFromUri(uri);
+        long endDate = HistoryEntry.getEndDateFromUri(uri);
+
+        return sHistoryByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
+                projection,
+                sHistoryLocationSettingWithDateRangeSelection,
+                new String[]{locationSetting, Long.toString(startDate), Long.toString(endDate)},
+                null,
+                null,
+                sortOrder
+        );
+    }
+
     private Cursor getWeatherByLocationSettingAndDate(
             Uri uri, String[] projection, String sortOrder) {
         String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
@@ -130,6 +446,10 @@ public class WeatherProvider extends ContentProvider {
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*/#", WEATHER_WITH_LOCATION_AND_DATE);
 
         matcher.addURI(authority, WeatherContract.PATH_LOCATION, LOCATION);
+        matcher.addURI(authority, WeatherContract.PATH_SYNC_METRICS, SYNC_METRICS);
+        matcher.addURI(authority, WeatherContract.PATH_CURRENT, CURRENT);
+        matcher.addURI(authority, WeatherContract.PATH_HISTORY, HISTORY);
+        matcher.addURI(authority, WeatherContract.PATH_HISTORY + "/*", HISTORY_WITH_LOCATION);
         return matcher;
     }
 
@@ -140,6 +460,13 @@ public class WeatherProvider extends ContentProvider {
     @Override
     public boolean onCreate() {
         mOpenHelper = new WeatherDbHelper(getContext());
+        mNotifier = new ChangeNotifier(getContext().getContentResolver(),
+                getContext().getResources().getInteger(R.integer.notification_window_millis));
+        mArchive = new WeatherArchive(
+                getContext().getResources().getInteger(R.integer.history_daily_retention_days),
+                getContext().getResources().getInteger(R.integer.history_retention_days));
+        mQueryCache = new QueryCache(
+                getContext().getResources().getInteger(R.integer.query_cache_entries));
         return true;
     }
 
@@ -164,6 +491,13 @@ public class WeatherProvider extends ContentProvider {
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
             case LOCATION:
                 return WeatherContract.LocationEntry.CONTENT_TYPE;
+            case SYNC_METRICS:
+                return WeatherContract.SyncMetricsEntry.CONTENT_TYPE;
+            case CURRENT:
+                return CurrentEntry.CONTENT_TYPE;
+            case HISTORY:
+            case HISTORY_WITH_LOCATION:
+                return HistoryEntry.CONTENT_TYPE;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
@@ -172,10 +506,37 @@ public class WeatherProvider extends ContentProvider {
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
                         String sortOrder) {
+        final int match = sUriMatcher.match(uri);
+        // The current forecast is the preferred location's, so it is cached by that too
+        String currentLocationSetting = null;
+        Uri cacheUri = uri;
+        if (match == CURRENT) {
+            currentLocationSetting = Utility.getPreferredLocation(getContext());
+            cacheUri = uri.buildUpon().appendQueryParameter(
+                    WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, currentLocationSetting)
+                    .build();
+        }
+
+        // The uri-addressed reads are the ones asked for over and over, so they're served from
+        // the cache when they can be.  Inside a transaction this thread may see writes that
+        // aren't committed yet, which mustn't be cached.
+        QueryCache.Key cacheKey = null;
+        long cacheGeneration = 0;
+        if (isCacheable(match) && !mOpenHelper.getReadableDatabase().inTransaction()) {
+            cacheKey = new QueryCache.Key(cacheUri, projection, selection, selectionArgs,
+                    sortOrder);
+            Cursor cached = mQueryCache.get(cacheKey);
+            if (cached != null) {
+                cached.setNotificationUri(getContext().getContentResolver(), uri);
+                return cached;
+            }
+            cacheGeneration = mQueryCache.getGeneration();
+        }
+
         // Here's the switch statement that, given a URI, will determine what kind of request it is,
         // and query the database accordingly.
         Cursor retCursor;
-        switch (sUriMatcher.match(uri)) {
+        switch (match) {
             // "weather/*/*"
             case WEATHER_WITH_LOCATION_AND_DATE:
             {
@@ -213,14 +574,80 @@ public class WeatherProvider extends ContentProvider {
                 );
                 break;
             }
+            // "sync_metrics"
+            case SYNC_METRICS: {
+                retCursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.SyncMetricsEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder
+                );
+                break;
+            }
+            // "current"
+            case CURRENT: {
+                retCursor = getCurrentForecast(uri, projection, sortOrder,
+                        currentLocationSetting);
+                break;
+            }
+            // "history/*"
+            case HISTORY_WITH_LOCATION: {
+                retCursor = getHistoryByLocationSetting(uri, projection, sortOrder);
+                break;
+            }
+            // "history"
+            case HISTORY: {
+                retCursor = mOpenHelper.getReadableDatabase().query(
+                        HistoryEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder
+                );
+                break;
+            }
 
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
+        if (cacheKey != null) {
+            retCursor = mQueryCache.put(cacheKey, uri, retCursor, cacheGeneration);
+        }
         retCursor.setNotificationUri(getContext().getContentResolver(), uri);
         return retCursor;
     }
 
+    private static boolean isCacheable(int match) {
+        switch (match) {
+            case WEATHER_WITH_LOCATION:
+            case WEATHER_WITH_LOCATION_AND_DATE:
+            case CURRENT:
+            case HISTORY_WITH_LOCATION:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * @return how many queries were answered from the query cache
+     */
+    public int getQueryCacheHitCount() {
+        return mQueryCache.getHitCount();
+    }
+
+    /**
+     * @return how many cacheable queries had to go to the database
+     */
+    public int getQueryCacheMissCount() {
+        return mQueryCache.getMissCount();
+    }
+
     /*
         Student: Add the ability to insert Locations to the implementation of this function.
      */
@@ -229,29 +656,95 @@ public class WeatherProvider extends ContentProvider {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         Uri returnUri;
+        Uri notifyUri = uri;
+        boolean changed = true;
+        boolean currentChanged = false;
 
         switch (match) {
             case WEATHER: {
-                normalizeDate(values);
-                long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, values);
-                if ( _id > 0 )
+                // A day is merged with what is stored, exactly as in bulkInsert.  If it was
+                // already stored as it is, the uri returned says so and nobody is notified.
+                db.beginTransaction();
+                try {
+                    long _id;
+                    int merge;
+                    synchronized (mIngestLock) {
+                        prepareIngestStatements(db);
+                        if (isCompleteWeatherRow(values)) {
+                            merge = writeWeatherRow(values, TimeZone.getDefault());
+                        } else {
+                            normalizeDate(values);
+                            merge = mergeWeatherRow(db, values);
+                        }
+                        if ( merge == MERGE_FAILED )
+                            throw new android.database.SQLException("Failed to insert row into " + uri);
+                        // A stored day has both, or it couldn't have been stored
+                        mWeatherIdStatement.bindLong(1,
+                                values.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY));
+                        mWeatherIdStatement.bindLong(2,
+                                values.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE));
+                        _id = mWeatherIdStatement.simpleQueryForLong();
+                    }
                     returnUri = WeatherContract.WeatherEntry.buildWeatherUri(_id);
-                else
-                    throw new android.database.SQLException("Failed to insert row into " + uri);
+                    if (merge == MERGE_UNCHANGED) {
+                        returnUri = returnUri.buildUpon().appendQueryParameter(
+                                WeatherContract.WeatherEntry.PARAM_UNCHANGED, "1").build();
+                        changed = false;
+                    } else {
+                        Long locationId = values.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY);
+                        Long date = values.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+                        if (locationId != null && date != null) {
+                            notifyUri = buildWeatherChangeUri(
+                                    findLocationSetting(db, locationId), date);
+                        }
+                        currentChanged = locationId != null && isCurrentLocation(locationId,
+                                Utility.getPreferredLocation(getContext()));
+                        if (currentChanged) {
+                            invalidateCurrentForecast(db);
+                        }
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
                 break;
             }
             case LOCATION: {
+                if (WeatherContract.LocationEntry.isUpsertUri(uri)) {
+                    // Notifies for itself, once the batch it runs in commits
+                    if (mBatch.get() != null) {
+                        return upsertLocation(db, values);
+                    }
+                    return upsertLocations(new ContentValues[]{values})[0];
+                }
+                long generation = mLocations.getGeneration();
                 long _id = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null, values);
                 if ( _id > 0 )
                     returnUri = WeatherContract.LocationEntry.buildLocationUri(_id);
                 else
                     throw new android.database.SQLException("Failed to insert row into " + uri);
+                onLocationInserted(
+                        values.getAsString(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING),
+                        _id, generation);
+                break;
+            }
+            case SYNC_METRICS: {
+                long _id = db.insert(WeatherContract.SyncMetricsEntry.TABLE_NAME, null, values);
+                if ( _id > 0 )
+                    returnUri = ContentUris.withAppendedId(uri, _id);
+                else
+                    throw new android.database.SQLException("Failed to insert row into " + uri);
                 break;
             }
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        getContext().getContentResolver().notifyChange(uri, null);
+        if (changed) {
+            notifyChange(notifyUri);
+        }
+        if (currentChanged) {
+            notifyCurrentForecastChanged();
+        }
         return returnUri;
     }
 
@@ -262,21 +755,61 @@ public class WeatherProvider extends ContentProvider {
         int rowsDeleted;
         // this makes delete all rows return the number of rows deleted
         if ( null == selection ) selection = "1";
-        switch (match) {
-            case WEATHER:
-                rowsDeleted = db.delete(
-                        WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
-                break;
-            case LOCATION:
-                rowsDeleted = db.delete(
-                        WeatherContract.LocationEntry.TABLE_NAME, selection, selectionArgs);
-                break;
-            default:
-                throw new UnsupportedOperationException("Unknown uri: " + uri);
+        // Deleting weather or locations may change the current forecast, which is rebuilt in
+        // the same transaction.
+        boolean currentChanged = false;
+        boolean historyChanged = false;
+        db.beginTransaction();
+        try {
+            switch (match) {
+                case WEATHER:
+                    if (WeatherContract.WeatherEntry.isArchiveUri(uri)) {
+                        // Keep the days in the history, and apply its retention while we're
+                        // at it; this runs once a sync.
+                        TimeZone timeZone = TimeZone.getDefault();
+                        historyChanged = mArchive.archive(db, selection, selectionArgs, timeZone) > 0;
+                        historyChanged |= mArchive.applyRetention(db, System.currentTimeMillis(),
+                                timeZone);
+                        uri = WeatherContract.WeatherEntry.CONTENT_URI;
+                    }
+                    rowsDeleted = db.delete(
+                            WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
+                    currentChanged = rowsDeleted != 0;
+                    break;
+                case LOCATION:
+                    rowsDeleted = db.delete(
+                            WeatherContract.LocationEntry.TABLE_NAME, selection, selectionArgs);
+                    currentChanged = rowsDeleted != 0;
+                    if (rowsDeleted != 0) {
+                        onLocationsChanged();
+                    }
+                    break;
+                case SYNC_METRICS:
+                    rowsDeleted = db.delete(
+                            WeatherContract.SyncMetricsEntry.TABLE_NAME, selection, selectionArgs);
+                    break;
+                case HISTORY:
+                    rowsDeleted = db.delete(HistoryEntry.TABLE_NAME, selection, selectionArgs);
+                    break;
+                default:
+                    throw new UnsupportedOperationException("Unknown uri: " + uri);
+            }
+            if (currentChanged) {
+                invalidateCurrentForecast(db);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
         }
         // Because a null deletes all rows
         if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
+        }
+        if (historyChanged) {
+            notifyChange(HistoryEntry.CONTENT_URI);
+        }
+        if (currentChanged) {
+            notifyCurrentForecastChanged();
         }
         return rowsDeleted;
     }
@@ -295,59 +828,814 @@ public class WeatherProvider extends ContentProvider {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         int rowsUpdated;
+        boolean currentChanged;
 
-        switch (match) {
-            case WEATHER:
-                normalizeDate(values);
-                rowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME, values, selection,
-                        selectionArgs);
-                break;
-            case LOCATION:
-                rowsUpdated = db.update(WeatherContract.LocationEntry.TABLE_NAME, values, selection,
-                        selectionArgs);
-                break;
-            default:
-                throw new UnsupportedOperationException("Unknown uri: " + uri);
+        db.beginTransaction();
+        try {
+            switch (match) {
+                case WEATHER:
+                    normalizeDate(values);
+                    rowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME, values,
+                            selection, selectionArgs);
+                    currentChanged = rowsUpdated != 0;
+                    break;
+                case LOCATION:
+                    rowsUpdated = db.update(WeatherContract.LocationEntry.TABLE_NAME, values,
+                            selection, selectionArgs);
+                    currentChanged = rowsUpdated != 0 && containsAny(values, CURRENT_LOCATION_COLUMNS);
+                    if (rowsUpdated != 0 && containsAny(values, LOCATION_KEY_COLUMNS)) {
+                        onLocationsChanged();
+                    }
+                    break;
+                default:
+                    throw new UnsupportedOperationException("Unknown uri: " + uri);
+            }
+            if (currentChanged) {
+                invalidateCurrentForecast(db);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
         }
         if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
+        }
+        if (currentChanged) {
+            notifyCurrentForecastChanged();
         }
         return rowsUpdated;
     }
 
+    private static boolean containsAny(ContentValues values, String[] columns) {
+        for (String column : columns) {
+            if (values.containsKey(column)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Rebuilds the current forecast table now, or, inside applyBatch(), once the batch's last
+     * operation has run.  Must be called inside a write transaction.
+     */
+    private void invalidateCurrentForecast(SQLiteDatabase db) {
+        BatchState batch = mBatch.get();
+        if (batch != null) {
+            batch.mCurrentStale = true;
+        } else {
+            refreshCurrentForecast(db);
+        }
+    }
+
+    /**
+     * Rebuilds the current forecast table for the preferred location.  It is small (one
+     * location's days), so rebuilding it whole is cheaper than working out what changed.  Must
+     * be called inside a write transaction.
+     */
+    private void refreshCurrentForecast(SQLiteDatabase db) {
+        String locationSetting = Utility.getPreferredLocation(getContext());
+        long locationId = findLocationId(db, locationSetting);
+
+        synchronized (mCurrentLock) {
+            db.delete(CurrentEntry.TABLE_NAME, null, null);
+            if (locationId != -1) {
+                db.execSQL(SQL_REFRESH_CURRENT, new Object[]{locationSetting});
+            }
+            mCurrentLocationSetting = locationSetting;
+            mCurrentLocationId = locationId;
+        }
+    }
+
+    /**
+     * @return whether the current forecast table was built for a location other than the
+     * preferred one, or hasn't been built since the provider started
+     */
+    private boolean isCurrentForecastStale() {
+        String locationSetting = Utility.getPreferredLocation(getContext());
+        synchronized (mCurrentLock) {
+            return !locationSetting.equals(mCurrentLocationSetting);
+        }
+    }
+
+    /**
+     * @return whether new weather for a location should show up in the current forecast table
+     */
+    private boolean isCurrentLocation(long locationId, String preferredLocationSetting) {
+        synchronized (mCurrentLock) {
+            // If the table is for another location, or the preferred one isn't stored yet, the
+            // table has to be rebuilt anyway.
+            return mCurrentLocationId == -1 || locationId == mCurrentLocationId
+                    || !preferredLocationSetting.equals(mCurrentLocationSetting);
+        }
+    }
+
+    private void notifyCurrentForecastChanged() {
+        notifyChange(CurrentEntry.CONTENT_URI);
+    }
+
+    /**
+     * Tells observers of a uri that it changed, or, inside applyBatch(), queues that for after
+     * the commit.  Either way the notification goes through mNotifier, which sends a burst of
+     * them together.  The cached query results the change affects are dropped straight away,
+     * though, as every write is committed by the time it is notified.
+     */
+    private void notifyChange(Uri uri) {
+        BatchState batch = mBatch.get();
+        if (batch != null) {
+            batch.mNotifications.add(uri);
+        } else {
+            mQueryCache.invalidate(uri);
+            mNotifier.notifyChange(uri);
+        }
+    }
+
+    private void notifyChanges(Set<Uri> uris) {
+        for (Uri uri : uris) {
+            notifyChange(uri);
+        }
+    }
+
+    /**
+     * @return the location setting of a stored location, or null if there is none with that _ID
+     */
+    private String findLocationSetting(SQLiteDatabase db, long locationId) {
+        BatchState batch = mBatch.get();
+        boolean useRegistry = batch == null || !batch.mLocationsChanged;
+        if (batch != null) {
+            for (Map.Entry<String, Long> location : batch.mNewLocations.entrySet()) {
+                if (location.getValue() == locationId) {
+                    return location.getKey();
+                }
+            }
+        }
+        if (useRegistry) {
+            String locationSetting = mLocations.getSetting(locationId);
+            if (locationSetting != null) {
+                return locationSetting;
+            }
+        }
+
+        long generation = mLocations.getGeneration();
+        Cursor cursor = db.query(WeatherContract.LocationEntry.TABLE_NAME,
+                new String[]{WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING},
+                WeatherContract.LocationEntry._ID + " = ?",
+                new String[]{Long.toString(locationId)},
+                null,
+                null,
+                null);
+        String locationSetting;
+        try {
+            locationSetting = cursor.moveToFirst() ? cursor.getString(0) : null;
+        } finally {
+            cursor.close();
+        }
+        if (useRegistry && locationSetting != null) {
+            mLocations.put(locationSetting, locationId, generation);
+        }
+        return locationSetting;
+    }
+
+    /**
+     * @return the _ID of a stored location, or -1 if there is none with that setting
+     */
+    private long findLocationId(SQLiteDatabase db, String locationSetting) {
+        BatchState batch = mBatch.get();
+        boolean useRegistry = batch == null || !batch.mLocationsChanged;
+        if (batch != null) {
+            Long locationId = batch.mNewLocations.get(locationSetting);
+            if (locationId != null) {
+                return locationId;
+            }
+        }
+        if (useRegistry) {
+            long locationId = mLocations.getId(locationSetting);
+            if (locationId != -1) {
+                return locationId;
+            }
+        }
+
+        long generation = mLocations.getGeneration();
+        Cursor cursor = db.query(WeatherContract.LocationEntry.TABLE_NAME,
+                new String[]{WeatherContract.LocationEntry._ID},
+                sLocationSettingSelection,
+                new String[]{locationSetting},
+                null,
+                null,
+                null);
+        long locationId;
+        try {
+            locationId = cursor.moveToFirst() ? cursor.getLong(0) : -1;
+        } finally {
+            cursor.close();
+        }
+        if (useRegistry && locationId != -1) {
+            mLocations.put(locationSetting, locationId, generation);
+        }
+        return locationId;
+    }
+
+    /**
+     * Records a location that was just inserted in mLocations: straight away, or, inside a
+     * batch, once the batch commits.
+     *
+     * @param generation mLocations' generation from before the insert
+     */
+    private void onLocationInserted(String locationSetting, long locationId, long generation) {
+        if (locationSetting == null) {
+            return;
+        }
+        BatchState batch = mBatch.get();
+        if (batch != null) {
+            batch.mNewLocations.put(locationSetting, locationId);
+        } else {
+            mLocations.put(locationSetting, locationId, generation);
+        }
+    }
+
+    /**
+     * Forgets every location in mLocations, as one was renamed or deleted.  Must be called inside
+     * the write transaction, so nobody can look at mLocations between the commit and the clear.
+     */
+    private void onLocationsChanged() {
+        mLocations.clear();
+        BatchState batch = mBatch.get();
+        if (batch != null) {
+            // Lookups for the rest of the batch see changes that may yet be rolled back
+            batch.mLocationsChanged = true;
+            batch.mNewLocations.clear();
+        }
+    }
+
+    /**
+     * Stores a location, or updates the one stored with the same setting, but only if something
+     * differs.  Must be called inside a batch, which sends the notifications once it commits.
+     *
+     * @return the location's uri, marked unchanged if it was already stored as it is
+     */
+    private Uri upsertLocation(SQLiteDatabase db, ContentValues values) {
+        String locationSetting =
+                values.getAsString(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING);
+        if (locationSetting == null) {
+            throw new IllegalArgumentException("Location setting is required");
+        }
+        long locationId = findLocationId(db, locationSetting);
+        if (locationId == -1) {
+            locationId = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null, values);
+            if (locationId == -1) {
+                throw new android.database.SQLException("Failed to insert location " + locationSetting);
+            }
+            onLocationInserted(locationSetting, locationId, mBatch.get().mLocationGeneration);
+            notifyChange(WeatherContract.LocationEntry.CONTENT_URI);
+            return WeatherContract.LocationEntry.buildLocationUri(locationId);
+        }
+
+        // _ID = ? AND NOT (column IS ? AND ...), so that changes() tells an update from a
+        // location that was already up to date
+        StringBuilder selection = new StringBuilder(WeatherContract.LocationEntry._ID)
+                .append(" = ? AND NOT (");
+        ArrayList<String> selectionArgs = new ArrayList<String>(values.size() + 1);
+        selectionArgs.add(Long.toString(locationId));
+        boolean first = true;
+        for (Map.Entry<String, Object> entry : values.valueSet()) {
+            if (!first) {
+                selection.append(" AND ");
+            }
+            first = false;
+            selection.append(entry.getKey());
+            if (entry.getValue() == null) {
+                selection.append(" IS NULL");
+            } else {
+                selection.append(" IS ?");
+                selectionArgs.add(entry.getValue().toString());
+            }
+        }
+        selection.append(')');
+        int rows = db.update(WeatherContract.LocationEntry.TABLE_NAME, values,
+                selection.toString(), selectionArgs.toArray(new String[selectionArgs.size()]));
+
+        Uri locationUri = WeatherContract.LocationEntry.buildLocationUri(locationId);
+        if (rows == 0) {
+            return locationUri.buildUpon().appendQueryParameter(
+                    WeatherContract.LocationEntry.PARAM_UNCHANGED, "1").build();
+        }
+        notifyChange(WeatherContract.LocationEntry.CONTENT_URI);
+        // The city or coordinates may have changed upstream
+        if (containsAny(values, CURRENT_LOCATION_COLUMNS) && isCurrentLocation(locationId,
+                Utility.getPreferredLocation(getContext()))) {
+            invalidateCurrentForecast(db);
+            notifyCurrentForecastChanged();
+        }
+        return locationUri;
+    }
+
+    /**
+     * Stores locations, or updates the ones stored with the same settings, in one transaction.
+     * Each location is only written if something about it differs.
+     *
+     * @return the uris of the locations, in the order given; each is marked unchanged if the
+     * location was already stored as it is
+     */
+    public Uri[] upsertLocations(ContentValues[] values) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        BatchState batch = new BatchState();
+        Uri[] uris = new Uri[values.length];
+        mBatch.set(batch);
+        try {
+            db.beginTransaction();
+            try {
+                batch.mLocationGeneration = mLocations.getGeneration();
+                for (int i = 0; i < values.length; i++) {
+                    uris[i] = upsertLocation(db, values[i]);
+                }
+                if (batch.mCurrentStale || isCurrentForecastStale()) {
+                    refreshCurrentForecast(db);
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        } finally {
+            mBatch.remove();
+        }
+        onBatchCommitted(batch);
+        return uris;
+    }
+
+    /**
+     * Hands what a batch left for its commit to mLocations and the observers.
+     */
+    private void onBatchCommitted(BatchState batch) {
+        for (Map.Entry<String, Long> location : batch.mNewLocations.entrySet()) {
+            mLocations.put(location.getKey(), location.getValue(), batch.mLocationGeneration);
+        }
+        notifyChanges(batch.mNotifications);
+    }
+
+    /**
+     * @return the narrowest uri to notify for a day of weather: weather/[location]/[date], or
+     * the whole table if the location isn't known
+     */
+    private static Uri buildWeatherChangeUri(String locationSetting, long date) {
+        if (locationSetting == null) {
+            return WeatherContract.WeatherEntry.CONTENT_URI;
+        }
+        return WeatherContract.WeatherEntry.buildWeatherLocationWithDate(locationSetting, date);
+    }
+
+    /**
+     * Stores one weather row, unless an identical row for the same day and location is already
+     * there.  Must be called inside a transaction.
+     *
+     * @return one of the MERGE_ constants
+     */
+    private int mergeWeatherRow(SQLiteDatabase db, ContentValues value) {
+        Long date = value.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+        Long locationId = value.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY);
+        if (date == null || locationId == null) {
+            // Without the unique key there's nothing to merge with; let the insert sort it out.
+            return db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value) != -1
+                    ? MERGE_INSERTED : MERGE_FAILED;
+        }
+
+        Cursor existing = db.query(WeatherContract.WeatherEntry.TABLE_NAME,
+                null,
+                sDateAndLocationKeySelection,
+                new String[]{date.toString(), locationId.toString()},
+                null,
+                null,
+                null);
+        try {
+            if (!existing.moveToFirst()) {
+                return db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value) != -1
+                        ? MERGE_INSERTED : MERGE_FAILED;
+            }
+            if (hasSameValues(existing, value)) {
+                return MERGE_UNCHANGED;
+            }
+            long id = existing.getLong(existing.getColumnIndex(WeatherContract.WeatherEntry._ID));
+            int rows = db.update(WeatherContract.WeatherEntry.TABLE_NAME, value,
+                    WeatherContract.WeatherEntry._ID + " = ?", new String[]{Long.toString(id)});
+            return rows > 0 ? MERGE_UPDATED : MERGE_FAILED;
+        } finally {
+            existing.close();
+        }
+    }
+
+    /**
+     * Compares the values about to be written with the current row of a cursor, field by field.
+     */
+    private static boolean hasSameValues(Cursor cursor, ContentValues values) {
+        for (Map.Entry<String, Object> entry : values.valueSet()) {
+            int index = cursor.getColumnIndex(entry.getKey());
+            if (index == -1) {
+                return false;
+            }
+            Object value = entry.getValue();
+            if (value == null) {
+                if (!cursor.isNull(index)) {
+                    return false;
+                }
+            } else if (cursor.isNull(index)) {
+                return false;
+            } else if (value instanceof Number) {
+                if (cursor.getDouble(index) != ((Number) value).doubleValue()) {
+                    return false;
+                }
+            } else if (!value.toString().equals(cursor.getString(index))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Stores days of weather for one location, the way bulkInsert does, but straight from
+     * primitives, for callers in our process that can call the provider directly.
+     */
+    public IngestResult insertWeather(long locationId, ForecastSeries days) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        IngestResult result;
+        Set<Uri> changedUris = new LinkedHashSet<Uri>();
+        db.beginTransaction();
+        try {
+            result = writeForecast(db, locationId, days, changedUris);
+            if (result.currentChanged) {
+                invalidateCurrentForecast(db);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        notifyChanges(changedUris);
+        if (result.currentChanged) {
+            notifyCurrentForecastChanged();
+        }
+        Log.d(LOG_TAG, "insertWeather: " + result);
+        return result;
+    }
+
+    /**
+     * Like applyBatch(), but also stores days of weather the way insertWeather() does, in the
+     * same transaction.  forecasts[i] is stored for the location that
+     * operations[locationOperations[i]] inserted or upserted, as soon as that operation has
+     * been applied, so any operation after it sees the days.  locationOperations has to be in
+     * ascending order.
+     *
+     * @return what storing each forecast did, in the order given
+     */
+    public IngestResult[] applyForecasts(ArrayList<ContentProviderOperation> operations,
+                                         int[] locationOperations, ForecastSeries[] forecasts)
+            throws OperationApplicationException {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        BatchState batch = new BatchState();
+        ContentProviderResult[] results = new ContentProviderResult[operations.size()];
+        IngestResult[] ingested = new IngestResult[forecasts.length];
+        mBatch.set(batch);
+        try {
+            db.beginTransaction();
+            try {
+                batch.mLocationGeneration = mLocations.getGeneration();
+                int next = 0;
+                for (int i = 0; i < operations.size(); i++) {
+                    results[i] = operations.get(i).apply(this, results, i);
+                    for (; next < forecasts.length && locationOperations[next] == i; next++) {
+                        ingested[next] = writeForecast(db, ContentUris.parseId(results[i].uri),
+                                forecasts[next], batch.mNotifications);
+                        if (ingested[next].currentChanged) {
+                            invalidateCurrentForecast(db);
+                            notifyCurrentForecastChanged();
+                        }
+                    }
+                }
+                if (batch.mCurrentStale || isCurrentForecastStale()) {
+                    refreshCurrentForecast(db);
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        } finally {
+            mBatch.remove();
+        }
+        onBatchCommitted(batch);
+        return ingested;
+    }
+
+    /**
+     * Merges one location's days into the weather table through the compiled statements.  Must
+     * be called inside a transaction.
+     *
+     * @param changedUris gets the uris to notify for the days that were added or changed
+     * @return what was written; currentChanged says whether the current forecast table has to
+     * be rebuilt, which is left to the caller
+     */
+    private IngestResult writeForecast(SQLiteDatabase db, long locationId, ForecastSeries days,
+                                       Set<Uri> changedUris) {
+        synchronized (mIngestLock) {
+            prepareIngestStatements(db);
+            TimeZone timeZone = TimeZone.getDefault();
+            String locationSetting = findLocationSetting(db, locationId);
+            int inserted = 0;
+            int updated = 0;
+            for (int i = 0; i < days.size(); i++) {
+                long date = WeatherContract.normalizeDate(days.mDates[i], timeZone);
+                int merge = writeWeatherRow(locationId,
+                        date,
+                        days.mWeatherIds[i],
+                        days.mShortDescs[i],
+                        days.mMinTemps[i],
+                        days.mMaxTemps[i],
+                        days.mHumidities[i],
+                        days.mPressures[i],
+                        days.mWindSpeeds[i],
+                        days.mDegrees[i]);
+                if (merge == MERGE_INSERTED || merge == MERGE_UPDATED) {
+                    if (merge == MERGE_INSERTED) {
+                        inserted++;
+                    } else {
+                        updated++;
+                    }
+                    changedUris.add(buildWeatherChangeUri(locationSetting, date));
+                }
+            }
+            boolean currentChanged = inserted + updated > 0 && isCurrentLocation(locationId,
+                    Utility.getPreferredLocation(getContext()));
+            return new IngestResult(inserted, updated, days.size() - inserted - updated,
+                    currentChanged);
+        }
+    }
+
+    /**
+     * Merges ContentValues rows in one transaction.  Complete rows go through the compiled
+     * statements; anything else falls back to mergeWeatherRow().
+     *
+     * @param changedUris gets the uris to notify for the days that were added or changed
+     */
+    private IngestResult ingestWeather(SQLiteDatabase db, ContentValues[] values,
+                                       Set<Uri> changedUris) {
+        db.beginTransaction();
+        try {
+            synchronized (mIngestLock) {
+                prepareIngestStatements(db);
+                TimeZone timeZone = TimeZone.getDefault();
+                String preferredLocationSetting = Utility.getPreferredLocation(getContext());
+                Map<Long, String> locationSettings = new HashMap<Long, String>();
+                int inserted = 0;
+                int updated = 0;
+                boolean currentAffected = false;
+                boolean currentChanged = false;
+                for (ContentValues value : values) {
+                    int merge;
+                    if (isCompleteWeatherRow(value)) {
+                        merge = writeWeatherRow(value, timeZone);
+                    } else {
+                        normalizeDate(value);
+                        merge = mergeWeatherRow(db, value);
+                    }
+                    if (merge == MERGE_INSERTED || merge == MERGE_UPDATED) {
+                        if (merge == MERGE_INSERTED) {
+                            inserted++;
+                        } else {
+                            updated++;
+                        }
+                        Long locationId = value.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY);
+                        currentAffected |= locationId == null
+                                || isCurrentLocation(locationId, preferredLocationSetting);
+                        Long date = value.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+                        if (locationId == null || date == null) {
+                            changedUris.add(WeatherContract.WeatherEntry.CONTENT_URI);
+                        } else {
+                            if (!locationSettings.containsKey(locationId)) {
+                                locationSettings.put(locationId, findLocationSetting(db, locationId));
+                            }
+                            changedUris.add(buildWeatherChangeUri(
+                                    locationSettings.get(locationId), date));
+                        }
+                    }
+                }
+                if (currentAffected) {
+                    invalidateCurrentForecast(db);
+                    currentChanged = true;
+                }
+                IngestResult result = new IngestResult(inserted, updated,
+                        values.length - inserted - updated, currentChanged);
+                db.setTransactionSuccessful();
+                return result;
+            }
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private static boolean isCompleteWeatherRow(ContentValues value) {
+        for (String column : WEATHER_INGEST_COLUMNS) {
+            if (value.get(column) == null) {
+                return false;
+            }
+        }
+        return value.size() == WEATHER_INGEST_COLUMNS.length;
+    }
+
+    /**
+     * Compiles the ingest statements, or recompiles them if the database was reopened.  Must
+     * be called with mIngestLock held.
+     */
+    private void prepareIngestStatements(SQLiteDatabase db) {
+        if (db == mIngestDb) {
+            return;
+        }
+        closeIngestStatements();
+        mInsertWeatherStatement = db.compileStatement(SQL_INSERT_WEATHER);
+        mUpdateWeatherStatement = db.compileStatement(SQL_UPDATE_WEATHER);
+        mChangesStatement = db.compileStatement("SELECT changes()");
+        mWeatherIdStatement = db.compileStatement(SQL_WEATHER_ID);
+        mIngestDb = db;
+    }
+
+    private void closeIngestStatements() {
+        if (mIngestDb == null) {
+            return;
+        }
+        mInsertWeatherStatement.close();
+        mUpdateWeatherStatement.close();
+        mChangesStatement.close();
+        mWeatherIdStatement.close();
+        mIngestDb = null;
+    }
+
+    /**
+     * Merges one day into the weather table with the compiled statements: inserted if it's new,
+     * updated if it differs from what is stored, otherwise left alone.  Must be called inside a
+     * transaction, with mIngestLock held.
+     *
+     * @return one of the MERGE_ constants
+     */
+    private int writeWeatherRow(long locationId, long date, int weatherId, String shortDesc,
+                                double minTemp, double maxTemp, double humidity,
+                                double pressure, double windSpeed, double degrees) {
+        bindWeatherRow(mInsertWeatherStatement, locationId, date, weatherId, shortDesc,
+                minTemp, maxTemp, humidity, pressure, windSpeed, degrees);
+        if (mInsertWeatherStatement.executeInsert() != -1) {
+            return MERGE_INSERTED;
+        }
+        bindWeatherRow(mUpdateWeatherStatement, locationId, date, weatherId, shortDesc,
+                minTemp, maxTemp, humidity, pressure, windSpeed, degrees);
+        mUpdateWeatherStatement.execute();
+        return mChangesStatement.simpleQueryForLong() > 0 ? MERGE_UPDATED : MERGE_UNCHANGED;
+    }
+
+    /**
+     * writeWeatherRow() for a row that isCompleteWeatherRow().  The normalized date is handed
+     * back in the values, as normalizeDate(ContentValues) does.
+     */
+    private int writeWeatherRow(ContentValues value, TimeZone timeZone) {
+        long date = WeatherContract.normalizeDate(
+                value.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE), timeZone);
+        value.put(WeatherContract.WeatherEntry.COLUMN_DATE, date);
+        return writeWeatherRow(
+                value.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY),
+                date,
+                value.getAsInteger(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID),
+                value.getAsString(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC),
+                value.getAsDouble(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP),
+                value.getAsDouble(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP),
+                value.getAsDouble(WeatherContract.WeatherEntry.COLUMN_HUMIDITY),
+                value.getAsDouble(WeatherContract.WeatherEntry.COLUMN_PRESSURE),
+                value.getAsDouble(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED),
+                value.getAsDouble(WeatherContract.WeatherEntry.COLUMN_DEGREES));
+    }
+
+    private static void bindWeatherRow(SQLiteStatement statement, long locationId, long date,
+                                       int weatherId, String shortDesc, double minTemp,
+                                       double maxTemp, double humidity, double pressure,
+                                       double windSpeed, double degrees) {
+        statement.bindLong(1, locationId);
+        statement.bindLong(2, date);
+        statement.bindLong(3, weatherId);
+        statement.bindString(4, shortDesc);
+        statement.bindDouble(5, minTemp);
+        statement.bindDouble(6, maxTemp);
+        statement.bindDouble(7, humidity);
+        statement.bindDouble(8, pressure);
+        statement.bindDouble(9, windSpeed);
+        statement.bindDouble(10, degrees);
+    }
+
+    /**
+     * Weather rows are merged with what is stored rather than blindly inserted, so the count
+     * returned is the number of days that were added or changed, not the number passed in.
+     * Zero means nothing changed and no observers were notified.
+     */
     @Override
     public int bulkInsert(Uri uri, ContentValues[] values) {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         switch (match) {
-            case WEATHER:
+            case WEATHER: {
+                // Rather than letting ON CONFLICT REPLACE delete and re-insert every day, merge
+                // the incoming days with the stored ones: new days are inserted, days with a
+                // different forecast are updated in place (keeping their _ID), and identical
+                // days aren't written at all.  Observers are only told if something changed.
+                Set<Uri> changedUris = new LinkedHashSet<Uri>();
+                IngestResult result = ingestWeather(db, values, changedUris);
+                notifyChanges(changedUris);
+                if (result.currentChanged) {
+                    notifyCurrentForecastChanged();
+                }
+                Log.d(LOG_TAG, "bulkInsert: " + result);
+                return result.getChanged();
+            }
+            case SYNC_METRICS:
+                // One sync's worth of metrics goes in as one transaction.
                 db.beginTransaction();
-                int returnCount = 0;
+                int metricsCount = 0;
                 try {
                     for (ContentValues value : values) {
-                        normalizeDate(value);
-                        long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
+                        long _id = db.insert(WeatherContract.SyncMetricsEntry.TABLE_NAME, null, value);
                         if (_id != -1) {
-                            returnCount++;
+                            metricsCount++;
                         }
                     }
                     db.setTransactionSuccessful();
                 } finally {
                     db.endTransaction();
                 }
-                getContext().getContentResolver().notifyChange(uri, null);
-                return returnCount;
+                notifyChange(uri);
+                return metricsCount;
             default:
                 return super.bulkInsert(uri, values);
         }
     }
 
+    /**
+     * Applies the operations in one transaction: either all of them are stored or, if one
+     * fails, none are.  Operations can refer back to rows inserted before them, so weather can
+     * go in with the _ID of a location inserted in the same batch.  Observers are notified after
+     * the commit, once for each uri that changed, and the current forecast table is rebuilt at
+     * most once: if the batch changed it, or if it is for another location than the preferred
+     * one.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        BatchState batch = new BatchState();
+        ContentProviderResult[] results;
+        mBatch.set(batch);
+        try {
+            db.beginTransaction();
+            try {
+                batch.mLocationGeneration = mLocations.getGeneration();
+                results = super.applyBatch(operations);
+                // Every sync ends in a batch, so this is where the table catches up with a new
+                // preferred location.
+                if (batch.mCurrentStale || isCurrentForecastStale()) {
+                    refreshCurrentForecast(db);
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        } finally {
+            mBatch.remove();
+        }
+        onBatchCommitted(batch);
+        return results;
+    }
+
+    /**
+     * Copies what the write-ahead log holds back into the database, as far as it can without
+     * waiting for readers that are still looking at older data.  Readers have to search the log
+     * for every page they read, so it is best kept short.  The sync adapter calls this once it
+     * has written everything; see WeatherDbHelper for the rest of the checkpoint policy.
+     */
+    public void checkpoint() {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        // Without an argument this is a passive checkpoint, on every SQLite version we run on.
+        // Outside of WAL mode it does nothing.
+        Cursor cursor = db.rawQuery("PRAGMA wal_checkpoint", null);
+        try {
+            if (cursor.moveToFirst() && cursor.getColumnCount() >= 3) {
+                Log.d(LOG_TAG, "checkpoint: " + cursor.getInt(2) + " of " + cursor.getInt(1)
+                        + " log frames copied");
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
     // You do not need to call this method. This is a method specifically to assist the testing
     // framework in running smoothly. You can read more at:
     // http://developer.android.com/reference/android/content/ContentProvider.html#shutdown()
     @Override
     @TargetApi(11)
     public void shutdown() {
+        mNotifier.flush();
+        mQueryCache.clear();
+        synchronized (mIngestLock) {
+            closeIngestStatements();
+        }
         mOpenHelper.close();
         super.shutdown();
     }
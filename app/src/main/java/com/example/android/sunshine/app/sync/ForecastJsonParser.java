@@ -0,0 +1,355 @@
+package com.example.android.sunshine.app.sync;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.MalformedJsonException;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+
+/**
+ * Parses the OpenWeatherMap daily forecast response.
+ *
+ * The streaming path pulls tokens straight off the network stream with a {@link JsonReader} and
+ * hands each day to the {@link Callback} as soon as it has been read, so the response is never
+ * held in memory as a String or as a JSONObject tree.  The DOM path is the original
+ * JSONObject based parser; it is kept for Gingerbread devices, which don't have JsonReader.
+ */
+public class ForecastJsonParser {
+
+    // Location information
+    static final String OWM_CITY = "city";
+    static final String OWM_CITY_NAME = "name";
+    static final String OWM_COORD = "coord";
+
+    // Location coordinate
+    static final String OWM_LATITUDE = "lat";
+    static final String OWM_LONGITUDE = "lon";
+
+    // Weather information.  Each day's forecast info is an element of the "list" array.
+    static final String OWM_LIST = "list";
+
+    static final String OWM_PRESSURE = "pressure";
+    static final String OWM_HUMIDITY = "humidity";
+    static final String OWM_WINDSPEED = "speed";
+    static final String OWM_WIND_DIRECTION = "deg";
+
+    // All temperatures are children of the "temp" object.
+    static final String OWM_TEMPERATURE = "temp";
+    static final String OWM_MAX = "max";
+    static final String OWM_MIN = "min";
+
+    static final String OWM_WEATHER = "weather";
+    static final String OWM_DESCRIPTION = "main";
+    static final String OWM_WEATHER_ID = "id";
+
+    static final String OWM_MESSAGE_CODE = "cod";
+
+    // Bits used to make sure every field of a day was present, as the DOM parser requires.
+    private static final int FIELD_PRESSURE = 1;
+    private static final int FIELD_HUMIDITY = 1 << 1;
+    private static final int FIELD_WINDSPEED = 1 << 2;
+    private static final int FIELD_WIND_DIRECTION = 1 << 3;
+    private static final int FIELD_WEATHER = 1 << 4;
+    private static final int FIELD_TEMPERATURE = 1 << 5;
+    private static final int FIELD_ALL = (1 << 6) - 1;
+
+    /**
+     * One day of forecast data, exactly as it came from the server.
+     */
+    public static final class ForecastDay {
+        public double pressure;
+        public int humidity;
+        public double windSpeed;
+        public double windDirection;
+        public double high;
+        public double low;
+        public String description;
+        public int weatherId;
+    }
+
+    /**
+     * Receives the parsed pieces of a forecast response.  The city and the days may be
+     * delivered in either order, since OWM doesn't guarantee the order of the top level fields.
+     */
+    public interface Callback {
+        void onCity(String cityName, double lat, double lon);
+
+        /**
+         * @param index the position of the day in the "list" array, 0 being today
+         * @param day the parsed day
+         */
+        void onDay(int index, ForecastDay day);
+    }
+
+    private ForecastJsonParser() {
+    }
+
+    /**
+     * Streams a forecast response from the given input stream.  The stream is not closed.
+     *
+     * @return the "cod" value of the response, or HTTP_OK if the response didn't carry one.  Any
+     * other value means the response was an error and nothing useful was delivered.
+     * @throws IOException if the stream could not be read
+     * @throws JSONException if the response is not a well formed forecast
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    public static int parse(InputStream in, Callback callback) throws IOException, JSONException {
+        JsonReader reader = new JsonReader(new InputStreamReader(in, "UTF-8"));
+        try {
+            return readForecast(reader, callback);
+        } catch (IllegalStateException | NumberFormatException | MalformedJsonException e) {
+            // JsonReader reports structural problems with unchecked exceptions; map them onto
+            // the same exception the DOM parser throws so callers can treat both alike.
+            throw new JSONException(e.getMessage());
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static int readForecast(JsonReader reader, Callback callback)
+            throws IOException, JSONException {
+        boolean hasCity = false;
+        boolean hasList = false;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_MESSAGE_CODE.equals(name)) {
+                int code = (int) reader.nextDouble();
+                if (code != HttpURLConnection.HTTP_OK) {
+                    // There's no point reading the rest of an error response.
+                    return code;
+                }
+            } else if (OWM_CITY.equals(name)) {
+                readCity(reader, callback);
+                hasCity = true;
+            } else if (OWM_LIST.equals(name)) {
+                readList(reader, callback);
+                hasList = true;
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (!hasList) {
+            throw new JSONException("No value for " + OWM_LIST);
+        }
+        if (!hasCity) {
+            throw new JSONException("No value for " + OWM_CITY);
+        }
+        return HttpURLConnection.HTTP_OK;
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void readCity(JsonReader reader, Callback callback)
+            throws IOException, JSONException {
+        String cityName = null;
+        double lat = Double.NaN;
+        double lon = Double.NaN;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_CITY_NAME.equals(name)) {
+                cityName = reader.nextString();
+            } else if (OWM_COORD.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String coordName = reader.nextName();
+                    if (OWM_LATITUDE.equals(coordName)) {
+                        lat = reader.nextDouble();
+                    } else if (OWM_LONGITUDE.equals(coordName)) {
+                        lon = reader.nextDouble();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (cityName == null || Double.isNaN(lat) || Double.isNaN(lon)) {
+            throw new JSONException("Incomplete " + OWM_CITY);
+        }
+        callback.onCity(cityName, lat, lon);
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void readList(JsonReader reader, Callback callback)
+            throws IOException, JSONException {
+        int index = 0;
+        reader.beginArray();
+        while (reader.hasNext()) {
+            callback.onDay(index++, readDay(reader));
+        }
+        reader.endArray();
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static ForecastDay readDay(JsonReader reader) throws IOException, JSONException {
+        ForecastDay day = new ForecastDay();
+        int seen = 0;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_PRESSURE.equals(name)) {
+                day.pressure = reader.nextDouble();
+                seen |= FIELD_PRESSURE;
+            } else if (OWM_HUMIDITY.equals(name)) {
+                day.humidity = (int) reader.nextDouble();
+                seen |= FIELD_HUMIDITY;
+            } else if (OWM_WINDSPEED.equals(name)) {
+                day.windSpeed = reader.nextDouble();
+                seen |= FIELD_WINDSPEED;
+            } else if (OWM_WIND_DIRECTION.equals(name)) {
+                day.windDirection = reader.nextDouble();
+                seen |= FIELD_WIND_DIRECTION;
+            } else if (OWM_WEATHER.equals(name)) {
+                readWeather(reader, day);
+                seen |= FIELD_WEATHER;
+            } else if (OWM_TEMPERATURE.equals(name)) {
+                readTemperature(reader, day);
+                seen |= FIELD_TEMPERATURE;
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (seen != FIELD_ALL) {
+            throw new JSONException("Incomplete day in " + OWM_LIST);
+        }
+        return day;
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void readWeather(JsonReader reader, ForecastDay day)
+            throws IOException, JSONException {
+        // Description is in a child array called "weather", which is 1 element long.
+        // That element also contains a weather code.
+        boolean hasDescription = false;
+        boolean hasWeatherId = false;
+
+        reader.beginArray();
+        if (reader.peek() != JsonToken.END_ARRAY) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (OWM_DESCRIPTION.equals(name)) {
+                    day.description = reader.nextString();
+                    hasDescription = true;
+                } else if (OWM_WEATHER_ID.equals(name)) {
+                    day.weatherId = (int) reader.nextDouble();
+                    hasWeatherId = true;
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        }
+        while (reader.hasNext()) {
+            reader.skipValue();
+        }
+        reader.endArray();
+
+        if (!hasDescription || !hasWeatherId) {
+            throw new JSONException("Incomplete " + OWM_WEATHER);
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void readTemperature(JsonReader reader, ForecastDay day)
+            throws IOException, JSONException {
+        boolean hasMax = false;
+        boolean hasMin = false;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_MAX.equals(name)) {
+                day.high = reader.nextDouble();
+                hasMax = true;
+            } else if (OWM_MIN.equals(name)) {
+                day.low = reader.nextDouble();
+                hasMin = true;
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (!hasMax || !hasMin) {
+            throw new JSONException("Incomplete " + OWM_TEMPERATURE);
+        }
+    }
+
+    /**
+     * Parses a complete forecast response held in a String by building the JSONObject tree.
+     * This is the original parser, used where JsonReader is not available.
+     *
+     * @return the "cod" value of the response, or HTTP_OK if the response didn't carry one.
+     * @throws JSONException if the response is not a well formed forecast
+     */
+    public static int parseDom(String forecastJsonStr, Callback callback) throws JSONException {
+        JSONObject forecastJson = new JSONObject(forecastJsonStr);
+
+        // do we have an error?
+        if (forecastJson.has(OWM_MESSAGE_CODE)) {
+            int errorCode = forecastJson.getInt(OWM_MESSAGE_CODE);
+            if (errorCode != HttpURLConnection.HTTP_OK) {
+                return errorCode;
+            }
+        }
+
+        JSONArray weatherArray = forecastJson.getJSONArray(OWM_LIST);
+
+        JSONObject cityJson = forecastJson.getJSONObject(OWM_CITY);
+        String cityName = cityJson.getString(OWM_CITY_NAME);
+
+        JSONObject cityCoord = cityJson.getJSONObject(OWM_COORD);
+        double cityLatitude = cityCoord.getDouble(OWM_LATITUDE);
+        double cityLongitude = cityCoord.getDouble(OWM_LONGITUDE);
+
+        callback.onCity(cityName, cityLatitude, cityLongitude);
+
+        for (int i = 0; i < weatherArray.length(); i++) {
+            // Get the JSON object representing the day
+            JSONObject dayForecast = weatherArray.getJSONObject(i);
+            ForecastDay day = new ForecastDay();
+
+            day.pressure = dayForecast.getDouble(OWM_PRESSURE);
+            day.humidity = dayForecast.getInt(OWM_HUMIDITY);
+            day.windSpeed = dayForecast.getDouble(OWM_WINDSPEED);
+            day.windDirection = dayForecast.getDouble(OWM_WIND_DIRECTION);
+
+            // Description is in a child array called "weather", which is 1 element long.
+            // That element also contains a weather code.
+            JSONObject weatherObject =
+                    dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
+            day.description = weatherObject.getString(OWM_DESCRIPTION);
+            day.weatherId = weatherObject.getInt(OWM_WEATHER_ID);
+
+            // Temperatures are in a child object called "temp".  Try not to name variables
+            // "temp" when working with temperature.  It confuses everybody.
+            JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
+            day.high = temperatureObject.getDouble(OWM_MAX);
+            day.low = temperatureObject.getDouble(OWM_MIN);
+
+            callback.onDay(i, day);
+        }
+        return HttpURLConnection.HTTP_OK;
+    }
+}
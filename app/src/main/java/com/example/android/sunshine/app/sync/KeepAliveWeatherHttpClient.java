@@ -0,0 +1,136 @@
+package com.example.android.sunshine.app.sync;
+
+import android.net.Uri;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Map;
+
+/**
+ * A {@link WeatherHttpClient} on top of HttpURLConnection that keeps connections alive between
+ * requests.
+ *
+ * HttpURLConnection already pools idle connections per host, but a connection only goes back to
+ * the pool if its body was read to the end and it was not disconnect()ed.  So rather than
+ * disconnecting after every request, responses are drained and closed, and the next location
+ * synced reuses the same socket.
+ */
+public class KeepAliveWeatherHttpClient implements WeatherHttpClient {
+    private static final String LOG_TAG = KeepAliveWeatherHttpClient.class.getSimpleName();
+
+    // Possible parameters are avaiable at OWM's forecast API page, at
+    // http://openweathermap.org/API#forecast
+    public static final String DEFAULT_BASE_URL =
+            "http://api.openweathermap.org/data/2.5/forecast/daily?";
+    public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 15 * 1000;
+    public static final int DEFAULT_READ_TIMEOUT_MILLIS = 20 * 1000;
+
+    // Bodies with more than this left unread are cheaper to drop than to drain.  A whole 14 day
+    // forecast is ~6KB.
+    private static final int MAX_DRAIN_BYTES = 16 * 1024;
+
+    private final String mBaseUrl;
+    private final int mConnectTimeoutMillis;
+    private final int mReadTimeoutMillis;
+
+    public KeepAliveWeatherHttpClient() {
+        this(DEFAULT_BASE_URL, DEFAULT_CONNECT_TIMEOUT_MILLIS, DEFAULT_READ_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * @param baseUrl the daily forecast endpoint, without any query parameters
+     * @param connectTimeoutMillis how long to wait for a connection, 0 for no limit
+     * @param readTimeoutMillis how long to wait for data once connected, 0 for no limit
+     */
+    public KeepAliveWeatherHttpClient(String baseUrl, int connectTimeoutMillis,
+                                      int readTimeoutMillis) {
+        mBaseUrl = baseUrl;
+        mConnectTimeoutMillis = connectTimeoutMillis;
+        mReadTimeoutMillis = readTimeoutMillis;
+    }
+
+    @Override
+    public Uri.Builder buildForecastUri() {
+        return Uri.parse(mBaseUrl).buildUpon();
+    }
+
+    @Override
+    public Response get(Uri uri, Map<String, String> requestHeaders) throws IOException {
+        URL url = new URL(uri.toString());
+
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod("GET");
+        connection.setConnectTimeout(mConnectTimeoutMillis);
+        connection.setReadTimeout(mReadTimeoutMillis);
+        ResponseReader.requestCompression(connection);
+        for (Map.Entry<String, String> header : requestHeaders.entrySet()) {
+            connection.setRequestProperty(header.getKey(), header.getValue());
+        }
+
+        try {
+            connection.connect();
+        } catch (IOException e) {
+            connection.disconnect();
+            throw e;
+        }
+        return new KeepAliveResponse(connection);
+    }
+
+    private static class KeepAliveResponse implements Response {
+        private final HttpURLConnection mConnection;
+        private ResponseReader mBody;
+
+        KeepAliveResponse(HttpURLConnection connection) {
+            mConnection = connection;
+        }
+
+        @Override
+        public int getResponseCode() throws IOException {
+            return mConnection.getResponseCode();
+        }
+
+        @Override
+        public String getHeaderField(String name) {
+            return mConnection.getHeaderField(name);
+        }
+
+        @Override
+        public ResponseReader getBody() throws IOException {
+            if (mBody == null) {
+                mBody = new ResponseReader(mConnection);
+            }
+            return mBody;
+        }
+
+        @Override
+        public void close() {
+            boolean reusable = false;
+            try {
+                ResponseReader body = mBody;
+                if (body == null) {
+                    // Nobody read the body.  It still has to be consumed for the socket to be
+                    // reused; HTTP errors carry theirs on the error stream.
+                    InputStream errorStream = mConnection.getErrorStream();
+                    if (errorStream != null) {
+                        body = new ResponseReader(errorStream, -1, null);
+                    } else if (mConnection.getResponseCode() < HttpURLConnection.HTTP_BAD_REQUEST) {
+                        body = getBody();
+                    }
+                }
+                if (body != null) {
+                    reusable = body.discardRemaining(MAX_DRAIN_BYTES);
+                    body.close();
+                }
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Error closing response", e);
+            }
+            if (!reusable) {
+                // Whatever state the connection is in, it can't serve another request.
+                mConnection.disconnect();
+            }
+        }
+    }
+}
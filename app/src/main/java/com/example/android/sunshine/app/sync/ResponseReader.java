@@ -0,0 +1,227 @@
+package com.example.android.sunshine.app.sync;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads the body of an HTTP response at the byte level.
+ *
+ * We ask for gzip ourselves rather than relying on HttpURLConnection's transparent compression,
+ * because that hides both the encoding and the size of what actually came over the wire.  The
+ * body is exposed either as a decoded stream (for the streaming parser) or read in one go into
+ * a pooled buffer sized from Content-Length, so there's no per-line String building.
+ */
+public class ResponseReader {
+    private static final String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
+    private static final String ENCODING_GZIP = "gzip";
+
+    // Used when the server doesn't tell us how big the body is.  A 14 day forecast is ~6KB.
+    private static final int DEFAULT_BUFFER_SIZE = 8 * 1024;
+    // JSON compresses very well; guess the decoded size of a gzipped body from this ratio.
+    private static final int GZIP_RATIO_GUESS = 6;
+    // Buffers bigger than this are not kept around after a read.
+    private static final int MAX_POOLED_BUFFER_SIZE = 64 * 1024;
+
+    // One buffer per sync thread, reused between syncs.
+    private static final ThreadLocal<byte[]> sBufferPool = new ThreadLocal<byte[]>();
+
+    private final CountingInputStream mWireStream;
+    private final CountingInputStream mDecodedStream;
+    private final int mContentLength;
+    private final boolean mGzipped;
+
+    /**
+     * Asks the server to compress the response.  Must be called before the connection is made.
+     */
+    public static void requestCompression(HttpURLConnection connection) {
+        connection.setRequestProperty(HEADER_ACCEPT_ENCODING, ENCODING_GZIP);
+    }
+
+    /**
+     * @param connection a connected HttpURLConnection with a successful response
+     * @throws IOException if the response body could not be opened
+     */
+    public ResponseReader(HttpURLConnection connection) throws IOException {
+        this(connection.getInputStream(), connection.getContentLength(),
+                connection.getContentEncoding());
+    }
+
+    /**
+     * @param in the raw response body, as it came over the wire
+     * @param contentLength the Content-Length of the response, or -1 if unknown
+     * @param contentEncoding the Content-Encoding of the response, or null
+     * @throws IOException if the response body could not be opened
+     */
+    public ResponseReader(InputStream in, int contentLength, String contentEncoding)
+            throws IOException {
+        if (in == null) {
+            throw new IOException("No response body");
+        }
+        mWireStream = new CountingInputStream(in);
+        mContentLength = contentLength;
+        mGzipped = ENCODING_GZIP.equalsIgnoreCase(contentEncoding);
+        mDecodedStream = new CountingInputStream(
+                mGzipped ? new GZIPInputStream(mWireStream) : mWireStream);
+    }
+
+    /**
+     * @return the decoded response body.  Closing it is left to {@link #close()}.
+     */
+    public InputStream getInputStream() {
+        return mDecodedStream;
+    }
+
+    /**
+     * Reads the whole decoded body into a String.
+     *
+     * @return the body, or null if it was empty
+     */
+    public String readString() throws IOException {
+        byte[] buffer = obtainBuffer(estimateDecodedSize());
+        int length = 0;
+        int read;
+        while ((read = mDecodedStream.read(buffer, length, buffer.length - length)) != -1) {
+            length += read;
+            if (length == buffer.length) {
+                byte[] bigger = new byte[buffer.length * 2];
+                System.arraycopy(buffer, 0, bigger, 0, length);
+                buffer = bigger;
+            }
+        }
+        String body = length == 0 ? null : new String(buffer, 0, length, "UTF-8");
+        recycleBuffer(buffer);
+        return body;
+    }
+
+    /**
+     * @return the number of body bytes received from the network so far
+     */
+    public long getWireBytes() {
+        return mWireStream.getCount();
+    }
+
+    /**
+     * @return the time spent waiting for body bytes from the network so far, in milliseconds.
+     * Whatever else was spent reading the body went into decoding and parsing it.
+     */
+    public long getWireReadMillis() {
+        return mWireStream.getReadNanos() / 1000000;
+    }
+
+    /**
+     * @return the number of body bytes handed out after decompression so far
+     */
+    public long getDecodedBytes() {
+        return mDecodedStream.getCount();
+    }
+
+    public boolean isGzipped() {
+        return mGzipped;
+    }
+
+    public void close() throws IOException {
+        mDecodedStream.close();
+    }
+
+    /**
+     * Reads and throws away whatever is left of the body on the wire, up to maxBytes.  An HTTP
+     * connection can only be reused for the next request once its body has been read to the
+     * end, and the streaming parser stops as soon as it has what it needs.
+     *
+     * @return true if the end of the body was reached
+     */
+    public boolean discardRemaining(int maxBytes) throws IOException {
+        byte[] scratch = new byte[Math.min(maxBytes, 4 * 1024)];
+        int discarded = 0;
+        while (discarded <= maxBytes) {
+            int read = mWireStream.read(scratch);
+            if (read == -1) {
+                return true;
+            }
+            discarded += read;
+        }
+        return false;
+    }
+
+    private int estimateDecodedSize() {
+        if (mContentLength <= 0) {
+            return DEFAULT_BUFFER_SIZE;
+        }
+        // Leave one spare byte so a body that exactly fills the buffer doesn't force it to grow
+        // just to find the end of the stream.
+        return (mGzipped ? mContentLength * GZIP_RATIO_GUESS : mContentLength) + 1;
+    }
+
+    private static byte[] obtainBuffer(int size) {
+        byte[] buffer = sBufferPool.get();
+        if (buffer != null && buffer.length >= size) {
+            sBufferPool.set(null);
+            return buffer;
+        }
+        return new byte[size];
+    }
+
+    private static void recycleBuffer(byte[] buffer) {
+        if (buffer.length <= MAX_POOLED_BUFFER_SIZE) {
+            sBufferPool.set(buffer);
+        }
+    }
+
+    /**
+     * Counts the bytes that are read through it, and the time spent reading them.
+     */
+    static class CountingInputStream extends FilterInputStream {
+        private long mCount;
+        private long mReadNanos;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        long getCount() {
+            return mCount;
+        }
+
+        long getReadNanos() {
+            return mReadNanos;
+        }
+
+        @Override
+        public int read() throws IOException {
+            long start = System.nanoTime();
+            int b = super.read();
+            mReadNanos += System.nanoTime() - start;
+            if (b != -1) {
+                mCount++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            long start = System.nanoTime();
+            int read = super.read(buffer, offset, count);
+            mReadNanos += System.nanoTime() - start;
+            if (read > 0) {
+                mCount += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long byteCount) throws IOException {
+            long skipped = super.skip(byteCount);
+            mCount += skipped;
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            // mark/reset would make the count lie.
+            return false;
+        }
+    }
+}
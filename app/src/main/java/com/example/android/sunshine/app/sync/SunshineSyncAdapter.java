@@ -3,15 +3,19 @@ package com.example.android.sunshine.app.sync;
 import android.accounts.Account;
 import android.accounts.AccountManager;
 import android.annotation.SuppressLint;
+import android.annotation.TargetApi;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.content.AbstractThreadedSyncAdapter;
+import android.content.ContentProvider;
 import android.content.ContentProviderClient;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentResolver;
-import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
+import android.content.OperationApplicationException;
 import android.content.SharedPreferences;
 import android.content.SyncRequest;
 import android.content.SyncResult;
@@ -22,6 +26,8 @@ import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.RemoteException;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
 import android.support.annotation.IntDef;
 import android.support.v4.app.NotificationCompat;
@@ -33,8 +39,12 @@ import com.bumptech.glide.Glide;
 import com.example.android.sunshine.app.BuildConfig;
 import com.example.android.sunshine.app.MainActivity;
 import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.SettingsSnapshot;
 import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.ForecastSeries;
 import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherContract.SyncMetricsEntry;
+import com.example.android.sunshine.app.data.WeatherProvider;
 import com.example.android.sunshine.app.muzei.WeatherMuzeiSource;
 import com.google.android.gms.common.api.ResultCallback;
 import com.google.android.gms.wearable.MessageApi;
@@ -42,45 +52,53 @@ import com.google.android.gms.wearable.Node;
 import com.google.android.gms.wearable.NodeApi;
 import com.google.android.gms.wearable.Wearable;
 
-import org.json.JSONArray;
 import org.json.JSONException;
-import org.json.JSONObject;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.net.HttpURLConnection;
-import java.net.URL;
-import java.util.Vector;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     public final String LOG_TAG = SunshineSyncAdapter.class.getSimpleName();
     public static final String ACTION_DATA_UPDATED =
             "com.example.android.sunshine.app.ACTION_DATA_UPDATED";
-    // Interval at which to sync with the weather, in seconds.
+    // Default interval at which to sync with the weather, in seconds.  SyncScheduler stretches
+    // or shrinks it depending on conditions.
     // 60 seconds (1 minute) * 180 = 3 hours
     public static final int SYNC_INTERVAL = 60 * 180;
     public static final int SYNC_FLEXTIME = SYNC_INTERVAL/3;
+    // Number of days of forecast fetched for each location
+    static final int FORECAST_DAYS = 14;
     private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
     private static final int WEATHER_NOTIFICATION_ID = 3004;
 
 
-    private static final String[] NOTIFY_WEATHER_PROJECTION = new String[] {
-            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
-            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC
+    private static final String HEADER_ETAG = "ETag";
+    private static final String HEADER_LAST_MODIFIED = "Last-Modified";
+    private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    private static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+
+    private static final String[] LOCATION_VALIDATORS_PROJECTION = new String[] {
+            WeatherContract.LocationEntry.COLUMN_ETAG,
+            WeatherContract.LocationEntry.COLUMN_LAST_MODIFIED
     };
 
     // these indices must match the projection
-    private static final int INDEX_WEATHER_ID = 0;
-    private static final int INDEX_MAX_TEMP = 1;
-    private static final int INDEX_MIN_TEMP = 2;
-    private static final int INDEX_SHORT_DESC = 3;
+    private static final int INDEX_VALIDATOR_ETAG = 0;
+    private static final int INDEX_VALIDATOR_LAST_MODIFIED = 1;
 
     @Retention(RetentionPolicy.SOURCE)
     @IntDef({LOCATION_STATUS_OK, LOCATION_STATUS_SERVER_DOWN, LOCATION_STATUS_SERVER_INVALID,  LOCATION_STATUS_UNKNOWN, LOCATION_STATUS_INVALID})
@@ -92,39 +110,304 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     public static final int LOCATION_STATUS_UNKNOWN = 3;
     public static final int LOCATION_STATUS_INVALID = 4;
 
+    private static final String[] LOCATION_SYNC_PROJECTION = new String[] {
+            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+            WeatherContract.LocationEntry.COLUMN_COORD_LAT,
+            WeatherContract.LocationEntry.COLUMN_COORD_LONG
+    };
+
+    // these indices must match the projection
+    private static final int INDEX_LOCATION_SETTING = 0;
+    private static final int INDEX_COORD_LAT = 1;
+    private static final int INDEX_COORD_LONG = 2;
+
+    // How long an idle location worker thread is kept around between syncs.
+    private static final long LOCATION_WORKER_KEEP_ALIVE_SECONDS = 30;
+
+    // How long the sync waits for them, in total, before leaving them to finish on their own.
+    private static final long FAN_OUT_TIMEOUT_MILLIS = 30 * 1000;
+
+    // The things that show today's forecast, updated in parallel after a sync.
+    private final TodayConsumer[] mTodayConsumers = {
+            new TodayConsumer("wearable") {
+                @Override
+                void update(TodayForecast today) {
+                    updateWearable(today);
+                }
+            },
+            new TodayConsumer("widgets") {
+                @Override
+                void update(TodayForecast today) {
+                    updateWidgets(today);
+                }
+            },
+            new TodayConsumer("muzei") {
+                @Override
+                void update(TodayForecast today) {
+                    updateMuzei(today);
+                }
+            },
+            new TodayConsumer("notification") {
+                @Override
+                void update(TodayForecast today) {
+                    notifyWeather(today);
+                }
+            }
+    };
+
+    private ThreadPoolExecutor mLocationExecutor;
+    private ThreadPoolExecutor mFanOutExecutor;
+    private WeatherHttpClient mHttpClient;
+    // The weather provider, when it runs in our process and can be asked to checkpoint its
+    // database.  Set at the start of each sync.
+    private volatile WeatherProvider mLocalProvider;
+
     public SunshineSyncAdapter(Context context, boolean autoInitialize) {
         super(context, autoInitialize);
+        mHttpClient = new KeepAliveWeatherHttpClient();
+    }
+
+    /**
+     * Replaces the transport forecasts are fetched with, e.g. to point the sync at a local test
+     * server.
+     */
+    void setHttpClient(WeatherHttpClient httpClient) {
+        mHttpClient = httpClient;
     }
 
     @Override
     public void onPerformSync(Account account, Bundle extras, String authority, ContentProviderClient provider, SyncResult syncResult) {
         Log.d(LOG_TAG, "Starting sync");
+        Context context = getContext();
+        long syncStart = SystemClock.elapsedRealtime();
+        final SyncMetrics metrics = new SyncMetrics(System.currentTimeMillis());
+        mLocalProvider = getLocalWeatherProvider(provider);
+
+        // While the circuit breaker is open, periodic syncs leave the server alone.  A sync the
+        // user asked for is always let through.
+        long now = System.currentTimeMillis();
+        boolean manual = extras.getBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, false);
+        if (!manual && !SyncBackoff.allowSync(context, now)) {
+            long openUntil = SyncBackoff.getBreakerOpenUntil(context);
+            Log.d(LOG_TAG, "Server has been failing, not syncing for another "
+                    + (openUntil - now) / 1000 + "s");
+            // Reporting this as a soft error has the framework try again, but not before the
+            // breaker closes, rather than waiting for the next periodic sync.
+            syncResult.delayUntil = openUntil / 1000;
+            syncResult.stats.numIoExceptions++;
+            metrics.record(null, SyncMetricsEntry.PHASE_SYNC,
+                    SystemClock.elapsedRealtime() - syncStart, -1,
+                    SyncMetricsEntry.OUTCOME_CIRCUIT_OPEN);
+            metrics.save(context.getContentResolver());
+            return;
+        }
+
+        // We refresh every location we have stored, not just the preferred one, so that switching
+        // back to a city in settings shows current weather straight away.  The locations are
+        // fetched in parallel, and then all stored together in one transaction.
+        List<LocationRequest> locations = getLocationsToSync(context);
+        ExecutorService executor = getLocationExecutor();
+        List<Future<LocationResult>> futures = new ArrayList<Future<LocationResult>>(locations.size());
+        for (final LocationRequest location : locations) {
+            futures.add(executor.submit(new Callable<LocationResult>() {
+                @Override
+                public LocationResult call() {
+                    return syncLocation(location, metrics);
+                }
+            }));
+        }
+
+        List<LocationResult> results = new ArrayList<LocationResult>(futures.size());
+        for (int i = 0; i < futures.size(); i++) {
+            LocationRequest location = locations.get(i);
+            LocationResult result;
+            try {
+                result = futures.get(i).get();
+            } catch (InterruptedException e) {
+                // The sync was cancelled.  Stop whatever hasn't finished yet.
+                for (Future<LocationResult> future : futures) {
+                    future.cancel(true);
+                }
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                Log.e(LOG_TAG, "Error syncing " + location.mLocationSetting, e);
+                result = new LocationResult(LOCATION_STATUS_SERVER_DOWN);
+            }
+            results.add(result);
+        }
+
+        boolean stored = storeForecasts(context, results, metrics, syncResult);
+
+        LocationResult preferredResult = null;
+        int totalChanged = 0;
+        int serverDown = 0;
+        for (int i = 0; i < results.size(); i++) {
+            LocationRequest location = locations.get(i);
+            LocationResult result = results.get(i);
+            result.addTo(syncResult);
+            totalChanged += result.mChanged;
+            if (result.mStatus == LOCATION_STATUS_SERVER_DOWN) {
+                serverDown++;
+            }
+            Log.d(LOG_TAG, "Synced " + location.mLocationSetting + ": " + result);
+            if (location.mPreferred) {
+                preferredResult = result;
+            }
+        }
+
+        if (!stored || (serverDown > 0 && serverDown == locations.size())) {
+            // Nothing got through, or what did couldn't be stored.  The errors in syncResult
+            // already tell the framework to try again; this makes sure it doesn't do so too
+            // eagerly.
+            long retryAt = SyncBackoff.onSyncFailed(context, System.currentTimeMillis());
+            syncResult.delayUntil = retryAt / 1000;
+            Log.d(LOG_TAG, (stored ? "Server down" : "Storing failed") + ", failure "
+                    + SyncBackoff.getConsecutiveFailures(context)
+                    + " in a row, next sync in "
+                    + (retryAt - System.currentTimeMillis()) / 1000 + "s");
+        } else if (locations.size() > 0) {
+            SyncBackoff.onSyncSucceeded(context);
+        }
+
+        // A forecast that was fetched but not stored leaves the status, and the volatility, as
+        // the last sync that stored something left them.
+        if (preferredResult != null && (stored || preferredResult.mForecast == null)) {
+            setLocationStatus(context, preferredResult.mStatus);
+            if (preferredResult.mStatus == LOCATION_STATUS_OK) {
+                SyncScheduler.recordSync(context, preferredResult.mChanged, FORECAST_DAYS);
+            }
+            // Everything that shows the weather shows the preferred location, so there's only
+            // something to tell them about if one of its days changed.
+            if (preferredResult.mChanged > 0) {
+                dispatchToday(context, metrics);
+            }
+        }
+        long syncMillis = SystemClock.elapsedRealtime() - syncStart;
+        metrics.record(null, SyncMetricsEntry.PHASE_SYNC, syncMillis, -1,
+                !stored ? SyncMetricsEntry.OUTCOME_ERROR
+                        : preferredResult != null ? preferredResult.getOutcome()
+                        : SyncMetricsEntry.OUTCOME_UNKNOWN);
+        metrics.save(context.getContentResolver());
+        // Everything for this sync has been written, so now is the time to fold the
+        // write-ahead log back into the database.
+        WeatherProvider localProvider = mLocalProvider;
+        if (localProvider != null) {
+            localProvider.checkpoint();
+        }
+        Log.d(LOG_TAG, "Sync Complete. " + totalChanged + " Changed for "
+                + locations.size() + " locations in " + syncMillis + "ms");
+        SyncScheduler.reschedule(context);
+    }
+
+    /**
+     * Builds the list of locations to fetch: the preferred location first, followed by every
+     * other location stored in the database.
+     */
+    private List<LocationRequest> getLocationsToSync(Context context) {
+        List<LocationRequest> locations = new ArrayList<LocationRequest>();
 
         // We no longer need just the location String, but also potentially the latitude and
         // longitude, in case we are syncing based on a new Place Picker API result.
-        Context context = getContext();
-        String locationQuery = Utility.getPreferredLocation(context);
-        String locationLatitude = String.valueOf(Utility.getLocationLatitude(context));
-        String locationLongitude = String.valueOf(Utility.getLocationLongitude(context));
+        String preferredLocation = Utility.getPreferredLocation(context);
+        if (Utility.isLocationLatLonAvailable(context)) {
+            locations.add(new LocationRequest(preferredLocation, true,
+                    Utility.getLocationLatitude(context), Utility.getLocationLongitude(context)));
+        } else {
+            locations.add(new LocationRequest(preferredLocation));
+        }
+
+        Cursor locationCursor = context.getContentResolver().query(
+                WeatherContract.LocationEntry.CONTENT_URI,
+                LOCATION_SYNC_PROJECTION,
+                null,
+                null,
+                null);
+        if (locationCursor != null) {
+            while (locationCursor.moveToNext()) {
+                String locationSetting = locationCursor.getString(INDEX_LOCATION_SETTING);
+                if (!preferredLocation.equals(locationSetting)) {
+                    // The server may not understand a stored location setting (Place Picker
+                    // addresses, for instance), but it always understands the coordinates it
+                    // gave us for it.
+                    locations.add(new LocationRequest(locationSetting, false,
+                            locationCursor.getDouble(INDEX_COORD_LAT),
+                            locationCursor.getDouble(INDEX_COORD_LONG)));
+                }
+            }
+            locationCursor.close();
+        }
+        return locations;
+    }
+
+    /**
+     * @return the pool that locations are fetched on, bounded by
+     * R.integer.sync_max_concurrent_locations.
+     */
+    private synchronized ExecutorService getLocationExecutor() {
+        if (mLocationExecutor == null) {
+            int maxConcurrent = Math.max(1,
+                    getContext().getResources().getInteger(R.integer.sync_max_concurrent_locations));
+            mLocationExecutor = new ThreadPoolExecutor(maxConcurrent, maxConcurrent,
+                    LOCATION_WORKER_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>());
+            // Don't hold on to threads between periodic syncs.
+            mLocationExecutor.allowCoreThreadTimeOut(true);
+        }
+        return mLocationExecutor;
+    }
+
+    /**
+     * @return the pool that today's forecast is handed to its consumers on, one thread each.
+     */
+    private synchronized ExecutorService getFanOutExecutor() {
+        if (mFanOutExecutor == null) {
+            mFanOutExecutor = new ThreadPoolExecutor(mTodayConsumers.length, mTodayConsumers.length,
+                    LOCATION_WORKER_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>());
+            mFanOutExecutor.allowCoreThreadTimeOut(true);
+        }
+        return mFanOutExecutor;
+    }
 
-        // These two need to be declared outside the try/catch
-        // so that they can be closed in the finally block.
-        HttpURLConnection urlConnection = null;
-        BufferedReader reader = null;
+    /**
+     * Fetches and parses the forecast for one location.  This runs on a location worker thread,
+     * so it must not touch anything that is shared between locations.
+     */
+    LocationResult syncLocation(LocationRequest location, SyncMetrics metrics) {
+        long start = SystemClock.elapsedRealtime();
+        LocationResult result = fetchLocation(location, metrics);
+        // A server error may well be gone a moment later, so give it another couple of tries.
+        for (int attempt = 1;
+             result.mStatus == LOCATION_STATUS_SERVER_DOWN && attempt < SyncBackoff.MAX_ATTEMPTS;
+             attempt++) {
+            long delay = SyncBackoff.retryDelayMillis(attempt - 1);
+            Log.d(LOG_TAG, "Retrying " + location.mLocationSetting + " in " + delay + "ms");
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                // The sync was cancelled.
+                Thread.currentThread().interrupt();
+                break;
+            }
+            result = fetchLocation(location, metrics);
+        }
+        metrics.record(location.mLocationSetting, SyncMetricsEntry.PHASE_LOCATION,
+                SystemClock.elapsedRealtime() - start, -1, result.getOutcome());
+        return result;
+    }
 
-        // Will contain the raw JSON response as a string.
-        String forecastJsonStr = null;
+    private LocationResult fetchLocation(LocationRequest location, SyncMetrics metrics) {
+        // This needs to be declared outside the try/catch
+        // so that it can be closed in the finally block.
+        WeatherHttpClient.Response response = null;
 
         String format = "json";
         String units = "metric";
-        int numDays = 14;
+        int numDays = FORECAST_DAYS;
 
         try {
             // Construct the URL for the OpenWeatherMap query
-            // Possible parameters are avaiable at OWM's forecast API page, at
-            // http://openweathermap.org/API#forecast
-            final String FORECAST_BASE_URL =
-                    "http://api.openweathermap.org/data/2.5/forecast/daily?";
             final String QUERY_PARAM = "q";
             final String LAT_PARAM = "lat";
             final String LON_PARAM = "lon";
@@ -133,7 +416,7 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
             final String DAYS_PARAM = "cnt";
             final String APPID_PARAM = "APPID";
 
-            Uri.Builder uriBuilder = Uri.parse(FORECAST_BASE_URL).buildUpon();
+            Uri.Builder uriBuilder = mHttpClient.buildForecastUri();
 
             // Instead of always building the query based off of the location string, we want to
             // potentially build a query using a lat/lon value. This will be the case when we are
@@ -141,11 +424,11 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
             // if we have a lat/lon to work with, and use those when we do. Otherwise, the weather
             // service may not understand the location address provided by the Place Picker API
             // and the user could end up with no weather! The horror!
-            if (Utility.isLocationLatLonAvailable(context)) {
-                uriBuilder.appendQueryParameter(LAT_PARAM, locationLatitude)
-                        .appendQueryParameter(LON_PARAM, locationLongitude);
+            if (location.mUseLatLon) {
+                uriBuilder.appendQueryParameter(LAT_PARAM, String.valueOf(location.mLatitude))
+                        .appendQueryParameter(LON_PARAM, String.valueOf(location.mLongitude));
             } else {
-                uriBuilder.appendQueryParameter(QUERY_PARAM, locationQuery);
+                uriBuilder.appendQueryParameter(QUERY_PARAM, location.mLocationSetting);
             }
 
             Uri builtUri = uriBuilder.appendQueryParameter(FORMAT_PARAM, format)
@@ -154,263 +437,508 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
                     .appendQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
                     .build();
 
-            URL url = new URL(builtUri.toString());
-
-            // Create the request to OpenWeatherMap, and open the connection
-            urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.setRequestMethod("GET");
-            urlConnection.connect();
-
-            // Read the input stream into a String
-            InputStream inputStream = urlConnection.getInputStream();
-            StringBuffer buffer = new StringBuffer();
-            if (inputStream == null) {
-                // Nothing to do.
-                return;
+            // If we've stored a forecast for this location before, only ask for a new one if it
+            // has changed since.
+            Map<String, String> requestHeaders = new HashMap<String, String>();
+            String[] validators = getLocationValidators(location.mLocationSetting);
+            if (validators[INDEX_VALIDATOR_ETAG] != null) {
+                requestHeaders.put(HEADER_IF_NONE_MATCH, validators[INDEX_VALIDATOR_ETAG]);
             }
-            reader = new BufferedReader(new InputStreamReader(inputStream));
-
-            String line;
-            while ((line = reader.readLine()) != null) {
-                // Since it's JSON, adding a newline isn't necessary (it won't affect parsing)
-                // But it does make debugging a *lot* easier if you print out the completed
-                // buffer for debugging.
-                buffer.append(line + "\n");
+            if (validators[INDEX_VALIDATOR_LAST_MODIFIED] != null) {
+                requestHeaders.put(HEADER_IF_MODIFIED_SINCE,
+                        validators[INDEX_VALIDATOR_LAST_MODIFIED]);
             }
 
-            if (buffer.length() == 0) {
-                // Stream was empty.  No point in parsing.
-                setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                return;
+            // Make the request to OpenWeatherMap
+            long requestStart = SystemClock.elapsedRealtime();
+            response = mHttpClient.get(builtUri, requestHeaders);
+            long connected = SystemClock.elapsedRealtime();
+            metrics.record(location.mLocationSetting, SyncMetricsEntry.PHASE_CONNECT,
+                    connected - requestStart);
+            // Waits for the response headers
+            int responseCode = response.getResponseCode();
+            metrics.record(location.mLocationSetting, SyncMetricsEntry.PHASE_FIRST_BYTE,
+                    SystemClock.elapsedRealtime() - connected);
+
+            if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                // What we have is still current, so there's nothing to parse, store or tell
+                // anybody about.
+                return LocationResult.notModified();
+            }
+            if (responseCode >= HttpURLConnection.HTTP_BAD_REQUEST) {
+                // HttpURLConnection throws for the body of an error, which would pass for an
+                // IO error, and be retried as one.
+                Log.w(LOG_TAG, "HTTP " + responseCode + " for " + location.mLocationSetting);
+                return new LocationResult(getStatusForErrorCode(responseCode));
             }
-            forecastJsonStr = buffer.toString();
-            getWeatherDataFromJson(forecastJsonStr, locationQuery);
+
+            return getWeatherDataFromStream(response.getBody(), location.mLocationSetting,
+                    response.getHeaderField(HEADER_ETAG),
+                    response.getHeaderField(HEADER_LAST_MODIFIED), metrics);
         } catch (IOException e) {
             Log.e(LOG_TAG, "Error ", e);
             // If the code didn't successfully get the weather data, there's no point in attempting
             // to parse it.
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
+            return new LocationResult(LOCATION_STATUS_SERVER_DOWN);
         } catch (JSONException e) {
             Log.e(LOG_TAG, e.getMessage(), e);
             e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
+            return new LocationResult(LOCATION_STATUS_SERVER_INVALID);
         } finally {
-            if (urlConnection != null) {
-                urlConnection.disconnect();
-            }
-            if (reader != null) {
-                try {
-                    reader.close();
-                } catch (final IOException e) {
-                    Log.e(LOG_TAG, "Error closing stream", e);
-                }
+            if (response != null) {
+                // Closing the response rather than disconnecting lets the next location reuse
+                // the connection.
+                response.close();
             }
         }
-        return;
     }
 
     /**
-     * Take the String representing the complete forecast in JSON Format and
-     * pull out the data we need to construct the Strings needed for the wireframes.
+     * Sorts an HTTP error into a location status.  Only a server error is worth retrying, and
+     * only it counts towards the circuit breaker; anything the server has turned down (a bad API
+     * key, a malformed request) would be turned down again, so it's a hard error.
      *
-     * Fortunately parsing is easy:  constructor takes the JSON string and converts it
-     * into an Object hierarchy for us.
+     * @param responseCode an HTTP status code of 400 or above
      */
-    private void getWeatherDataFromJson(String forecastJsonStr,
-                                        String locationSetting)
-            throws JSONException {
-
-        // Now we have a String representing the complete forecast in JSON Format.
-        // Fortunately parsing is easy:  constructor takes the JSON string and converts it
-        // into an Object hierarchy for us.
-
-        // These are the names of the JSON objects that need to be extracted.
-
-        // Location information
-        final String OWM_CITY = "city";
-        final String OWM_CITY_NAME = "name";
-        final String OWM_COORD = "coord";
-
-        // Location coordinate
-        final String OWM_LATITUDE = "lat";
-        final String OWM_LONGITUDE = "lon";
-
-        // Weather information.  Each day's forecast info is an element of the "list" array.
-        final String OWM_LIST = "list";
-
-        final String OWM_PRESSURE = "pressure";
-        final String OWM_HUMIDITY = "humidity";
-        final String OWM_WINDSPEED = "speed";
-        final String OWM_WIND_DIRECTION = "deg";
+    @LocationStatus
+    static int getStatusForErrorCode(int responseCode) {
+        if (responseCode >= HttpURLConnection.HTTP_INTERNAL_ERROR) {
+            return LOCATION_STATUS_SERVER_DOWN;
+        } else if (responseCode == HttpURLConnection.HTTP_NOT_FOUND) {
+            // OpenWeatherMap doesn't know the location
+            return LOCATION_STATUS_INVALID;
+        }
+        return LOCATION_STATUS_SERVER_INVALID;
+    }
 
-        // All temperatures are children of the "temp" object.
-        final String OWM_TEMPERATURE = "temp";
-        final String OWM_MAX = "max";
-        final String OWM_MIN = "min";
+    /**
+     * Parse the forecast JSON as it comes off the network, into a result for storeForecasts().
+     *
+     * On Honeycomb and up the response is streamed through a JsonReader, so each day is turned
+     * into a ForecastSeries row as soon as it has been read and the raw response is never held in
+     * memory.  Older devices buffer the response and fall back to the JSONObject parser.
+     */
+    private LocationResult getWeatherDataFromStream(ResponseReader responseReader,
+                                                    String locationSetting,
+                                                    String eTag, String lastModified,
+                                                    SyncMetrics metrics)
+            throws IOException, JSONException {
+        ForecastCollector collector = new ForecastCollector();
+        int code;
+        long bodyStart = SystemClock.elapsedRealtime();
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            code = ForecastJsonParser.parse(responseReader.getInputStream(), collector);
+        } else {
+            String forecastJsonStr = responseReader.readString();
+            if (forecastJsonStr == null) {
+                // Stream was empty.  No point in parsing.
+                return new LocationResult(LOCATION_STATUS_SERVER_DOWN);
+            }
+            code = ForecastJsonParser.parseDom(forecastJsonStr, collector);
+        }
+        Log.d(LOG_TAG, "Read " + responseReader.getWireBytes() + " bytes, "
+                + responseReader.getDecodedBytes() + " decoded"
+                + (responseReader.isGzipped() ? " (gzip)" : ""));
+        // The body is parsed as it arrives, so the time spent blocked on the network is the
+        // download and the rest is decoding and parsing.
+        long bodyMillis = SystemClock.elapsedRealtime() - bodyStart;
+        long downloadMillis = Math.min(bodyMillis, responseReader.getWireReadMillis());
+        metrics.record(locationSetting, SyncMetricsEntry.PHASE_DOWNLOAD, downloadMillis,
+                responseReader.getWireBytes(), null);
+        metrics.record(locationSetting, SyncMetricsEntry.PHASE_PARSE, bodyMillis - downloadMillis,
+                responseReader.getDecodedBytes(), null);
+
+        switch (code) {
+            case HttpURLConnection.HTTP_OK:
+                break;
+            case HttpURLConnection.HTTP_NOT_FOUND:
+                return new LocationResult(LOCATION_STATUS_INVALID);
+            default:
+                return new LocationResult(LOCATION_STATUS_SERVER_DOWN);
+        }
 
-        final String OWM_WEATHER = "weather";
-        final String OWM_DESCRIPTION = "main";
-        final String OWM_WEATHER_ID = "id";
+        LocationResult result = new LocationResult(LOCATION_STATUS_OK);
+        result.mForecast = collector;
+        result.mLocationSetting = locationSetting;
+        result.mETag = eTag;
+        result.mLastModified = lastModified;
+        return result;
+    }
 
-        final String OWM_MESSAGE_CODE = "cod";
+    /**
+     * Stores every forecast that was fetched, and archives the days before yesterday, as one
+     * batch that the provider applies in a single transaction.  Each location is upserted first,
+     * which stores it or refreshes its city, coordinates and validators without a lookup of our
+     * own.  The provider merges the days with the ones already stored.  When it runs in our
+     * process it is handed each location's ForecastSeries and writes the days straight from
+     * it, with the location's _ID from the upsert, and says how many were new or different.
+     * Otherwise every day is an insert referring back to its location, and each insert's uri
+     * says whether its day was new or different.  Either way that ends up in mChanged.
+     *
+     * The cache validators are stored with the forecast they came with, so a failed sync never
+     * leaves us answering "not modified" for data we don't have.
+     *
+     * @return whether the batch was stored; if it wasn't, nothing was
+     */
+    private boolean storeForecasts(Context context, List<LocationResult> results,
+                                SyncMetrics metrics, SyncResult syncResult) {
+        WeatherProvider localProvider = mLocalProvider;
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        List<Integer> locationOperations = new ArrayList<Integer>();
+        List<ForecastSeries> forecasts = new ArrayList<ForecastSeries>();
+        for (LocationResult result : results) {
+            ForecastCollector forecast = result.mForecast;
+            if (forecast == null) {
+                continue;
+            }
+            ContentValues locationValues = new ContentValues();
+            locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, forecast.mCityName);
+            locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+                    result.mLocationSetting);
+            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT,
+                    forecast.mCityLatitude);
+            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG,
+                    forecast.mCityLongitude);
+            locationValues.put(WeatherContract.LocationEntry.COLUMN_ETAG, result.mETag);
+            locationValues.put(WeatherContract.LocationEntry.COLUMN_LAST_MODIFIED,
+                    result.mLastModified);
+            int locationOperation = operations.size();
+            operations.add(ContentProviderOperation
+                    .newInsert(WeatherContract.LocationEntry.buildUpsertUri())
+                    .withValues(locationValues)
+                    .build());
+
+            ForecastSeries days = forecast.mDays;
+            if (localProvider != null) {
+                // The provider writes the days itself, once the location is in
+                locationOperations.add(locationOperation);
+                forecasts.add(days);
+                continue;
+            }
+            result.mFirstWeatherOperation = operations.size();
+            for (int i = 0; i < days.size(); i++) {
+                operations.add(ContentProviderOperation
+                        .newInsert(WeatherContract.WeatherEntry.CONTENT_URI)
+                        .withValues(days.getContentValues(i))
+                        .withValueBackReference(WeatherContract.WeatherEntry.COLUMN_LOC_KEY,
+                                locationOperation)
+                        .build());
+            }
+        }
 
+        // move old days out into the history, so the forecast table stays small.  The provider
+        // applies the history's retention at the same time.  This only notifies anybody if a day
+        // actually rolled off.
+        operations.add(ContentProviderOperation
+                .newDelete(WeatherContract.WeatherEntry.buildArchiveUri())
+                .withSelection(WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
+                        new String[] {Long.toString(getUtcDateForDay(getJulianToday(), -1))})
+                .build());
+
+        long applyStart = SystemClock.elapsedRealtime();
+        ContentProviderResult[] applied = null;
+        WeatherProvider.IngestResult[] ingested = null;
         try {
-            JSONObject forecastJson = new JSONObject(forecastJsonStr);
-            Context context = getContext();
-
-            // do we have an error?
-            if ( forecastJson.has(OWM_MESSAGE_CODE) ) {
-                int errorCode = forecastJson.getInt(OWM_MESSAGE_CODE);
-
-                switch (errorCode) {
-                    case HttpURLConnection.HTTP_OK:
-                        break;
-                    case HttpURLConnection.HTTP_NOT_FOUND:
-                        setLocationStatus(getContext(), LOCATION_STATUS_INVALID);
-                        return;
-                    default:
-                        setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                        return;
+            if (localProvider != null) {
+                int[] locationIndexes = new int[locationOperations.size()];
+                for (int i = 0; i < locationIndexes.length; i++) {
+                    locationIndexes[i] = locationOperations.get(i);
                 }
+                ingested = localProvider.applyForecasts(operations, locationIndexes,
+                        forecasts.toArray(new ForecastSeries[forecasts.size()]));
+            } else {
+                applied = context.getContentResolver().applyBatch(
+                        WeatherContract.CONTENT_AUTHORITY, operations);
             }
+        } catch (RemoteException | OperationApplicationException e) {
+            // Nothing was stored; the validators went with it, so the next sync fetches again.
+            Log.e(LOG_TAG, "Error storing forecasts", e);
+            syncResult.databaseError = true;
+        }
+        metrics.record(null, SyncMetricsEntry.PHASE_APPLY_BATCH,
+                SystemClock.elapsedRealtime() - applyStart);
 
-            JSONArray weatherArray = forecastJson.getJSONArray(OWM_LIST);
-
-            JSONObject cityJson = forecastJson.getJSONObject(OWM_CITY);
-            String cityName = cityJson.getString(OWM_CITY_NAME);
-
-            JSONObject cityCoord = cityJson.getJSONObject(OWM_COORD);
-            double cityLatitude = cityCoord.getDouble(OWM_LATITUDE);
-            double cityLongitude = cityCoord.getDouble(OWM_LONGITUDE);
+        int stored = 0;
+        for (LocationResult result : results) {
+            if (result.mForecast == null) {
+                continue;
+            }
+            int changed = 0;
+            if (ingested != null) {
+                changed = ingested[stored++].getChanged();
+            } else if (applied != null) {
+                int days = result.mForecast.mDays.size();
+                for (int i = 0; i < days; i++) {
+                    Uri uri = applied[result.mFirstWeatherOperation + i].uri;
+                    if (uri != null && !WeatherContract.WeatherEntry.isUnchangedUri(uri)) {
+                        changed++;
+                    }
+                }
+            }
+            result.mChanged = changed;
+        }
+        return applied != null || ingested != null;
+    }
 
-            long locationId = addLocation(locationSetting, cityName, cityLatitude, cityLongitude);
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static WeatherProvider getLocalWeatherProvider(ContentProviderClient provider) {
+        if (provider == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return null;
+        }
+        ContentProvider localProvider = provider.getLocalContentProvider();
+        return localProvider instanceof WeatherProvider ? (WeatherProvider) localProvider : null;
+    }
 
-            // Insert the new weather information into the database
-            Vector<ContentValues> cVVector = new Vector<ContentValues>(weatherArray.length());
+    /**
+     * A location to fetch the forecast for.
+     */
+    static final class LocationRequest {
+        final String mLocationSetting;
+        final boolean mPreferred;
+        final boolean mUseLatLon;
+        final double mLatitude;
+        final double mLongitude;
+
+        LocationRequest(String locationSetting) {
+            mLocationSetting = locationSetting;
+            mPreferred = true;
+            mUseLatLon = false;
+            mLatitude = Utility.DEFAULT_LATLONG;
+            mLongitude = Utility.DEFAULT_LATLONG;
+        }
 
-            // OWM returns daily forecasts based upon the local time of the city that is being
-            // asked for, which means that we need to know the GMT offset to translate this data
-            // properly.
+        LocationRequest(String locationSetting, boolean preferred, double lat, double lon) {
+            mLocationSetting = locationSetting;
+            mPreferred = preferred;
+            mUseLatLon = true;
+            mLatitude = lat;
+            mLongitude = lon;
+        }
+    }
 
-            // Since this data is also sent in-order and the first day is always the
-            // current day, we're going to take advantage of that to get a nice
-            // normalized UTC date for all of our weather.
+    /**
+     * The outcome of fetching one location.
+     */
+    static final class LocationResult {
+        @LocationStatus final int mStatus;
+        boolean mNotModified;
+        int mChanged;
+
+        // What storeForecasts() needs to store a forecast that was fetched and parsed.
+        ForecastCollector mForecast;
+        String mLocationSetting;
+        String mETag;
+        String mLastModified;
+        // The index of the location's first day in the batch, when the days go in as inserts
+        int mFirstWeatherOperation = -1;
+
+        LocationResult(@LocationStatus int status) {
+            mStatus = status;
+        }
 
-            Time dayTime = new Time();
-            dayTime.setToNow();
+        static LocationResult notModified() {
+            LocationResult result = new LocationResult(LOCATION_STATUS_OK);
+            result.mNotModified = true;
+            return result;
+        }
 
-            // we start at the day returned by local time. Otherwise this is a mess.
-            int julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
+        /**
+         * Adds this location's outcome to the stats the sync framework sees.  IO exceptions are
+         * soft errors, which the framework retries with a backoff; parse exceptions are hard
+         * errors, which it doesn't.
+         */
+        void addTo(SyncResult syncResult) {
+            switch (mStatus) {
+                case LOCATION_STATUS_OK:
+                    if (mNotModified) {
+                        syncResult.stats.numSkippedEntries++;
+                    } else {
+                        syncResult.stats.numInserts += mChanged;
+                        syncResult.stats.numEntries += mChanged;
+                    }
+                    break;
+                case LOCATION_STATUS_SERVER_DOWN:
+                    syncResult.stats.numIoExceptions++;
+                    break;
+                case LOCATION_STATUS_SERVER_INVALID:
+                    syncResult.stats.numParseExceptions++;
+                    break;
+                default:
+                    // An invalid location is the user's to fix, not something a retry will help.
+                    syncResult.stats.numSkippedEntries++;
+            }
+        }
 
-            // now we work exclusively in UTC
-            dayTime = new Time();
+        /**
+         * @return the SyncMetricsEntry.OUTCOME_ value for this result
+         */
+        String getOutcome() {
+            if (mNotModified) {
+                return SyncMetricsEntry.OUTCOME_NOT_MODIFIED;
+            }
+            switch (mStatus) {
+                case LOCATION_STATUS_OK:
+                    return SyncMetricsEntry.OUTCOME_OK;
+                case LOCATION_STATUS_SERVER_DOWN:
+                    return SyncMetricsEntry.OUTCOME_SERVER_DOWN;
+                case LOCATION_STATUS_SERVER_INVALID:
+                    return SyncMetricsEntry.OUTCOME_SERVER_INVALID;
+                case LOCATION_STATUS_INVALID:
+                    return SyncMetricsEntry.OUTCOME_INVALID;
+                default:
+                    return SyncMetricsEntry.OUTCOME_UNKNOWN;
+            }
+        }
 
-            for(int i = 0; i < weatherArray.length(); i++) {
-                // These are the values that will be collected.
-                long dateTime;
-                double pressure;
-                int humidity;
-                double windSpeed;
-                double windDirection;
+        @Override
+        public String toString() {
+            if (mNotModified) {
+                return "not modified";
+            }
+            return "status " + mStatus + ", " + mChanged + " changed";
+        }
+    }
 
-                double high;
-                double low;
+    /**
+     * Turns the days delivered by {@link ForecastJsonParser} into a ForecastSeries.  The location
+     * key is supplied when the batch is stored, once the city has been resolved, since the city
+     * block may come after the list.
+     */
+    private static class ForecastCollector implements ForecastJsonParser.Callback {
+        final ForecastSeries mDays = new ForecastSeries(FORECAST_DAYS);
+        final int mJulianStartDay;
 
-                String description;
-                int weatherId;
+        String mCityName;
+        double mCityLatitude;
+        double mCityLongitude;
 
-                // Get the JSON object representing the day
-                JSONObject dayForecast = weatherArray.getJSONObject(i);
+        ForecastCollector() {
+            mJulianStartDay = getJulianToday();
+        }
 
-                // Cheating to convert this to UTC time, which is what we want anyhow
-                dateTime = dayTime.setJulianDay(julianStartDay+i);
+        long getDateForDay(int index) {
+            return getUtcDateForDay(mJulianStartDay, index);
+        }
 
-                pressure = dayForecast.getDouble(OWM_PRESSURE);
-                humidity = dayForecast.getInt(OWM_HUMIDITY);
-                windSpeed = dayForecast.getDouble(OWM_WINDSPEED);
-                windDirection = dayForecast.getDouble(OWM_WIND_DIRECTION);
+        @Override
+        public void onCity(String cityName, double lat, double lon) {
+            mCityName = cityName;
+            mCityLatitude = lat;
+            mCityLongitude = lon;
+        }
 
-                // Description is in a child array called "weather", which is 1 element long.
-                // That element also contains a weather code.
-                JSONObject weatherObject =
-                        dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
-                description = weatherObject.getString(OWM_DESCRIPTION);
-                weatherId = weatherObject.getInt(OWM_WEATHER_ID);
+        @Override
+        public void onDay(int index, ForecastJsonParser.ForecastDay day) {
+            mDays.add(getDateForDay(index), day.weatherId, day.description, day.low, day.high,
+                    day.humidity, day.pressure, day.windSpeed, day.windDirection);
+        }
+    }
 
-                // Temperatures are in a child object called "temp".  Try not to name variables
-                // "temp" when working with temperature.  It confuses everybody.
-                JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
-                high = temperatureObject.getDouble(OWM_MAX);
-                low = temperatureObject.getDouble(OWM_MIN);
+    /**
+     * @return the julian day of today in local time.
+     */
+    static int getJulianToday() {
+        // OWM returns daily forecasts based upon the local time of the city that is being
+        // asked for, which means that we need to know the GMT offset to translate this data
+        // properly.
 
-                ContentValues weatherValues = new ContentValues();
+        // Since this data is also sent in-order and the first day is always the
+        // current day, we're going to take advantage of that to get a nice
+        // normalized UTC date for all of our weather.
 
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, dateTime);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, humidity);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, pressure);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, windSpeed);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, windDirection);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, high);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, low);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, description);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherId);
+        Time dayTime = new Time();
+        dayTime.setToNow();
 
-                cVVector.add(weatherValues);
-            }
+        // we start at the day returned by local time. Otherwise this is a mess.
+        return Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
+    }
 
-            int inserted = 0;
-            // add to database
-            if ( cVVector.size() > 0 ) {
-                ContentValues[] cvArray = new ContentValues[cVVector.size()];
-                cVVector.toArray(cvArray);
-                getContext().getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, cvArray);
+    /**
+     * @return the normalized UTC date of the day dayOffset days after julianStartDay.
+     */
+    static long getUtcDateForDay(int julianStartDay, int dayOffset) {
+        // now we work exclusively in UTC.  Cheating to convert this to UTC time, which is what we
+        // want anyhow
+        return new Time().setJulianDay(julianStartDay + dayOffset);
+    }
 
-                // delete old data so we don't build up an endless history
-                getContext().getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI,
-                        WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
-                        new String[] {Long.toString(dayTime.setJulianDay(julianStartDay-1))});
+    /**
+     * Reads today's forecast for the preferred location once, and hands that snapshot to the
+     * wearable, the widgets, Muzei and the notification.  They run in parallel, so a slow one
+     * (the Wear node lookup, or Glide fetching the notification icon) doesn't hold up the
+     * others.  The sync waits a bounded time for them, so its wake lock covers their work.
+     */
+    private void dispatchToday(Context context, final SyncMetrics metrics) {
+        final TodayForecast today =
+                TodayForecast.query(context, Utility.getPreferredLocation(context));
+        if (today == null) {
+            Log.d(LOG_TAG, "No forecast for today to hand out");
+            return;
+        }
 
-                updateWearable();
-                updateWidgets();
-                updateMuzei();
-                notifyWeather();
+        ExecutorService executor = getFanOutExecutor();
+        List<Future<?>> futures = new ArrayList<Future<?>>(mTodayConsumers.length);
+        for (final TodayConsumer consumer : mTodayConsumers) {
+            futures.add(executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    long start = SystemClock.elapsedRealtime();
+                    String outcome = SyncMetricsEntry.OUTCOME_OK;
+                    try {
+                        consumer.update(today);
+                    } catch (RuntimeException e) {
+                        Log.e(LOG_TAG, "Error updating " + consumer.mName, e);
+                        outcome = SyncMetricsEntry.OUTCOME_ERROR;
+                    }
+                    long millis = SystemClock.elapsedRealtime() - start;
+                    metrics.record(null, SyncMetricsEntry.PHASE_FAN_OUT + consumer.mName, millis, -1,
+                            outcome);
+                    Log.d(LOG_TAG, "Updated " + consumer.mName + " in " + millis + "ms");
+                }
+            }));
+        }
 
+        long deadline = SystemClock.elapsedRealtime() + FAN_OUT_TIMEOUT_MILLIS;
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                futures.get(i).get(Math.max(0, deadline - SystemClock.elapsedRealtime()),
+                        TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                Log.w(LOG_TAG, "Still updating " + mTodayConsumers[i].mName + ", not waiting for it");
+            } catch (ExecutionException e) {
+                Log.e(LOG_TAG, "Error updating " + mTodayConsumers[i].mName, e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
             }
-            Log.d(LOG_TAG, "Sync Complete. " + cVVector.size() + " Inserted");
-            setLocationStatus(getContext(), LOCATION_STATUS_OK);
+        }
+    }
 
-        } catch (JSONException e) {
-            Log.e(LOG_TAG, e.getMessage(), e);
-            e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
+    /**
+     * Something that shows today's forecast.  The name goes into the logs and, after
+     * PHASE_FAN_OUT, into the sync metrics.
+     */
+    private abstract static class TodayConsumer {
+        final String mName;
+
+        TodayConsumer(String name) {
+            mName = name;
         }
+
+        abstract void update(TodayForecast today);
     }
 
-    private void updateWearable() {
+    private void updateWearable(TodayForecast today) {
         Context context = getContext();
 
-        String forecast = new String("");
-
         NodeApi.GetConnectedNodesResult nodes =
                 Wearable.NodeApi.getConnectedNodes(MainActivity.mGoogleApiClient).await();
+        SyncScheduler.setWearableConnected(context, !nodes.getNodes().isEmpty());
 
-        String locationQuery = Utility.getPreferredLocation(context);
-
-        Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(locationQuery, System.currentTimeMillis());
-
-        // we'll query our contentProvider, as always
-        Cursor cursor = context.getContentResolver().query(weatherUri, NOTIFY_WEATHER_PROJECTION, null, null, null);
-
-        if (cursor.moveToFirst()) {
-            int weatherId = cursor.getInt(INDEX_WEATHER_ID);
-            double high = cursor.getDouble(INDEX_MAX_TEMP);
-            double low = cursor.getDouble(INDEX_MIN_TEMP);
-            forecast = Integer.toString(weatherId);
-            forecast = forecast + "," + Utility.formatTemperature(context, high);
-            forecast = forecast + "," + Utility.formatTemperature(context, low);
-        }
-        cursor.close();
+        String forecast = Integer.toString(today.weatherId);
+        forecast = forecast + "," + Utility.formatTemperature(context, today.high);
+        forecast = forecast + "," + Utility.formatTemperature(context, today.low);
 
         for (final Node node : nodes.getNodes()) {
             Wearable.MessageApi.sendMessage(
@@ -428,25 +956,25 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
         }
     }
 
-    private void updateWidgets() {
+    private void updateWidgets(TodayForecast today) {
         Context context = getContext();
         // Setting the package ensures that only components in our app will receive the broadcast
-        Intent dataUpdatedIntent = new Intent(ACTION_DATA_UPDATED)
-                .setPackage(context.getPackageName());
+        Intent dataUpdatedIntent = today.writeTo(new Intent(ACTION_DATA_UPDATED)
+                .setPackage(context.getPackageName()));
         context.sendBroadcast(dataUpdatedIntent);
     }
 
-    private void updateMuzei() {
+    private void updateMuzei(TodayForecast today) {
         // Muzei is only compatible with Jelly Bean MR1+ devices, so there's no need to update the
         // Muzei background on lower API level devices
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
             Context context = getContext();
-            context.startService(new Intent(ACTION_DATA_UPDATED)
-                    .setClass(context, WeatherMuzeiSource.class));
+            context.startService(today.writeTo(new Intent(ACTION_DATA_UPDATED)
+                    .setClass(context, WeatherMuzeiSource.class)));
         }
     }
 
-    private void notifyWeather() {
+    private void notifyWeather(TodayForecast today) {
         Context context = getContext();
         //checking the last update and notify if it' the first of the day
         SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
@@ -461,146 +989,116 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
 
             if (System.currentTimeMillis() - lastSync >= DAY_IN_MILLIS) {
                 // Last sync was more than 1 day ago, let's send a notification with the weather.
-                String locationQuery = Utility.getPreferredLocation(context);
-
-                Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(locationQuery, System.currentTimeMillis());
-
-                // we'll query our contentProvider, as always
-                Cursor cursor = context.getContentResolver().query(weatherUri, NOTIFY_WEATHER_PROJECTION, null, null, null);
-
-                if (cursor.moveToFirst()) {
-                    int weatherId = cursor.getInt(INDEX_WEATHER_ID);
-                    double high = cursor.getDouble(INDEX_MAX_TEMP);
-                    double low = cursor.getDouble(INDEX_MIN_TEMP);
-                    String desc = cursor.getString(INDEX_SHORT_DESC);
-
-                    int iconId = Utility.getIconResourceForWeatherCondition(weatherId);
-                    Resources resources = context.getResources();
-                    int artResourceId = Utility.getArtResourceForWeatherCondition(weatherId);
-                    String artUrl = Utility.getArtUrlForWeatherCondition(context, weatherId);
-
-                    // On Honeycomb and higher devices, we can retrieve the size of the large icon
-                    // Prior to that, we use a fixed size
-                    @SuppressLint("InlinedApi")
-                    int largeIconWidth = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
-                            ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_width)
-                            : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
-                    @SuppressLint("InlinedApi")
-                    int largeIconHeight = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
-                            ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_height)
-                            : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
-
-                    // Retrieve the large icon
-                    Bitmap largeIcon;
-                    try {
-                        largeIcon = Glide.with(context)
-                                .load(artUrl)
-                                .asBitmap()
-                                .error(artResourceId)
-                                .fitCenter()
-                                .into(largeIconWidth, largeIconHeight).get();
-                    } catch (InterruptedException | ExecutionException e) {
-                        Log.e(LOG_TAG, "Error retrieving large icon from " + artUrl, e);
-                        largeIcon = BitmapFactory.decodeResource(resources, artResourceId);
-                    }
-                    String title = context.getString(R.string.app_name);
-
-                    // Define the text of the forecast.
-                    String contentText = String.format(context.getString(R.string.format_notification),
-                            desc,
-                            Utility.formatTemperature(context, high),
-                            Utility.formatTemperature(context, low));
-
-                    // NotificationCompatBuilder is a very convenient way to build backward-compatible
-                    // notifications.  Just throw in some data.
-                    NotificationCompat.Builder mBuilder =
-                            new NotificationCompat.Builder(getContext())
-                                    .setColor(resources.getColor(R.color.primary_light))
-                                    .setSmallIcon(iconId)
-                                    .setLargeIcon(largeIcon)
-                                    .setContentTitle(title)
-                                    .setContentText(contentText);
-
-                    // Make something interesting happen when the user clicks on the notification.
-                    // In this case, opening the app is sufficient.
-                    Intent resultIntent = new Intent(context, MainActivity.class);
-
-                    // The stack builder object will contain an artificial back stack for the
-                    // started Activity.
-                    // This ensures that navigating backward from the Activity leads out of
-                    // your application to the Home screen.
-                    TaskStackBuilder stackBuilder = TaskStackBuilder.create(context);
-                    stackBuilder.addNextIntent(resultIntent);
-                    PendingIntent resultPendingIntent =
-                            stackBuilder.getPendingIntent(
-                                    0,
-                                    PendingIntent.FLAG_UPDATE_CURRENT
-                            );
-                    mBuilder.setContentIntent(resultPendingIntent);
-
-                    NotificationManager mNotificationManager =
-                            (NotificationManager) getContext().getSystemService(Context.NOTIFICATION_SERVICE);
-                    // WEATHER_NOTIFICATION_ID allows you to update the notification later on.
-                    mNotificationManager.notify(WEATHER_NOTIFICATION_ID, mBuilder.build());
-
-                    //refreshing last sync
-                    SharedPreferences.Editor editor = prefs.edit();
-                    editor.putLong(lastNotificationKey, System.currentTimeMillis());
-                    editor.commit();
+                int weatherId = today.weatherId;
+                double high = today.high;
+                double low = today.low;
+                String desc = today.description;
+
+                int iconId = Utility.getIconResourceForWeatherCondition(weatherId);
+                Resources resources = context.getResources();
+                int artResourceId = Utility.getArtResourceForWeatherCondition(weatherId);
+                String artUrl = Utility.getArtUrlForWeatherCondition(context, weatherId);
+
+                // On Honeycomb and higher devices, we can retrieve the size of the large icon
+                // Prior to that, we use a fixed size
+                @SuppressLint("InlinedApi")
+                int largeIconWidth = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
+                        ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_width)
+                        : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
+                @SuppressLint("InlinedApi")
+                int largeIconHeight = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
+                        ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_height)
+                        : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
+
+                // Retrieve the large icon
+                Bitmap largeIcon;
+                try {
+                    largeIcon = Glide.with(context)
+                            .load(artUrl)
+                            .asBitmap()
+                            .error(artResourceId)
+                            .fitCenter()
+                            .into(largeIconWidth, largeIconHeight).get();
+                } catch (InterruptedException | ExecutionException e) {
+                    Log.e(LOG_TAG, "Error retrieving large icon from " + artUrl, e);
+                    largeIcon = BitmapFactory.decodeResource(resources, artResourceId);
                 }
-                cursor.close();
+                String title = context.getString(R.string.app_name);
+
+                // Define the text of the forecast.
+                String contentText = String.format(context.getString(R.string.format_notification),
+                        desc,
+                        Utility.formatTemperature(context, high),
+                        Utility.formatTemperature(context, low));
+
+                // NotificationCompatBuilder is a very convenient way to build backward-compatible
+                // notifications.  Just throw in some data.
+                NotificationCompat.Builder mBuilder =
+                        new NotificationCompat.Builder(getContext())
+                                .setColor(resources.getColor(R.color.primary_light))
+                                .setSmallIcon(iconId)
+                                .setLargeIcon(largeIcon)
+                                .setContentTitle(title)
+                                .setContentText(contentText);
+
+                // Make something interesting happen when the user clicks on the notification.
+                // In this case, opening the app is sufficient.
+                Intent resultIntent = new Intent(context, MainActivity.class);
+
+                // The stack builder object will contain an artificial back stack for the
+                // started Activity.
+                // This ensures that navigating backward from the Activity leads out of
+                // your application to the Home screen.
+                TaskStackBuilder stackBuilder = TaskStackBuilder.create(context);
+                stackBuilder.addNextIntent(resultIntent);
+                PendingIntent resultPendingIntent =
+                        stackBuilder.getPendingIntent(
+                                0,
+                                PendingIntent.FLAG_UPDATE_CURRENT
+                        );
+                mBuilder.setContentIntent(resultPendingIntent);
+
+                NotificationManager mNotificationManager =
+                        (NotificationManager) getContext().getSystemService(Context.NOTIFICATION_SERVICE);
+                // WEATHER_NOTIFICATION_ID allows you to update the notification later on.
+                mNotificationManager.notify(WEATHER_NOTIFICATION_ID, mBuilder.build());
+
+                //refreshing last sync
+                SharedPreferences.Editor editor = prefs.edit();
+                editor.putLong(lastNotificationKey, System.currentTimeMillis());
+                editor.commit();
             }
         }
     }
 
     /**
-     * Helper method to handle insertion of a new location in the weather database.
+     * Helper method to read the HTTP cache validators stored with the last forecast for a
+     * location.
      *
      * @param locationSetting The location string used to request updates from the server.
-     * @param cityName A human-readable city name, e.g "Mountain View"
-     * @param lat the latitude of the city
-     * @param lon the longitude of the city
-     * @return the row ID of the added location.
+     * @return the ETag and Last-Modified values, indexed by INDEX_VALIDATOR_ETAG and
+     * INDEX_VALIDATOR_LAST_MODIFIED.  Both are null if the location has never been synced.
      */
-    long addLocation(String locationSetting, String cityName, double lat, double lon) {
-        long locationId;
+    String[] getLocationValidators(String locationSetting) {
+        String[] validators = new String[LOCATION_VALIDATORS_PROJECTION.length];
 
-        // First, check if the location with this city name exists in the db
         Cursor locationCursor = getContext().getContentResolver().query(
                 WeatherContract.LocationEntry.CONTENT_URI,
-                new String[]{WeatherContract.LocationEntry._ID},
+                LOCATION_VALIDATORS_PROJECTION,
                 WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
                 new String[]{locationSetting},
                 null);
 
-        if (locationCursor.moveToFirst()) {
-            int locationIdIndex = locationCursor.getColumnIndex(WeatherContract.LocationEntry._ID);
-            locationId = locationCursor.getLong(locationIdIndex);
-        } else {
-            // Now that the content provider is set up, inserting rows of data is pretty simple.
-            // First create a ContentValues object to hold the data you want to insert.
-            ContentValues locationValues = new ContentValues();
-
-            // Then add the data, along with the corresponding name of the data type,
-            // so the content provider knows what kind of value is being inserted.
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, cityName);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, lat);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, lon);
-
-            // Finally, insert location data into the database.
-            Uri insertedUri = getContext().getContentResolver().insert(
-                    WeatherContract.LocationEntry.CONTENT_URI,
-                    locationValues
-            );
-
-            // The resulting URI contains the ID for the row.  Extract the locationId from the Uri.
-            locationId = ContentUris.parseId(insertedUri);
+        if (locationCursor != null) {
+            if (locationCursor.moveToFirst()) {
+                validators[INDEX_VALIDATOR_ETAG] =
+                        locationCursor.getString(INDEX_VALIDATOR_ETAG);
+                validators[INDEX_VALIDATOR_LAST_MODIFIED] =
+                        locationCursor.getString(INDEX_VALIDATOR_LAST_MODIFIED);
+            }
+            locationCursor.close();
         }
-
-        locationCursor.close();
-        // Wait, that worked?  Yes!
-        return locationId;
+        return validators;
     }
 
     /**
@@ -634,6 +1132,39 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
                 context.getString(R.string.content_authority), bundle);
     }
 
+    /**
+     * Helper method to call when the preferred location changes.  Every location we have synced
+     * before is kept fresh by the periodic sync, so its forecast can be shown straight away.
+     * Only a location we have no forecast for needs to be synced right now.
+     * @param context The context used to access the provider and the preferences
+     */
+    public static void onPreferredLocationChanged(Context context) {
+        // Our caller is often a preference listener itself, which SharedPreferences may well
+        // run before the snapshot's, so read the new location rather than wait for that.
+        String locationSetting = SettingsSnapshot.reload(context).getPreferredLocation();
+        Cursor cursor = context.getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
+                        locationSetting, System.currentTimeMillis()),
+                new String[]{WeatherContract.WeatherEntry.COLUMN_DATE},
+                null,
+                null,
+                null);
+        boolean haveForecast = cursor != null && cursor.moveToFirst();
+        if (cursor != null) {
+            cursor.close();
+        }
+
+        if (haveForecast) {
+            SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+            SharedPreferences.Editor spe = sp.edit();
+            spe.putInt(context.getString(R.string.pref_location_status_key), LOCATION_STATUS_OK);
+            spe.apply();
+        } else {
+            Utility.resetLocationStatus(context);
+            syncImmediately(context);
+        }
+    }
+
     /**
      * Helper method to get the fake account to be used with SyncAdapter, or make a new one
      * if the fake account doesn't exist yet.  If we make a new account, we call the
@@ -675,9 +1206,11 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
 
     private static void onAccountCreated(Account newAccount, Context context) {
         /*
-         * Since we've created an account
+         * Since we've created an account, schedule the periodic sync.  The scheduler starts from
+         * SYNC_INTERVAL and adapts it after every sync.
          */
-        SunshineSyncAdapter.configurePeriodicSync(context, SYNC_INTERVAL, SYNC_FLEXTIME);
+        SyncScheduler.clearAppliedSchedule(context);
+        SyncScheduler.reschedule(context);
 
         /*
          * Without calling setSyncAutomatically, our periodic sync will not be enabled.
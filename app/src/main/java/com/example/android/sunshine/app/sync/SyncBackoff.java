@@ -0,0 +1,122 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+import java.util.Random;
+
+/**
+ * Decides when to try again after the weather server fails us.
+ *
+ * Within a sync, a location that fails with a server error is retried a couple of times after
+ * short, jittered, exponentially growing delays.  If the whole sync still fails, the next one is
+ * pushed back the same way, but in minutes.  After BREAKER_THRESHOLD failed syncs in a row the
+ * circuit breaker opens and periodic syncs don't touch the network at all for BREAKER_OPEN_MILLIS;
+ * the first sync after that is let through, and closes the breaker again if it succeeds.
+ *
+ * The delays are capped so that once the server is back, we find out within minutes.
+ */
+class SyncBackoff {
+    // Attempts per location within one sync, including the first.
+    static final int MAX_ATTEMPTS = 3;
+    static final long RETRY_BASE_MILLIS = 1000;
+    static final long RETRY_MAX_MILLIS = 8 * 1000;
+
+    // Delay before the next sync after a failed one.
+    static final long SYNC_BASE_MILLIS = 60 * 1000;
+    static final long SYNC_MAX_MILLIS = 15 * 60 * 1000;
+
+    static final int BREAKER_THRESHOLD = 5;
+    static final long BREAKER_OPEN_MILLIS = 30 * 60 * 1000;
+
+    private static final String PREF_CONSECUTIVE_FAILURES = "syncConsecutiveFailures";
+    private static final String PREF_BREAKER_OPEN_UNTIL = "syncBreakerOpenUntil";
+
+    private static final Random sRandom = new Random();
+
+    private SyncBackoff() {
+    }
+
+    /**
+     * Exponential backoff with jitter: the delay for an attempt is picked at random from the
+     * upper half of base * 2^attempt, capped at max.  The jitter keeps devices that failed
+     * together from retrying together.
+     *
+     * @param attempt the number of failures so far, minus one
+     */
+    static long backoffMillis(int attempt, long baseMillis, long maxMillis, Random random) {
+        long ceiling = maxMillis;
+        if (attempt < 32) {
+            ceiling = Math.min(maxMillis, baseMillis << attempt);
+        }
+        long half = ceiling / 2;
+        return half + (long) (random.nextDouble() * (ceiling - half));
+    }
+
+    /**
+     * @return how long to wait before retrying a location within a sync
+     */
+    static long retryDelayMillis(int attempt) {
+        return backoffMillis(attempt, RETRY_BASE_MILLIS, RETRY_MAX_MILLIS, sRandom);
+    }
+
+    /**
+     * @return true unless the circuit breaker is open at time now
+     */
+    static boolean allowSync(Context context, long now) {
+        return now >= getBreakerOpenUntil(context);
+    }
+
+    /**
+     * @return the time until which the circuit breaker is open, or 0 if it is closed
+     */
+    static long getBreakerOpenUntil(Context context) {
+        return PreferenceManager.getDefaultSharedPreferences(context)
+                .getLong(PREF_BREAKER_OPEN_UNTIL, 0);
+    }
+
+    static int getConsecutiveFailures(Context context) {
+        return PreferenceManager.getDefaultSharedPreferences(context)
+                .getInt(PREF_CONSECUTIVE_FAILURES, 0);
+    }
+
+    /**
+     * Records a sync in which the server couldn't be reached, and opens the circuit breaker if
+     * that has happened too often in a row.
+     *
+     * @return the time before which the next sync shouldn't run
+     */
+    static long onSyncFailed(Context context, long now) {
+        return onSyncFailed(context, now, sRandom);
+    }
+
+    static long onSyncFailed(Context context, long now, Random random) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        int failures = prefs.getInt(PREF_CONSECUTIVE_FAILURES, 0) + 1;
+        SharedPreferences.Editor editor = prefs.edit().putInt(PREF_CONSECUTIVE_FAILURES, failures);
+
+        long retryAt;
+        if (failures >= BREAKER_THRESHOLD) {
+            retryAt = now + BREAKER_OPEN_MILLIS;
+            editor.putLong(PREF_BREAKER_OPEN_UNTIL, retryAt);
+        } else {
+            retryAt = now + backoffMillis(failures - 1, SYNC_BASE_MILLIS, SYNC_MAX_MILLIS, random);
+        }
+        editor.commit();
+        return retryAt;
+    }
+
+    /**
+     * Records a sync that reached the server, which closes the circuit breaker.
+     */
+    static void onSyncSucceeded(Context context) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        if (prefs.contains(PREF_CONSECUTIVE_FAILURES) || prefs.contains(PREF_BREAKER_OPEN_UNTIL)) {
+            prefs.edit()
+                    .remove(PREF_CONSECUTIVE_FAILURES)
+                    .remove(PREF_BREAKER_OPEN_UNTIL)
+                    .commit();
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.SyncMetricsEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects how long each phase of one sync took, and writes them to the sync metrics table once
+ * the sync is done.  Locations are synced in parallel, so phases may be recorded from several
+ * threads at once.
+ */
+class SyncMetrics {
+    private static final String LOG_TAG = SyncMetrics.class.getSimpleName();
+
+    private final long mSyncStart;
+    private final List<ContentValues> mRows = new ArrayList<ContentValues>();
+
+    SyncMetrics(long syncStart) {
+        mSyncStart = syncStart;
+    }
+
+    /**
+     * Records a phase that doesn't deal in bytes and can't fail on its own.
+     */
+    void record(String locationSetting, String phase, long durationMillis) {
+        record(locationSetting, phase, durationMillis, -1, null);
+    }
+
+    /**
+     * @param locationSetting the location the phase was for, or null for the sync as a whole
+     * @param phase one of the SyncMetricsEntry.PHASE_ values
+     * @param durationMillis how long the phase took
+     * @param bytes the number of bytes handled, or -1 if that doesn't apply
+     * @param outcome one of the SyncMetricsEntry.OUTCOME_ values, or null
+     */
+    void record(String locationSetting, String phase, long durationMillis, long bytes,
+                String outcome) {
+        ContentValues row = new ContentValues();
+        row.put(SyncMetricsEntry.COLUMN_SYNC_START, mSyncStart);
+        row.put(SyncMetricsEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        row.put(SyncMetricsEntry.COLUMN_PHASE, phase);
+        row.put(SyncMetricsEntry.COLUMN_DURATION, durationMillis);
+        if (bytes >= 0) {
+            row.put(SyncMetricsEntry.COLUMN_BYTES, bytes);
+        }
+        row.put(SyncMetricsEntry.COLUMN_OUTCOME, outcome);
+        synchronized (mRows) {
+            mRows.add(row);
+        }
+    }
+
+    int size() {
+        synchronized (mRows) {
+            return mRows.size();
+        }
+    }
+
+    /**
+     * Writes everything recorded so far in one go.
+     */
+    void save(ContentResolver contentResolver) {
+        ContentValues[] rows;
+        synchronized (mRows) {
+            rows = mRows.toArray(new ContentValues[mRows.size()]);
+            mRows.clear();
+        }
+        if (rows.length == 0) {
+            return;
+        }
+        try {
+            contentResolver.bulkInsert(SyncMetricsEntry.CONTENT_URI, rows);
+        } catch (RuntimeException e) {
+            // Losing the metrics of one sync is no reason to fail it.
+            Log.e(LOG_TAG, "Error saving sync metrics", e);
+        }
+    }
+}
@@ -0,0 +1,268 @@
+package com.example.android.sunshine.app.sync;
+
+import android.annotation.TargetApi;
+import android.appwidget.AppWidgetManager;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
+import android.net.ConnectivityManager;
+import android.os.BatteryManager;
+import android.os.Build;
+import android.os.PowerManager;
+import android.preference.PreferenceManager;
+import android.support.v4.net.ConnectivityManagerCompat;
+import android.util.Log;
+
+import com.example.android.sunshine.app.widget.DetailWidgetProvider;
+import com.example.android.sunshine.app.widget.TodayWidgetProvider;
+
+import java.util.Calendar;
+
+/**
+ * Picks how often the periodic sync runs, instead of always syncing every three hours.
+ *
+ * The decision is made from how much recent syncs actually changed, the time of day, the
+ * battery, the network, and whether anything is showing the weather.  It is re-evaluated after
+ * every sync and whenever the app comes to or leaves the foreground, and only pushed to the sync
+ * framework when it differs from the schedule already in place.
+ */
+public class SyncScheduler {
+    private static final String LOG_TAG = SyncScheduler.class.getSimpleName();
+
+    // Interval limits, in seconds.
+    static final int MIN_INTERVAL = 60 * 60;
+    static final int BASE_INTERVAL = SunshineSyncAdapter.SYNC_INTERVAL;
+    static final int MAX_INTERVAL = 60 * 60 * 12;
+
+    // Volatility is the share of the preferred location's days that changed, averaged over the
+    // last few syncs.  Each new sync counts for this much of the average.
+    static final float VOLATILITY_WEIGHT = 0.4f;
+    static final float HIGH_VOLATILITY = 0.5f;
+    static final float LOW_VOLATILITY = 0.1f;
+
+    static final int NIGHT_START_HOUR = 0;
+    static final int NIGHT_END_HOUR = 6;
+    static final int LOW_BATTERY_PERCENT = 15;
+
+    // Internal state, kept alongside the user's settings like the GCM token flag.
+    private static final String PREF_VOLATILITY = "syncVolatility";
+    private static final String PREF_APP_VISIBLE = "syncAppVisible";
+    private static final String PREF_WEARABLE_CONNECTED = "syncWearableConnected";
+    private static final String PREF_INTERVAL = "syncInterval";
+    private static final String PREF_FLEX = "syncFlex";
+
+    private SyncScheduler() {
+    }
+
+    /**
+     * Everything the schedule depends on, read at one point in time.
+     */
+    static final class Conditions {
+        float mVolatility = (HIGH_VOLATILITY + LOW_VOLATILITY) / 2;
+        int mHourOfDay;
+        int mBatteryPercent = 100;
+        boolean mCharging;
+        boolean mMetered;
+        boolean mAppVisible;
+        boolean mWidgetsInstalled;
+        boolean mWearableConnected;
+        // Whether the screen is on.  Widgets and the watch face only count while it is: an
+        // installed widget on a phone asleep in a drawer isn't showing anybody anything.
+        boolean mInteractive;
+
+        boolean isUiInUse() {
+            return mAppVisible || (mInteractive && (mWidgetsInstalled || mWearableConnected));
+        }
+
+        @Override
+        public String toString() {
+            return "volatility " + mVolatility + ", hour " + mHourOfDay
+                    + ", battery " + mBatteryPercent + "%" + (mCharging ? " charging" : "")
+                    + (mMetered ? ", metered" : ", unmetered")
+                    + (mInteractive ? ", screen on" : ", screen off")
+                    + (mAppVisible ? ", app visible" : "")
+                    + (mWidgetsInstalled ? ", widgets" : "")
+                    + (mWearableConnected ? ", wearable" : "");
+        }
+    }
+
+    /**
+     * A periodic sync interval and the window the system may shift it by, both in seconds.
+     */
+    static final class Schedule {
+        final int mInterval;
+        final int mFlex;
+        final String mReason;
+
+        Schedule(int interval, int flex, String reason) {
+            mInterval = interval;
+            mFlex = flex;
+            mReason = reason;
+        }
+    }
+
+    /**
+     * Works out the schedule for a set of conditions.  Each condition stretches or shrinks the
+     * base interval; the result is kept between MIN_INTERVAL and MAX_INTERVAL.
+     */
+    static Schedule decide(Conditions conditions) {
+        float interval = BASE_INTERVAL;
+        StringBuilder reason = new StringBuilder();
+        boolean uiInUse = conditions.isUiInUse();
+
+        if (conditions.mVolatility >= HIGH_VOLATILITY) {
+            interval *= 2f / 3f;
+            reason.append("forecast is changing; ");
+        } else if (conditions.mVolatility <= LOW_VOLATILITY) {
+            interval *= 2f;
+            reason.append("forecast is stable; ");
+        }
+
+        if (!uiInUse) {
+            if (conditions.mHourOfDay >= NIGHT_START_HOUR
+                    && conditions.mHourOfDay < NIGHT_END_HOUR) {
+                interval *= 2f;
+                reason.append("night; ");
+            }
+            if (conditions.mMetered) {
+                interval *= 1.5f;
+                reason.append("metered network; ");
+            }
+        }
+
+        if (!conditions.mCharging && conditions.mBatteryPercent <= LOW_BATTERY_PERCENT) {
+            interval *= 2f;
+            reason.append("battery low; ");
+        }
+
+        if (uiInUse && interval > BASE_INTERVAL) {
+            // Something is showing the forecast, so don't let it get older than it used to.
+            interval = BASE_INTERVAL;
+            reason.append("shown to the user; ");
+        }
+
+        int seconds = Math.max(MIN_INTERVAL, Math.min(MAX_INTERVAL, Math.round(interval)));
+        // When nobody is looking, give the system more room to batch us with other wakeups.
+        int flex = uiInUse ? seconds / 3 : seconds / 2;
+        if (reason.length() == 0) {
+            reason.append("default");
+        } else {
+            reason.setLength(reason.length() - 2);
+        }
+        return new Schedule(seconds, flex, reason.toString());
+    }
+
+    /**
+     * Folds the outcome of a sync of the preferred location into the volatility average.
+     *
+     * @param changedDays the number of days that were new or different, 0 if not modified
+     * @param totalDays the number of days that were fetched
+     */
+    static void recordSync(Context context, int changedDays, int totalDays) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        float changed = totalDays > 0 ? Math.min(1f, (float) changedDays / totalDays) : 0f;
+        float volatility = prefs.getFloat(PREF_VOLATILITY, changed);
+        volatility += VOLATILITY_WEIGHT * (changed - volatility);
+        prefs.edit().putFloat(PREF_VOLATILITY, volatility).apply();
+    }
+
+    /**
+     * Remembers whether the last forecast push found a wearable to send it to.
+     */
+    static void setWearableConnected(Context context, boolean connected) {
+        PreferenceManager.getDefaultSharedPreferences(context).edit()
+                .putBoolean(PREF_WEARABLE_CONNECTED, connected).apply();
+    }
+
+    /**
+     * Call when the app comes to the foreground or leaves it.  While it is visible, the forecast
+     * is kept at least as fresh as the base interval.
+     */
+    public static void setAppVisible(Context context, boolean visible) {
+        PreferenceManager.getDefaultSharedPreferences(context).edit()
+                .putBoolean(PREF_APP_VISIBLE, visible).apply();
+        reschedule(context);
+    }
+
+    /**
+     * Re-evaluates the schedule and applies it if it changed.
+     */
+    public static void reschedule(Context context) {
+        Conditions conditions = readConditions(context);
+        Schedule schedule = decide(conditions);
+
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        boolean changed = prefs.getInt(PREF_INTERVAL, 0) != schedule.mInterval
+                || prefs.getInt(PREF_FLEX, 0) != schedule.mFlex;
+        Log.d(LOG_TAG, (changed ? "Syncing" : "Still syncing") + " every "
+                + schedule.mInterval / 60 + "m, flex " + schedule.mFlex / 60 + "m ("
+                + schedule.mReason + ") given " + conditions);
+        if (!changed) {
+            return;
+        }
+
+        SunshineSyncAdapter.configurePeriodicSync(context, schedule.mInterval, schedule.mFlex);
+        prefs.edit()
+                .putInt(PREF_INTERVAL, schedule.mInterval)
+                .putInt(PREF_FLEX, schedule.mFlex)
+                .apply();
+    }
+
+    /**
+     * Forgets the schedule in place, so the next reschedule() applies whatever it decides.
+     */
+    static void clearAppliedSchedule(Context context) {
+        PreferenceManager.getDefaultSharedPreferences(context).edit()
+                .remove(PREF_INTERVAL)
+                .remove(PREF_FLEX)
+                .apply();
+    }
+
+    private static Conditions readConditions(Context context) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        Conditions conditions = new Conditions();
+        conditions.mVolatility = prefs.getFloat(PREF_VOLATILITY, conditions.mVolatility);
+        conditions.mAppVisible = prefs.getBoolean(PREF_APP_VISIBLE, false);
+        conditions.mWearableConnected = prefs.getBoolean(PREF_WEARABLE_CONNECTED, false);
+        conditions.mHourOfDay = Calendar.getInstance().get(Calendar.HOUR_OF_DAY);
+
+        // The battery broadcast is sticky, so this reads the last one without registering.
+        Intent battery = context.getApplicationContext().registerReceiver(null,
+                new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        if (battery != null) {
+            int level = battery.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+            int scale = battery.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+            if (level >= 0 && scale > 0) {
+                conditions.mBatteryPercent = level * 100 / scale;
+            }
+            int status = battery.getIntExtra(BatteryManager.EXTRA_STATUS, -1);
+            conditions.mCharging = status == BatteryManager.BATTERY_STATUS_CHARGING
+                    || status == BatteryManager.BATTERY_STATUS_FULL;
+        }
+
+        ConnectivityManager cm =
+                (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        conditions.mMetered = ConnectivityManagerCompat.isActiveNetworkMetered(cm);
+
+        PowerManager pm = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+        conditions.mInteractive = isInteractive(pm);
+
+        AppWidgetManager appWidgetManager = AppWidgetManager.getInstance(context);
+        conditions.mWidgetsInstalled = appWidgetManager.getAppWidgetIds(
+                new ComponentName(context, TodayWidgetProvider.class)).length > 0
+                || appWidgetManager.getAppWidgetIds(
+                new ComponentName(context, DetailWidgetProvider.class)).length > 0;
+        return conditions;
+    }
+
+    @SuppressWarnings("deprecation")
+    @TargetApi(Build.VERSION_CODES.KITKAT_WATCH)
+    private static boolean isInteractive(PowerManager pm) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT_WATCH) {
+            return pm.isInteractive();
+        }
+        return pm.isScreenOn();
+    }
+}
@@ -0,0 +1,126 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.Intent;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.WeatherContract;
+
+/**
+ * An immutable snapshot of today's forecast for one location.
+ *
+ * After a sync it is read once and handed to everything that shows today's weather, rather than
+ * each of them querying the provider again.  It travels to the widget and Muzei services as
+ * Intent extras.
+ */
+public final class TodayForecast {
+    private static final String EXTRA_LOCATION_SETTING =
+            "com.example.android.sunshine.app.extra.LOCATION_SETTING";
+    private static final String EXTRA_DATE = "com.example.android.sunshine.app.extra.DATE";
+    private static final String EXTRA_WEATHER_ID =
+            "com.example.android.sunshine.app.extra.WEATHER_ID";
+    private static final String EXTRA_HIGH = "com.example.android.sunshine.app.extra.HIGH";
+    private static final String EXTRA_LOW = "com.example.android.sunshine.app.extra.LOW";
+    private static final String EXTRA_DESCRIPTION =
+            "com.example.android.sunshine.app.extra.DESCRIPTION";
+
+    private static final String[] TODAY_PROJECTION = new String[] {
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC
+    };
+
+    // these indices must match the projection
+    private static final int INDEX_DATE = 0;
+    private static final int INDEX_WEATHER_ID = 1;
+    private static final int INDEX_MAX_TEMP = 2;
+    private static final int INDEX_MIN_TEMP = 3;
+    private static final int INDEX_SHORT_DESC = 4;
+
+    public final String locationSetting;
+    public final long date;
+    public final int weatherId;
+    public final double high;
+    public final double low;
+    public final String description;
+
+    public TodayForecast(String locationSetting, long date, int weatherId, double high, double low,
+                         String description) {
+        this.locationSetting = locationSetting;
+        this.date = date;
+        this.weatherId = weatherId;
+        this.high = high;
+        this.low = low;
+        this.description = description;
+    }
+
+    /**
+     * Reads the first day of forecast from today onward for a location.
+     *
+     * @return the snapshot, or null if there is no forecast for the location
+     */
+    public static TodayForecast query(Context context, String locationSetting) {
+        Uri weatherUri;
+        if (locationSetting.equals(Utility.getPreferredLocation(context))) {
+            weatherUri = WeatherContract.CurrentEntry.buildCurrentWithStartDate(
+                    System.currentTimeMillis());
+        } else {
+            weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
+                    locationSetting, System.currentTimeMillis());
+        }
+        Cursor cursor = context.getContentResolver().query(weatherUri, TODAY_PROJECTION, null,
+                null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        if (cursor == null) {
+            return null;
+        }
+        try {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+            return new TodayForecast(locationSetting,
+                    cursor.getLong(INDEX_DATE),
+                    cursor.getInt(INDEX_WEATHER_ID),
+                    cursor.getDouble(INDEX_MAX_TEMP),
+                    cursor.getDouble(INDEX_MIN_TEMP),
+                    cursor.getString(INDEX_SHORT_DESC));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Reads a snapshot written by {@link #writeTo(Intent)}.
+     *
+     * @return the snapshot, or null if the intent doesn't carry one
+     */
+    public static TodayForecast fromIntent(Intent intent) {
+        if (intent == null || !intent.hasExtra(EXTRA_LOCATION_SETTING)) {
+            return null;
+        }
+        return new TodayForecast(intent.getStringExtra(EXTRA_LOCATION_SETTING),
+                intent.getLongExtra(EXTRA_DATE, 0),
+                intent.getIntExtra(EXTRA_WEATHER_ID, 0),
+                intent.getDoubleExtra(EXTRA_HIGH, 0),
+                intent.getDoubleExtra(EXTRA_LOW, 0),
+                intent.getStringExtra(EXTRA_DESCRIPTION));
+    }
+
+    public Intent writeTo(Intent intent) {
+        return intent.putExtra(EXTRA_LOCATION_SETTING, locationSetting)
+                .putExtra(EXTRA_DATE, date)
+                .putExtra(EXTRA_WEATHER_ID, weatherId)
+                .putExtra(EXTRA_HIGH, high)
+                .putExtra(EXTRA_LOW, low)
+                .putExtra(EXTRA_DESCRIPTION, description);
+    }
+
+    @Override
+    public String toString() {
+        return locationSetting + " " + date + ": " + weatherId + " " + high + "/" + low + " "
+                + description;
+    }
+}
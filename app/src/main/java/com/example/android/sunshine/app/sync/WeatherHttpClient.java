@@ -0,0 +1,47 @@
+package com.example.android.sunshine.app.sync;
+
+import android.net.Uri;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * The transport the sync adapter fetches forecasts with.  Keeping it behind an interface lets
+ * tests point the sync at a local server instead of openweathermap.
+ */
+public interface WeatherHttpClient {
+
+    /**
+     * @return a builder for the daily forecast endpoint, ready for the query parameters to be
+     * appended
+     */
+    Uri.Builder buildForecastUri();
+
+    /**
+     * Issues a GET request.
+     *
+     * @param uri the full request URI
+     * @param requestHeaders extra request headers to send, may be empty
+     * @return the response, which must be closed by the caller
+     * @throws IOException if the request could not be made
+     */
+    Response get(Uri uri, Map<String, String> requestHeaders) throws IOException;
+
+    /**
+     * The response to a request.  {@link #close()} must always be called, since that is what
+     * lets a persistent client hand the connection to the next request.
+     */
+    interface Response {
+        int getResponseCode() throws IOException;
+
+        String getHeaderField(String name);
+
+        /**
+         * @return a reader over the body of a successful response
+         * @throws IOException if there is no body, or the response was an HTTP error
+         */
+        ResponseReader getBody() throws IOException;
+
+        void close();
+    }
+}
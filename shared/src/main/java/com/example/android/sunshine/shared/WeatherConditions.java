@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.shared;
+
+/**
+ * Sorts the weather condition ids returned by the OpenWeatherMap call into the handful of
+ * conditions Sunshine has pictures for.  The ranges are worked out once, into a table indexed
+ * by weather id, so a lookup is a single array read.
+ *
+ * The pictures themselves are resources of the phone app and the watch face, which each keep
+ * an array of their own indexed by these conditions.
+ */
+public final class WeatherConditions {
+    public static final int CONDITION_UNKNOWN = 0;
+    public static final int CONDITION_STORM = 1;
+    public static final int CONDITION_LIGHT_RAIN = 2;
+    public static final int CONDITION_RAIN = 3;
+    public static final int CONDITION_SNOW = 4;
+    public static final int CONDITION_FOG = 5;
+    public static final int CONDITION_TORNADO = 6;
+    public static final int CONDITION_CLEAR = 7;
+    public static final int CONDITION_LIGHT_CLOUDS = 8;
+    public static final int CONDITION_CLOUDS = 9;
+    /** The number of conditions, for sizing arrays indexed by them. */
+    public static final int CONDITION_COUNT = 10;
+
+    /** Weather ids are three digits; anything else is unknown. */
+    public static final int MAX_WEATHER_ID = 999;
+
+    // The names of the pictures in an art pack, by condition
+    private static final String[] ART_NAMES = {
+            null,
+            "storm",
+            "light_rain",
+            "rain",
+            "snow",
+            "fog",
+            "storm",
+            "clear",
+            "light_clouds",
+            "clouds"
+    };
+
+    private static final byte[] sConditions = new byte[MAX_WEATHER_ID + 1];
+
+    static {
+        // Based on weather code data found at:
+        // http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
+        // In order of precedence: an id keeps the first condition it is given.
+        put(200, 232, CONDITION_STORM);
+        put(300, 321, CONDITION_LIGHT_RAIN);
+        put(500, 504, CONDITION_RAIN);
+        put(511, 511, CONDITION_SNOW);
+        put(520, 531, CONDITION_RAIN);
+        put(600, 622, CONDITION_SNOW);
+        put(701, 761, CONDITION_FOG);
+        put(781, 781, CONDITION_TORNADO);
+        put(800, 800, CONDITION_CLEAR);
+        put(801, 801, CONDITION_LIGHT_CLOUDS);
+        put(802, 804, CONDITION_CLOUDS);
+    }
+
+    private WeatherConditions() {
+    }
+
+    private static void put(int firstId, int lastId, int condition) {
+        for (int weatherId = firstId; weatherId <= lastId; weatherId++) {
+            if (sConditions[weatherId] == CONDITION_UNKNOWN) {
+                sConditions[weatherId] = (byte) condition;
+            }
+        }
+    }
+
+    /**
+     * @param weatherId from OpenWeatherMap API response
+     * @return one of the CONDITION_ constants, CONDITION_UNKNOWN if no relation is found
+     */
+    public static int getCondition(int weatherId) {
+        if (weatherId < 0 || weatherId > MAX_WEATHER_ID) {
+            return CONDITION_UNKNOWN;
+        }
+        return sConditions[weatherId];
+    }
+
+    /**
+     * @param condition one of the CONDITION_ constants
+     * @return the name of its picture in an art pack, null for CONDITION_UNKNOWN
+     */
+    public static String getArtName(int condition) {
+        return ART_NAMES[condition];
+    }
+
+    /**
+     * @param condition one of the CONDITION_ constants
+     * @return true if its pictures are pale, so text over them should be dark
+     */
+    public static boolean isLight(int condition) {
+        return condition == CONDITION_SNOW || condition == CONDITION_FOG;
+    }
+}
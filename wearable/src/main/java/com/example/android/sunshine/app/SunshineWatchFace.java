@@ -40,6 +40,8 @@ import android.util.Log;
 import android.view.SurfaceHolder;
 import android.view.WindowInsets;
 
+import com.example.android.sunshine.shared.WeatherConditions;
+
 import java.lang.ref.WeakReference;
 import java.util.TimeZone;
 import java.util.concurrent.TimeUnit;
@@ -65,6 +67,32 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
      */
     private static final int MSG_UPDATE_TIME = 0;
 
+    // The watch face's pictures for each of the weather conditions
+    private static final int[] ARTS = {
+            -1,
+            R.drawable.art_storm,
+            R.drawable.art_light_rain,
+            R.drawable.art_rain,
+            R.drawable.art_snow_3,
+            R.drawable.art_fog,
+            R.drawable.art_storm,
+            R.drawable.art_clear,
+            R.drawable.art_light_clouds,
+            R.drawable.art_clouds
+    };
+    private static final int[] BACKGROUNDS = {
+            -1,
+            R.drawable.drk3_grey_bg,
+            R.drawable.drk_grey_bg,
+            R.drawable.drk3_grey_bg,
+            R.drawable.lgt_grey_bg,
+            R.drawable.lgt_grey_bg,
+            R.drawable.drk3_grey_bg,
+            R.drawable.blue_bg,
+            R.drawable.blue_bg,
+            R.drawable.grey_bg
+    };
+
     @Override
     public Engine onCreateEngine() {
         return new Engine();
@@ -199,8 +227,7 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
                 mBackgroundBitmap = BitmapFactory.decodeResource(getResources(),
                         getBackgroundResourceForWeatherCondition(weatherId));
 
-                if (weatherId == 511 || weatherId >= 600 && weatherId <= 622 ||
-                        weatherId >= 701 && weatherId <= 761) {
+                if (WeatherConditions.isLight(WeatherConditions.getCondition(weatherId))) {
                     mTextPaint.setColor(getResources().getColor(R.color.dark_grey));
                     mHighTempPaint.setColor(getResources().getColor(R.color.dark_grey));
                     mLowTempPaint.setColor(getResources().getColor(R.color.dark_grey));
@@ -408,77 +435,17 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
      * @return resource id for the corresponding icon. -1 if no relation is found.
      */
     public static int getArtResourceForWeatherCondition(int weatherId) {
-        // Based on weather code data found at:
-        // http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
-        if (weatherId >= 200 && weatherId <= 232) {
-            return R.drawable.art_storm;
-        } else if (weatherId >= 300 && weatherId <= 321) {
-            return R.drawable.art_light_rain;
-        } else if (weatherId >= 500 && weatherId <= 504) {
-            return R.drawable.art_rain;
-        } else if (weatherId == 511) {
-            return R.drawable.art_snow_3;
-        } else if (weatherId >= 520 && weatherId <= 531) {
-            return R.drawable.art_rain;
-        } else if (weatherId >= 600 && weatherId <= 622) {
-            return R.drawable.art_snow_3;
-        } else if (weatherId >= 701 && weatherId <= 761) {
-            return R.drawable.art_fog;
-        } else if (weatherId == 761 || weatherId == 781) {
-            return R.drawable.art_storm;
-        } else if (weatherId == 800) {
-            return R.drawable.art_clear;
-        } else if (weatherId == 801) {
-            return R.drawable.art_light_clouds;
-        } else if (weatherId >= 802 && weatherId <= 804) {
-            return R.drawable.art_clouds;
-        }
-        return -1;
+        return ARTS[WeatherConditions.getCondition(weatherId)];
     }
 
     /**
-     * Helper method to provide the art resource id according to the weather condition id returned
-     * by the OpenWeatherMap call.
+     * Helper method to provide the background resource id according to the weather condition id
+     * returned by the OpenWeatherMap call.
      * @param weatherId from OpenWeatherMap API response
-     * @return resource id for the corresponding icon. -1 if no relation is found.
+     * @return resource id for the corresponding background. -1 if no relation is found.
      */
     public static int getBackgroundResourceForWeatherCondition(int weatherId) {
-        // Update the background image to align with the weather condition.
-        if (weatherId >= 200 && weatherId <= 232) {
-            //return R.drawable.art_storm;
-            return R.drawable.drk3_grey_bg;
-        } else if (weatherId >= 300 && weatherId <= 321) {
-            //return R.drawable.art_light_rain;
-            return R.drawable.drk_grey_bg;
-        } else if (weatherId >= 500 && weatherId <= 504) {
-            //return R.drawable.art_rain;
-            return R.drawable.drk3_grey_bg;
-        } else if (weatherId == 511) {
-            //return R.drawable.art_snow;
-            return R.drawable.lgt_grey_bg;
-        } else if (weatherId >= 520 && weatherId <= 531) {
-            //return R.drawable.art_rain;
-            return R.drawable.drk3_grey_bg;
-        } else if (weatherId >= 600 && weatherId <= 622) {
-            //return R.drawable.art_snow_3;
-            return R.drawable.lgt_grey_bg;
-        } else if (weatherId >= 701 && weatherId <= 761) {
-            //return R.drawable.art_fog;
-            return R.drawable.lgt_grey_bg;
-        } else if (weatherId == 761 || weatherId == 781) {
-            //return R.drawable.art_storm;
-            return R.drawable.drk3_grey_bg;
-        } else if (weatherId == 800) {
-            //return R.drawable.art_clear;
-            return R.drawable.blue_bg;
-        } else if (weatherId == 801) {
-            //return R.drawable.art_light_clouds;
-            return R.drawable.blue_bg;
-        } else if (weatherId >= 802 && weatherId <= 804) {
-            //return R.drawable.art_clouds;
-            return R.drawable.grey_bg;
-        }
-        return -1;
+        return BACKGROUNDS[WeatherConditions.getCondition(weatherId)];
     }
 
     /**